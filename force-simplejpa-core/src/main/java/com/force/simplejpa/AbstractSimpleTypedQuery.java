@@ -5,20 +5,35 @@
  */
 package com.force.simplejpa;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.persistence.NoResultException;
 import javax.persistence.NonUniqueResultException;
 
+import org.apache.commons.lang.Validate;
+
 /**
  * An abstract implementation of {@link SimpleTypedQuery} that handles most of the standard stuff so that derived
- * classes just need to worry about implementing {@link com.force.simplejpa.SimpleTypedQuery#getResultList()}.
+ * classes just need to worry about implementing {@link com.force.simplejpa.SimpleTypedQuery#getResultList()} and
+ * {@link com.force.simplejpa.SimpleTypedQuery#iterate()}.
  *
  * @param <T> the class of returned values
  */
 abstract class AbstractSimpleTypedQuery<T> implements SimpleTypedQuery<T> {
     private int maxResults;
     private int startPosition;
+    private int prefetchDepth;
+    private int fetchParallelism;
+    private int fetchDepth = SoqlBuilder.DEFAULT_DEPTH;
+    private int fetchSize;
+    private boolean includeDeleted;
+    private String keysetField;
+    private boolean bulkMode;
+    private boolean singleFlight;
+    private Map<String, Object> parameters;
 
     @Override
     public SimpleTypedQuery<T> setMaxResults(int maxResults) {
@@ -40,14 +55,176 @@ abstract class AbstractSimpleTypedQuery<T> implements SimpleTypedQuery<T> {
         return startPosition;
     }
 
+    @Override
+    public SimpleTypedQuery<T> setParameter(String name, Object value) {
+        Validate.notEmpty(name, "name must not be empty");
+
+        if (parameters == null)
+            parameters = new HashMap<String, Object>();
+        parameters.put(name, value);
+        return this;
+    }
+
+    protected Map<String, Object> getParameters() {
+        return parameters;
+    }
+
+    @Override
+    public SimpleTypedQuery<T> setPrefetchDepth(int prefetchDepth) {
+        this.prefetchDepth = prefetchDepth;
+        return this;
+    }
+
+    protected int getPrefetchDepth() {
+        return prefetchDepth;
+    }
+
+    @Override
+    public SimpleTypedQuery<T> setFetchParallelism(int fetchParallelism) {
+        this.fetchParallelism = fetchParallelism;
+        return this;
+    }
+
+    protected int getFetchParallelism() {
+        return fetchParallelism;
+    }
+
+    @Override
+    public SimpleTypedQuery<T> setFetchDepth(int fetchDepth) {
+        Validate.isTrue(fetchDepth >= 0, "fetchDepth must not be negative");
+
+        this.fetchDepth = fetchDepth;
+        return this;
+    }
+
+    protected int getFetchDepth() {
+        return fetchDepth;
+    }
+
+    @Override
+    public SimpleTypedQuery<T> setFetchSize(int fetchSize) {
+        Validate.isTrue(
+            fetchSize == 0 || (fetchSize >= 200 && fetchSize <= 2000), "fetchSize must be 0 or from 200 to 2000");
+
+        this.fetchSize = fetchSize;
+        return this;
+    }
+
+    protected int getFetchSize() {
+        return fetchSize;
+    }
+
+    @Override
+    public SimpleTypedQuery<T> setIncludeDeleted(boolean includeDeleted) {
+        this.includeDeleted = includeDeleted;
+        return this;
+    }
+
+    protected boolean isIncludeDeleted() {
+        return includeDeleted;
+    }
+
+    @Override
+    public SimpleTypedQuery<T> setKeysetPagination(String keyField) {
+        Validate.notEmpty(keyField, "keyField must not be empty");
+
+        this.keysetField = keyField;
+        return this;
+    }
+
+    protected String getKeysetField() {
+        return keysetField;
+    }
+
+    @Override
+    public SimpleTypedQuery<T> setBulkMode(boolean bulkMode) {
+        this.bulkMode = bulkMode;
+        return this;
+    }
+
+    protected boolean isBulkMode() {
+        return bulkMode;
+    }
+
+    @Override
+    public SimpleTypedQuery<T> setSingleFlight(boolean singleFlight) {
+        this.singleFlight = singleFlight;
+        return this;
+    }
+
+    protected boolean isSingleFlight() {
+        return singleFlight;
+    }
+
+    @Override
+    public PagedResultList<T> getPagedResultList() {
+        return new PagedResultList<T>(iterate());
+    }
+
+    @Override
+    public <R> PagedResultList<R> getPagedResultList(Class<R> resultClass) {
+        return new PagedResultList<R>(iterate(resultClass));
+    }
+
+    @Override
+    public void forEachBatch(int batchSize, BatchHandler<T> handler) {
+        Validate.isTrue(batchSize > 0, "batchSize must be greater than zero");
+        Validate.notNull(handler, "handler must not be null");
+
+        handleInBatches(iterate(), batchSize, handler);
+    }
+
+    @Override
+    public <R> void forEachBatch(Class<R> resultClass, int batchSize, BatchHandler<R> handler) {
+        Validate.isTrue(batchSize > 0, "batchSize must be greater than zero");
+        Validate.notNull(handler, "handler must not be null");
+
+        handleInBatches(iterate(resultClass), batchSize, handler);
+    }
+
+    private static <R> void handleInBatches(CloseableIterator<R> iterator, int batchSize, BatchHandler<R> handler) {
+        try {
+            List<R> batch = new ArrayList<R>(batchSize);
+            while (iterator.hasNext()) {
+                batch.add(iterator.next());
+                if (batch.size() == batchSize) {
+                    handler.handleBatch(batch);
+                    batch = new ArrayList<R>(batchSize); // Drop our reference to the batch just handled
+                }
+            }
+            if (!batch.isEmpty())
+                handler.handleBatch(batch);
+        } finally {
+            iterator.close();
+        }
+    }
+
+    /**
+     * Iterates over the results of the query like {@link #iterate()} but retrieves no more than the given number of
+     * results, whatever the maximum set on the query.
+     *
+     * @param maxResults the maximum number of results to retrieve
+     * @return an iterator over the results
+     */
+    protected abstract CloseableIterator<T> iterateAtMost(int maxResults);
+
     @Override
     public T getSingleResult() {
-        List<T> results = getResultList();
-        if (results.size() == 1)
-            return results.get(0);
-        else if (results.size() > 1)
-            throw new NonUniqueResultException();
-        else
-            throw new NoResultException();
+        // Two results are enough to know whether the result is unique so don't ask for any more than that. This keeps
+        // the cost fixed even if the query turns out to match a great many objects.
+        int maxResults = getMaxResults();
+        CloseableIterator<T> iterator = iterateAtMost((maxResults > 0 && maxResults < 2) ? maxResults : 2);
+        try {
+            if (!iterator.hasNext())
+                throw new NoResultException();
+
+            T result = iterator.next();
+            if (iterator.hasNext())
+                throw new NonUniqueResultException();
+
+            return result;
+        } finally {
+            iterator.close();
+        }
     }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Map;
+
+/**
+ * A connector which issues requests to the Salesforce "data" REST API without making the caller wait for the
+ * responses. Each method returns right away with a Guava {@link ListenableFuture} which completes when the response
+ * has arrived. Failures (such as {@link EntityRequestException}) are reported through the future. Whether a thread is
+ * tied up while a request is in flight depends on the implementation.
+ * <p/>
+ * The operations are the same as those of {@link RestConnector}. When the {@link RestConnector} given to a
+ * {@link RestSimpleEntityManager} also implements this interface, an {@link AsyncSimpleEntityManager} built on that
+ * entity manager issues its requests through these methods rather than by running the synchronous operations on its
+ * executor.
+ * <p/>
+ * The response bodies handed over by the futures are parsed by the entity manager on its executor rather than on the
+ * thread which completes the future.
+ */
+public interface AsyncRestConnector {
+    /**
+     * Creates a new Salesforce object.
+     *
+     * @param entityType the Salesforce object type
+     * @param jsonBody   the JSON encoded body for the creation request
+     * @param headers    optional HTTP headers to add to the request.
+     * @return future for the response body returned by Salesforce.
+     */
+    ListenableFuture<InputStream> doCreateAsync(String entityType, String jsonBody, Map<String, String> headers);
+
+    /**
+     * Issues a GET request to an arbitrary Salesforce REST URI, usually for the purpose of picking up subsequent
+     * batches of a paged query result.
+     *
+     * @param uri     the URI
+     * @param headers optional HTTP headers to add to the request.
+     * @return future for the response body returned by Salesforce.
+     */
+    ListenableFuture<InputStream> doGetAsync(URI uri, Map<String, String> headers);
+
+    /**
+     * Issues a Salesforce SOQL query.
+     *
+     * @param soql    the SOQL for the query
+     * @param headers optional HTTP headers to add to the request.
+     * @return future for the response body returned by Salesforce.
+     */
+    ListenableFuture<InputStream> doQueryAsync(String soql, Map<String, String> headers);
+
+    /**
+     * Issues a Salesforce SOQL query which also returns deleted and archived records ("queryAll").
+     *
+     * @param soql    the SOQL for the query
+     * @param headers optional HTTP headers to add to the request.
+     * @return future for the response body returned by Salesforce.
+     */
+    ListenableFuture<InputStream> doQueryAllAsync(String soql, Map<String, String> headers);
+
+    /**
+     * Retrieves selected fields of an existing Salesforce object.
+     *
+     * @param entityType the Salesforce object type
+     * @param id         the Salesforce ID of the object
+     * @param fields     comma separated list of the fields to retrieve
+     * @param headers    optional HTTP headers to add to the request.
+     * @return future for the response body returned by Salesforce, which completes with <code>null</code> if the
+     *         object does not exist (a 404 with the NOT_FOUND error code). Any other failure, including a 404 for an
+     *         unknown object type, completes it with an {@link EntityRequestException}.
+     */
+    ListenableFuture<InputStream> doRetrieveAsync(
+        String entityType, String id, String fields, Map<String, String> headers);
+
+    /**
+     * Updates an existing Salesforce object.
+     *
+     * @param entityType the Salesforce object type
+     * @param id         the Salesforce ID of the object
+     * @param jsonBody   the JSON encoded body for the update request
+     * @param headers    optional HTTP headers to add to the request.
+     * @return future which completes when the object has been updated.
+     */
+    ListenableFuture<Void> doUpdateAsync(String entityType, String id, String jsonBody, Map<String, String> headers);
+
+    /**
+     * Deletes an existing Salesforce object.
+     *
+     * @param entityType the Salesforce object type
+     * @param id         the Salesforce ID of the object
+     * @param headers    optional HTTP headers to add to the request.
+     * @return future which completes when the object has been deleted.
+     */
+    ListenableFuture<Void> doDeleteAsync(String entityType, String id, Map<String, String> headers);
+}
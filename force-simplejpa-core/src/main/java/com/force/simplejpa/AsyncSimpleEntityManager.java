@@ -0,0 +1,328 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.apache.commons.lang.Validate;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Asynchronous versions of the {@link SimpleEntityManager} operations. Each operation is performed on an executor and
+ * returns a Guava {@link ListenableFuture} right away, so a caller can start several independent requests to
+ * Salesforce and wait for them together (for example with
+ * {@link com.google.common.util.concurrent.Futures#allAsList(ListenableFuture[])}) rather than waiting for each in
+ * turn. Failures are reported through the future.
+ * <p/>
+ * The executor limits how many requests are in flight at once, so it should be sized with the Salesforce concurrent
+ * request limits in mind. It should not be the executor the wrapped entity manager uses for its own background work:
+ * operations such as {@link SimpleEntityManager#findAll(Class, Collection)} wait on that background work, and sharing
+ * a bounded pool could leave them waiting on tasks queued behind themselves.
+ * <p/>
+ * When the wrapped entity manager is a {@link RestSimpleEntityManager} constructed with its
+ * {@link AuthorizationConnector}, the authorization is captured on the thread which calls an asynchronous operation
+ * and the operation runs on the executor with it (see {@link AuthorizationContext}). Operations can therefore be
+ * started from a thread serving an inbound web request even when the authorization connector only answers on that
+ * thread. With any other entity manager the operations ask for the authorization on the executor thread.
+ * <p/>
+ * When the wrapped entity manager is a {@link RestSimpleEntityManager} whose connector is also an
+ * {@link AsyncRestConnector}, persist, merge, remove, find, ordinary queries and counts are issued through the
+ * asynchronous connector instead of being run on the executor. The responses are read on the entity manager's own
+ * executor once they arrive, in the same way as by the synchronous operations. Whether a thread waits on each request
+ * while it is in flight is up to the connector. {@link #findAllAsync(Class, Collection)} and queries in Bulk mode, with
+ * keyset pagination or with single-flight sharing always run on the executor.
+ * <p/>
+ * Entities and queries handed to an asynchronous operation must not be touched by the caller until its future has
+ * completed.
+ */
+public final class AsyncSimpleEntityManager {
+    private final SimpleEntityManager entityManager;
+    private final ListeningExecutorService executor;
+    private final RestSimpleEntityManager asyncConnectorEntityManager; // null unless it has an AsyncRestConnector
+    private final AuthorizationConnector authorizationConnector; // null unless it is known to the entity manager
+
+    /**
+     * Constructs a new instance which performs the operations of a {@link RestSimpleEntityManager} for the given
+     * {@link RestConnector} on the given executor.
+     *
+     * @param connector a REST connector
+     * @param executor  the executor that performs the operations
+     */
+    public AsyncSimpleEntityManager(RestConnector connector, ExecutorService executor) {
+        this(new RestSimpleEntityManager(connector), executor);
+    }
+
+    /**
+     * Constructs a new instance which performs the operations of the given {@link SimpleEntityManager} on the given
+     * executor.
+     *
+     * @param entityManager the entity manager that does the work
+     * @param executor      the executor that performs the operations
+     */
+    public AsyncSimpleEntityManager(SimpleEntityManager entityManager, ExecutorService executor) {
+        Validate.notNull(entityManager, "entityManager must not be null");
+        Validate.notNull(executor, "executor must not be null");
+
+        this.entityManager = entityManager;
+        this.executor = MoreExecutors.listeningDecorator(executor);
+        this.asyncConnectorEntityManager =
+            (entityManager instanceof RestSimpleEntityManager
+                && ((RestSimpleEntityManager) entityManager).hasAsyncConnector())
+                ? (RestSimpleEntityManager) entityManager
+                : null;
+        this.authorizationConnector =
+            (entityManager instanceof RestSimpleEntityManager)
+                ? ((RestSimpleEntityManager) entityManager).getAuthorizationConnector()
+                : null;
+    }
+
+    /**
+     * Gets the wrapped entity manager, for operations which don't need to be asynchronous.
+     *
+     * @return the wrapped entity manager
+     */
+    public SimpleEntityManager getEntityManager() {
+        return entityManager;
+    }
+
+    /**
+     * Asynchronously persists a new entity (see {@link SimpleEntityManager#persist(Object)}).
+     *
+     * @param entity the entity
+     * @return a future which completes with the entity, which then has its id set
+     */
+    public <T> ListenableFuture<T> persistAsync(final T entity) {
+        Validate.notNull(entity, "entity must not be null");
+
+        if (asyncConnectorEntityManager != null) {
+            try {
+                return Futures.transform(asyncConnectorEntityManager.persistAsync(entity), new Function<Void, T>() {
+                    @Override
+                    public T apply(Void ignored) {
+                        return entity;
+                    }
+                });
+            } catch (RuntimeException e) {
+                return Futures.immediateFailedFuture(e);
+            }
+        }
+
+        return submit(new Callable<T>() {
+            @Override
+            public T call() {
+                entityManager.persist(entity);
+                return entity;
+            }
+        });
+    }
+
+    /**
+     * Asynchronously merges an existing entity (see {@link SimpleEntityManager#merge(Object)}).
+     *
+     * @param entity the entity
+     * @return a future which completes with the merged entity
+     */
+    public <T> ListenableFuture<T> mergeAsync(final T entity) {
+        Validate.notNull(entity, "entity must not be null");
+
+        if (asyncConnectorEntityManager != null) {
+            try {
+                return asyncConnectorEntityManager.mergeAsync(entity);
+            } catch (RuntimeException e) {
+                return Futures.immediateFailedFuture(e);
+            }
+        }
+
+        return submit(new Callable<T>() {
+            @Override
+            public T call() {
+                return entityManager.merge(entity);
+            }
+        });
+    }
+
+    /**
+     * Asynchronously removes an existing entity (see {@link SimpleEntityManager#remove(Object)}).
+     *
+     * @param entity the entity
+     * @return a future which completes when the entity has been removed
+     */
+    public ListenableFuture<Void> removeAsync(final Object entity) {
+        Validate.notNull(entity, "entity must not be null");
+
+        if (asyncConnectorEntityManager != null) {
+            try {
+                return asyncConnectorEntityManager.removeAsync(entity);
+            } catch (RuntimeException e) {
+                return Futures.immediateFailedFuture(e);
+            }
+        }
+
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                entityManager.remove(entity);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Asynchronously finds an entity by id (see {@link SimpleEntityManager#find(Class, Object)}).
+     *
+     * @param entityClass the class of the entity
+     * @param primaryKey  the id of the entity
+     * @return a future which completes with the entity or with <code>null</code> if it doesn't exist
+     */
+    public <T> ListenableFuture<T> findAsync(final Class<T> entityClass, final Object primaryKey) {
+        if (asyncConnectorEntityManager != null) {
+            try {
+                return asyncConnectorEntityManager.findAsync(entityClass, primaryKey);
+            } catch (RuntimeException e) {
+                return Futures.immediateFailedFuture(e);
+            }
+        }
+
+        return submit(new Callable<T>() {
+            @Override
+            public T call() {
+                return entityManager.find(entityClass, primaryKey);
+            }
+        });
+    }
+
+    /**
+     * Asynchronously finds a group of entities by id (see {@link SimpleEntityManager#findAll(Class, Collection)}).
+     *
+     * @param entityClass the class of the entities
+     * @param primaryKeys the ids of the entities
+     * @return a future which completes with the entities that exist, in the order of the ids
+     */
+    public <T> ListenableFuture<List<T>> findAllAsync(final Class<T> entityClass, final Collection<?> primaryKeys) {
+        return submit(new Callable<List<T>>() {
+            @Override
+            public List<T> call() {
+                return entityManager.findAll(entityClass, primaryKeys);
+            }
+        });
+    }
+
+    /**
+     * Creates a query to be executed with {@link #getResultListAsync(SimpleTypedQuery)} or
+     * {@link #getResultCountAsync(SimpleTypedQuery)} (see {@link SimpleEntityManager#createQuery(String, Class)}).
+     *
+     * @param qualification the SOQL template
+     * @param resultClass   the class of the results
+     * @return the query
+     */
+    public <T> SimpleTypedQuery<T> createQuery(String qualification, Class<T> resultClass) {
+        return entityManager.createQuery(qualification, resultClass);
+    }
+
+    /**
+     * Asynchronously executes a query (see {@link SimpleTypedQuery#getResultList()}).
+     *
+     * @param query the query
+     * @return a future which completes with the results
+     */
+    public <T> ListenableFuture<List<T>> getResultListAsync(final SimpleTypedQuery<T> query) {
+        Validate.notNull(query, "query must not be null");
+
+        if (canExecuteAsync(query)) {
+            try {
+                return asyncConnectorEntityManager.getResultListAsync(query);
+            } catch (RuntimeException e) {
+                return Futures.immediateFailedFuture(e);
+            }
+        }
+
+        return submit(new Callable<List<T>>() {
+            @Override
+            public List<T> call() {
+                return query.getResultList();
+            }
+        });
+    }
+
+    /**
+     * Asynchronously executes a query, binding the results to a specific class (see
+     * {@link SimpleTypedQuery#getResultList(Class)}).
+     *
+     * @param query       the query
+     * @param resultClass the class of the results
+     * @return a future which completes with the results
+     */
+    public <R> ListenableFuture<List<R>> getResultListAsync(
+        final SimpleTypedQuery<?> query, final Class<R> resultClass) {
+
+        Validate.notNull(query, "query must not be null");
+
+        if (canExecuteAsync(query)) {
+            try {
+                return asyncConnectorEntityManager.getResultListAsync(query, resultClass);
+            } catch (RuntimeException e) {
+                return Futures.immediateFailedFuture(e);
+            }
+        }
+
+        return submit(new Callable<List<R>>() {
+            @Override
+            public List<R> call() {
+                return query.getResultList(resultClass);
+            }
+        });
+    }
+
+    /**
+     * Asynchronously counts the results of a query (see {@link SimpleTypedQuery#getResultCount()}).
+     *
+     * @param query the query
+     * @return a future which completes with the number of results
+     */
+    public ListenableFuture<Long> getResultCountAsync(final SimpleTypedQuery<?> query) {
+        Validate.notNull(query, "query must not be null");
+
+        if (canExecuteAsync(query)) {
+            try {
+                return asyncConnectorEntityManager.getResultCountAsync(query);
+            } catch (RuntimeException e) {
+                return Futures.immediateFailedFuture(e);
+            }
+        }
+
+        return submit(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return query.getResultCount();
+            }
+        });
+    }
+
+    /**
+     * Submits an operation to the executor, with the authorization of the calling thread if it can be captured.
+     */
+    private <V> ListenableFuture<V> submit(Callable<V> operation) {
+        if (authorizationConnector == null)
+            return executor.submit(operation);
+
+        try {
+            return executor.submit(AuthorizationContext.capture(authorizationConnector).wrap(operation));
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    private boolean canExecuteAsync(SimpleTypedQuery<?> query) {
+        return asyncConnectorEntityManager != null && asyncConnectorEntityManager.canExecuteAsync(query);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import org.apache.commons.lang.Validate;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The authorization of the thread which started an operation, carried over to the threads which do background work
+ * for it.
+ * <p/>
+ * Some {@link AuthorizationConnector}s only answer on particular threads. For example, one which propagates the
+ * authorization of the inbound web request only works on the thread serving that request. Background work (such as
+ * prefetching pages of query results) therefore can't ask the connector itself. Instead the authorization is captured
+ * with {@link #capture(AuthorizationConnector)} on the thread which starts the operation, and the background tasks are
+ * run with the captured values in effect (see {@link #wrap(ExecutorService)}).
+ * <p/>
+ * Connectors and HTTP client filters should obtain the values through {@link #getAuthorization(AuthorizationConnector)}
+ * and {@link #getInstanceUrl(AuthorizationConnector)} rather than asking the {@link AuthorizationConnector} directly.
+ * These return the captured values while a task runs with a context for that same connector, and ask the connector
+ * otherwise.
+ */
+public final class AuthorizationContext {
+    private static final ThreadLocal<AuthorizationContext> current = new ThreadLocal<AuthorizationContext>();
+
+    private final AuthorizationConnector authorizationConnector;
+    private final String authorization;
+    private final URI instanceUrl;
+
+    private AuthorizationContext(AuthorizationConnector authorizationConnector, String authorization, URI instanceUrl) {
+        this.authorizationConnector = authorizationConnector;
+        this.authorization = authorization;
+        this.instanceUrl = instanceUrl;
+    }
+
+    /**
+     * Captures the authorization and instance URL of a connector on the calling thread. If the calling thread is
+     * itself running with a context for the connector, that context is returned.
+     *
+     * @param authorizationConnector the authorization connector
+     * @return the captured context
+     */
+    public static AuthorizationContext capture(AuthorizationConnector authorizationConnector) {
+        Validate.notNull(authorizationConnector, "authorizationConnector must not be null");
+
+        AuthorizationContext context = current.get();
+        if (context != null && context.authorizationConnector == authorizationConnector)
+            return context;
+
+        return new AuthorizationContext(
+            authorizationConnector, authorizationConnector.getAuthorization(), authorizationConnector.getInstanceUrl());
+    }
+
+    /**
+     * Gets the value of the authorization header for an outbound request, from the context in effect on the calling
+     * thread if there is one for the connector and from the connector otherwise.
+     *
+     * @param authorizationConnector the authorization connector
+     * @return a value for the Authorization header
+     */
+    public static String getAuthorization(AuthorizationConnector authorizationConnector) {
+        AuthorizationContext context = current.get();
+        return (context != null && context.authorizationConnector == authorizationConnector)
+            ? context.authorization
+            : authorizationConnector.getAuthorization();
+    }
+
+    /**
+     * Gets the instance URL for an outbound request, from the context in effect on the calling thread if there is one
+     * for the connector and from the connector otherwise.
+     *
+     * @param authorizationConnector the authorization connector
+     * @return the instance URL
+     */
+    public static URI getInstanceUrl(AuthorizationConnector authorizationConnector) {
+        AuthorizationContext context = current.get();
+        return (context != null && context.authorizationConnector == authorizationConnector)
+            ? context.instanceUrl
+            : authorizationConnector.getInstanceUrl();
+    }
+
+    /**
+     * Wraps a task so that it runs with this context in effect.
+     *
+     * @param task the task
+     * @return the wrapped task
+     */
+    public Runnable wrap(final Runnable task) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                AuthorizationContext previous = current.get();
+                current.set(AuthorizationContext.this);
+                try {
+                    task.run();
+                } finally {
+                    restore(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Wraps a task so that it runs with this context in effect.
+     *
+     * @param task the task
+     * @return the wrapped task
+     */
+    public <V> Callable<V> wrap(final Callable<V> task) {
+        return new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                AuthorizationContext previous = current.get();
+                current.set(AuthorizationContext.this);
+                try {
+                    return task.call();
+                } finally {
+                    restore(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Wraps an executor so that every task submitted through the wrapper runs with this context in effect. Shutting
+     * down the wrapper shuts down the underlying executor.
+     *
+     * @param executor the executor
+     * @return the wrapped executor
+     */
+    public ExecutorService wrap(ExecutorService executor) {
+        return new ContextExecutorService(executor);
+    }
+
+    private static void restore(AuthorizationContext previous) {
+        if (previous == null) {
+            current.remove();
+        } else {
+            current.set(previous);
+        }
+    }
+
+    private final class ContextExecutorService extends AbstractExecutorService {
+        private final ExecutorService executor;
+
+        private ContextExecutorService(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            executor.execute(wrap(command));
+        }
+
+        @Override
+        public void shutdown() {
+            executor.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return executor.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return executor.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return executor.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return executor.awaitTermination(timeout, unit);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import java.util.List;
+
+/**
+ * A callback which receives the results of a query in fixed size batches.
+ *
+ * @param <T> type of object returned by the query
+ * @see SimpleTypedQuery#forEachBatch(int, BatchHandler)
+ */
+public interface BatchHandler<T> {
+    /**
+     * Handles one batch of query results. The query does not hold on to the batch once this method returns, so the
+     * objects in the batch become eligible for garbage collection unless the handler keeps references to them.
+     *
+     * @param batch the next batch of query results. Every batch except the last contains exactly the requested number
+     *              of objects.
+     */
+    void handleBatch(List<T> batch);
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * An abstract {@link QueryPageFetcher} for strategies which retrieve pages ahead of time on a background executor and
+ * buffer the response bodies in memory until they are asked for.
+ * <p/>
+ * Derived classes decide which pages to request and when. This class takes care of handing out the buffered pages,
+ * falling back to a direct request for pages that were never requested ahead of time, and canceling outstanding work
+ * when the fetcher is closed.
+ */
+abstract class BufferingQueryPageFetcher implements QueryPageFetcher {
+    private final RestConnector connector;
+    private final Map<String, String> headers;
+    private final ExecutorService executor;
+
+    private final Map<URI, Future<byte[]>> pages = new HashMap<URI, Future<byte[]>>();
+    private boolean closed;
+
+    protected BufferingQueryPageFetcher(RestConnector connector, Map<String, String> headers, ExecutorService executor) {
+        this.connector = connector;
+        this.headers = headers;
+        this.executor = executor;
+    }
+
+    @Override
+    public final InputStream fetchPage(URI nextRecordsUrl) {
+        Future<byte[]> page;
+        synchronized (this) {
+            page = pages.remove(nextRecordsUrl);
+        }
+        pageTaken(nextRecordsUrl);
+        if (page == null)
+            return connector.doGet(nextRecordsUrl, headers); // It wasn't requested ahead of time so just get it now
+
+        try {
+            return new ByteArrayInputStream(page.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EntityRequestException("Interrupted while waiting for the next page of query results", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new EntityResponseException("Failed to read the next page of query results", e.getCause());
+        }
+    }
+
+    @Override
+    public final synchronized void close() {
+        closed = true;
+        for (Future<byte[]> page : pages.values()) {
+            page.cancel(true);
+        }
+        pages.clear();
+    }
+
+    /**
+     * Called when the consumer asks for a page, after any buffered copy of it has been handed out. Derived classes
+     * which limit how far ahead of the consumer they read can use this to request more pages.
+     *
+     * @param nextRecordsUrl the location of the page
+     */
+    protected void pageTaken(URI nextRecordsUrl) {
+    }
+
+    protected final ExecutorService getExecutor() {
+        return executor;
+    }
+
+    protected final synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Determines whether a page has been requested ahead of time and not yet handed out.
+     *
+     * @param nextRecordsUrl the location of the page
+     * @return <code>true</code> if the page is buffered or in flight
+     */
+    protected final synchronized boolean isPending(URI nextRecordsUrl) {
+        return pages.containsKey(nextRecordsUrl);
+    }
+
+    /**
+     * Returns the number of pages which have been requested ahead of time and not yet handed out.
+     *
+     * @return the number of pages which are buffered or in flight
+     */
+    protected final synchronized int getPendingCount() {
+        return pages.size();
+    }
+
+    /**
+     * Registers a page which is being requested ahead of time.
+     *
+     * @param nextRecordsUrl the location of the page
+     * @param page           a future for the response body of the page
+     */
+    protected final synchronized void addPending(URI nextRecordsUrl, Future<byte[]> page) {
+        if (closed) {
+            page.cancel(true);
+        } else {
+            pages.put(nextRecordsUrl, page);
+        }
+    }
+
+    /**
+     * Requests a page and reads the complete response body into memory.
+     *
+     * @param nextRecordsUrl the location of the page
+     * @return the response body
+     * @throws IOException if the response body could not be read
+     */
+    protected final byte[] readPage(URI nextRecordsUrl) throws IOException {
+        InputStream responseStream = connector.doGet(nextRecordsUrl, headers);
+        try {
+            return ByteStreams.toByteArray(responseStream);
+        } finally {
+            Closeables.closeQuietly(responseStream);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * A connector which knows how to issue requests to the Salesforce Bulk API 2.0 query endpoints.
+ * <p/>
+ * Like {@link RestConnector}, this is a simple internal abstraction that allows different HTTP libraries (or a local
+ * stand-in server for testing) to be plugged in. The methods correspond to the steps of running a Bulk query job, not
+ * to generic HTTP operations.
+ */
+public interface BulkConnector {
+    /**
+     * Creates a Bulk query job.
+     *
+     * @param jsonBody the JSON encoded body for the job creation request. See the Salesforce Bulk API 2.0
+     *                 documentation for more details on the format.
+     * @param headers  optional HTTP headers to add to the request.
+     * @return input stream for the job information returned by Salesforce.
+     */
+    InputStream doCreateQueryJob(String jsonBody, Map<String, String> headers);
+
+    /**
+     * Gets the current state of a Bulk query job.
+     *
+     * @param jobId   the id of the job
+     * @param headers optional HTTP headers to add to the request.
+     * @return input stream for the job information returned by Salesforce.
+     */
+    InputStream doGetQueryJob(String jobId, Map<String, String> headers);
+
+    /**
+     * Gets a chunk of the CSV results of a completed Bulk query job.
+     *
+     * @param jobId   the id of the job
+     * @param locator the locator of the chunk (from the previous chunk) or <code>null</code> for the first chunk
+     * @param headers optional HTTP headers to add to the request.
+     * @return the chunk of results
+     */
+    BulkResultChunk doGetQueryResults(String jobId, String locator, Map<String, String> headers);
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectReader;
+import org.codehaus.jackson.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A {@link CloseableIterator} which streams the CSV results of a completed Bulk query job.
+ * <p/>
+ * The columns of the CSV are the fields from the select list of the query (relationship fields appear with dotted
+ * names such as "Owner.Name"). Each row is turned into the same JSON structure that the REST query API returns for a
+ * record so that it binds to the result class through the same {@link EntityMappingContext} as any other query result.
+ * Empty values are treated as <code>null</code>, which is how the Bulk API represents them.
+ * <p/>
+ * Chunks of results are requested one at a time as the consumer advances past the end of the current one.
+ *
+ * @param <T> type of object returned by the iterator
+ */
+final class BulkQueryResultIterator<T> implements CloseableIterator<T> {
+    private static final Logger log = LoggerFactory.getLogger(BulkQueryResultIterator.class);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final BulkConnector connector;
+    private final String jobId;
+    private final Map<String, String> headers;
+    private final EntityMappingContext mappingContext;
+    private final Class<T> resultClass;
+    private final ObjectReader reader;
+
+    private CsvReader csvReader;
+    private String[][] columnPaths; // The dotted column names of the current chunk, already split
+    private String nextLocator;
+    private T nextResult;
+    private boolean closed;
+
+    /**
+     * Constructs a new instance positioned at the beginning of the first chunk of results.
+     *
+     * @param connector      the connector used to retrieve the chunks of results
+     * @param jobId          the id of the completed job
+     * @param headers        optional HTTP headers to add to the requests
+     * @param mappingContext the mapping context used to bind the records
+     * @param resultClass    the class of the returned objects
+     */
+    BulkQueryResultIterator(
+        BulkConnector connector, String jobId, Map<String, String> headers, EntityMappingContext mappingContext,
+        Class<T> resultClass) {
+
+        this.connector = connector;
+        this.jobId = jobId;
+        this.headers = headers;
+        this.mappingContext = mappingContext;
+        this.resultClass = resultClass;
+        this.reader = mappingContext.getObjectReader(resultClass);
+
+        openChunk(null);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextResult != null)
+            return true;
+
+        try {
+            while (true) {
+                if (csvReader != null) {
+                    List<String> row = csvReader.readRow();
+                    if (row != null) {
+                        nextResult = readRecord(row);
+                        return true;
+                    }
+                    closeReader(); // We've reached the end of the records for this chunk
+                }
+
+                if (nextLocator == null) {
+                    close();
+                    return false;
+                }
+
+                String locator = nextLocator;
+                nextLocator = null;
+                openChunk(locator);
+            }
+        } catch (IOException e) {
+            close();
+            throw new EntityResponseException("Failed to parse the Bulk query result", e);
+        }
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        T result = nextResult;
+        nextResult = null;
+        return result;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Query results can not be removed");
+    }
+
+    @Override
+    public void close() {
+        if (closed)
+            return;
+
+        closed = true;
+        nextResult = null;
+        nextLocator = null;
+        closeReader();
+    }
+
+    /**
+     * Requests a chunk of results and reads its header row.
+     */
+    private void openChunk(String locator) {
+        BulkResultChunk chunk = connector.doGetQueryResults(jobId, locator, headers);
+        nextLocator = chunk.getNextLocator();
+        csvReader = new CsvReader(new InputStreamReader(chunk.getContent(), UTF_8));
+        try {
+            List<String> columnNames = csvReader.readRow();
+            if (columnNames == null) {
+                closeReader(); // There are no records in this chunk
+                return;
+            }
+
+            columnPaths = new String[columnNames.size()][];
+            for (int i = 0; i < columnPaths.length; i++) {
+                columnPaths[i] = columnNames.get(i).split("\\.");
+            }
+        } catch (IOException e) {
+            close();
+            throw new EntityResponseException("Failed to parse the Bulk query result", e);
+        }
+    }
+
+    private T readRecord(List<String> row) throws IOException {
+        if (row.size() != columnPaths.length)
+            throw new EntityResponseException(
+                String.format("Bulk query result row has %d values but there are %d columns",
+                    row.size(), columnPaths.length));
+
+        ObjectNode node = mappingContext.getObjectMapper().createObjectNode();
+        for (int i = 0; i < columnPaths.length; i++) {
+            String value = row.get(i);
+            if (value.length() > 0)
+                putPath(node, columnPaths[i], value);
+        }
+        fillMissingColumns(node);
+
+        if (log.isTraceEnabled()) {
+            log.trace(String.format("...Result Row: %s", node.toString()));
+        }
+        if (resultClass.equals(JsonNode.class)) {
+            return resultClass.cast(node);
+        } else {
+            return reader.<T>readValue(node);
+        }
+    }
+
+    /**
+     * Puts a value at a dotted path, creating the intermediate objects for relationships as needed. Relationship
+     * objects are only created for values which are present so that an empty relationship comes out as
+     * <code>null</code> rather than as an object full of nulls.
+     */
+    private static void putPath(ObjectNode node, String[] path, String value) {
+        ObjectNode parent = node;
+        for (int i = 0; i < path.length - 1; i++) {
+            JsonNode child = parent.get(path[i]);
+            if (!(child instanceof ObjectNode))
+                child = parent.putObject(path[i]);
+            parent = (ObjectNode) child;
+        }
+        parent.put(path[path.length - 1], value);
+    }
+
+    /**
+     * Adds explicit nulls for the top level columns which have no value, as the REST API would.
+     */
+    private void fillMissingColumns(ObjectNode node) {
+        for (String[] path : columnPaths) {
+            if (!node.has(path[0]))
+                node.putNull(path[0]);
+        }
+    }
+
+    private void closeReader() {
+        if (csvReader != null) {
+            try {
+                csvReader.close();
+            } catch (IOException e) {
+                log.debug("Failed to close Bulk query response stream", e);
+            }
+            csvReader = null;
+        }
+    }
+}
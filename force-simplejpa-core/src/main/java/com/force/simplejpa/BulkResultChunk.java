@@ -0,0 +1,36 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import java.io.InputStream;
+
+/**
+ * One chunk of the CSV results of a Bulk query job, along with the locator of the chunk which follows it.
+ */
+public final class BulkResultChunk {
+    private final InputStream content;
+    private final String nextLocator;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param content     the CSV content of the chunk, starting with a header row
+     * @param nextLocator the locator of the next chunk (the "Sforce-Locator" response header) or <code>null</code> (or
+     *                    the literal "null" that Salesforce sends) if this is the last chunk
+     */
+    public BulkResultChunk(InputStream content, String nextLocator) {
+        this.content = content;
+        this.nextLocator = (nextLocator == null || nextLocator.equals("null")) ? null : nextLocator;
+    }
+
+    public InputStream getContent() {
+        return content;
+    }
+
+    public String getNextLocator() {
+        return nextLocator;
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+/**
+ * Durable storage for the {@link SyncCheckpoint}s of {@link IncrementalSynchronizer}s so that synchronization can
+ * pick up where it left off after a restart.
+ * <p/>
+ * A checkpoint is saved after each batch of changes has been handed to the listener. Implementations must be safe for
+ * use by multiple synchronizers (with different keys) at the same time.
+ *
+ * @see FileCheckpointStore
+ */
+public interface CheckpointStore {
+    /**
+     * Loads a checkpoint.
+     *
+     * @param key identifies the synchronization (usually the entity name)
+     * @return the checkpoint or <code>null</code> if the synchronization has never saved one
+     */
+    SyncCheckpoint load(String key);
+
+    /**
+     * Saves a checkpoint, replacing any previous checkpoint with the same key.
+     *
+     * @param key        identifies the synchronization (usually the entity name)
+     * @param checkpoint the checkpoint
+     */
+    void save(String key, SyncCheckpoint checkpoint);
+}
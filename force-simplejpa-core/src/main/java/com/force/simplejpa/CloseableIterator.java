@@ -0,0 +1,26 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * An {@link Iterator} which holds on to external resources (such as an open response stream) until it has been fully
+ * consumed or explicitly closed.
+ * <p/>
+ * Callers that stop iterating before {@link #hasNext()} returns <code>false</code> should call {@link #close()} to
+ * release the resources early.
+ *
+ * @param <T> type of object returned by the iterator
+ */
+public interface CloseableIterator<T> extends Iterator<T>, Closeable {
+    /**
+     * Releases any resources held by the iterator. Calling this method more than once has no effect.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.BeanPropertyDefinition;
+import org.codehaus.jackson.map.introspect.AnnotatedMember;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes query result records into {@link ResultColumns}, straight from the JSON parser.
+ * <p/>
+ * For entity results the columns and their types come from the scalar properties of an {@link EntityDescriptor}.
+ * Fields of a record which don't correspond to one of those properties (including "attributes" and related entities)
+ * are skipped.
+ * <p/>
+ * Aggregate results (GROUP BY queries) have columns such as "expr0" or aliases which the descriptor knows nothing
+ * about. In that case the columns are whatever appears in the records, in order of first appearance. Columns that
+ * match a property of the descriptor still get the type of the property. The others get their type from the JSON
+ * values: integers become long columns (promoted to double if a fractional value turns up), fractional numbers become
+ * double columns, booleans become boolean columns and anything else is dictionary encoded.
+ */
+final class ColumnarDecoder {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Map<String, Class<?>> propertyTypes = new LinkedHashMap<String, Class<?>>();
+    private final boolean inferColumns;
+    private final Map<String, ColumnBuilder> builders = new LinkedHashMap<String, ColumnBuilder>();
+    private int rowCount;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param descriptor   descriptor of the queried entity
+     * @param inferColumns <code>false</code> to decode the scalar properties of the entity, <code>true</code> to decode
+     *                     whatever columns appear in the records (for aggregate results)
+     */
+    ColumnarDecoder(EntityDescriptor descriptor, boolean inferColumns) {
+        this.inferColumns = inferColumns;
+        for (BeanPropertyDefinition property : descriptor.getBeanDescription().findProperties()) {
+            if (property.getName().equals("attributes")
+                || descriptor.getRelatedEntities().containsKey(property.getInternalName()))
+                continue;
+
+            propertyTypes.put(property.getName(), getPropertyType(property));
+        }
+
+        if (!inferColumns) {
+            for (Map.Entry<String, Class<?>> entry : propertyTypes.entrySet()) {
+                builders.put(entry.getKey(), newColumnBuilder(entry.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Decodes one record.
+     *
+     * @param parser a parser positioned at the start of the record object. It is left at the end of the object.
+     */
+    void decodeRecord(JsonParser parser) throws IOException {
+        int row = rowCount++;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken valueToken = parser.nextToken();
+            if (valueToken == JsonToken.START_OBJECT || valueToken == JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                continue;
+            }
+
+            ColumnBuilder builder = inferColumns ? getInferredColumnBuilder(name, valueToken) : builders.get(name);
+            if (builder != null && valueToken != JsonToken.VALUE_NULL)
+                builder.read(parser, valueToken, row);
+        }
+    }
+
+    ResultColumns build() {
+        Map<String, ResultColumns.Column> columns = new LinkedHashMap<String, ResultColumns.Column>();
+        for (Map.Entry<String, ColumnBuilder> entry : builders.entrySet()) {
+            ColumnBuilder builder = entry.getValue();
+            if (builder == null)
+                builder = new DictionaryColumnBuilder(); // Column never had a value
+            columns.put(entry.getKey(), builder.build(rowCount));
+        }
+        return new ResultColumns(rowCount, columns);
+    }
+
+    /**
+     * Gets the builder for a column of an aggregate result, creating it (or changing its type) as needed to hold the
+     * value. A column which has only seen nulls so far is held as a <code>null</code> entry so that it keeps its place
+     * until its type is known.
+     */
+    private ColumnBuilder getInferredColumnBuilder(String name, JsonToken valueToken) {
+        ColumnBuilder builder = builders.get(name);
+        Class<?> propertyType = propertyTypes.get(name);
+        if (builder == null) {
+            if (propertyType != null) {
+                builder = newColumnBuilder(propertyType);
+            } else if (valueToken != JsonToken.VALUE_NULL) {
+                builder = newColumnBuilder(getValueType(valueToken));
+            }
+            builders.put(name, builder);
+        } else if (propertyType == null && valueToken == JsonToken.VALUE_NUMBER_FLOAT
+            && builder instanceof LongColumnBuilder) {
+            builder = new DoubleColumnBuilder((LongColumnBuilder) builder);
+            builders.put(name, builder);
+        }
+        return builder;
+    }
+
+    private static Class<?> getValueType(JsonToken valueToken) {
+        switch (valueToken) {
+            case VALUE_NUMBER_INT:
+                return long.class;
+            case VALUE_NUMBER_FLOAT:
+                return double.class;
+            case VALUE_TRUE:
+            case VALUE_FALSE:
+                return boolean.class;
+            default:
+                return String.class;
+        }
+    }
+
+    private static Class<?> getPropertyType(BeanPropertyDefinition property) {
+        AnnotatedMember accessor = property.getAccessor();
+        if (accessor != null)
+            return accessor.getRawType();
+        if (property.hasSetter())
+            return property.getSetter().getParameterClass(0);
+        return Object.class;
+    }
+
+    private static ColumnBuilder newColumnBuilder(Class<?> type) {
+        if (type.equals(int.class) || type.equals(Integer.class) || type.equals(short.class)
+            || type.equals(Short.class) || type.equals(byte.class) || type.equals(Byte.class)) {
+            return new IntColumnBuilder();
+        } else if (type.equals(long.class) || type.equals(Long.class) || type.equals(BigInteger.class)) {
+            return new LongColumnBuilder();
+        } else if (type.equals(double.class) || type.equals(Double.class) || type.equals(float.class)
+            || type.equals(Float.class) || type.equals(BigDecimal.class)) {
+            return new DoubleColumnBuilder();
+        } else if (type.equals(boolean.class) || type.equals(Boolean.class)) {
+            return new BooleanColumnBuilder();
+        } else {
+            return new DictionaryColumnBuilder();
+        }
+    }
+
+    /**
+     * Accumulates the values of one column. Values are stored at their row, so rows with no value are left as gaps.
+     */
+    private abstract static class ColumnBuilder {
+        protected final BitSet present = new BitSet();
+        protected int capacity = INITIAL_CAPACITY;
+
+        final void read(JsonParser parser, JsonToken token, int row) throws IOException {
+            if (row >= capacity) {
+                capacity = Math.max(capacity * 2, row + 1);
+                grow(capacity);
+            }
+            if (readValue(parser, token, row))
+                present.set(row);
+        }
+
+        /**
+         * Reads a (non-null, scalar) value into a row.
+         *
+         * @return <code>true</code> if a value was stored or <code>false</code> if the text didn't hold one
+         */
+        protected abstract boolean readValue(JsonParser parser, JsonToken token, int row) throws IOException;
+
+        protected abstract void grow(int newCapacity);
+
+        abstract ResultColumns.Column build(int rowCount);
+    }
+
+    private static final class IntColumnBuilder extends ColumnBuilder {
+        private int[] values = new int[INITIAL_CAPACITY];
+
+        @Override
+        protected boolean readValue(JsonParser parser, JsonToken token, int row) throws IOException {
+            if (token == JsonToken.VALUE_NUMBER_INT) {
+                values[row] = toInt(parser.getLongValue());
+            } else if (token == JsonToken.VALUE_NUMBER_FLOAT) {
+                values[row] = toInt((long) parser.getDoubleValue());
+            } else {
+                String text = parser.getText().trim();
+                if (text.length() == 0)
+                    return false;
+                values[row] = toInt((long) Double.parseDouble(text));
+            }
+            return true;
+        }
+
+        /**
+         * Narrows a value to an int. Salesforce numbers aren't bounded by the Java type of the property, so a value
+         * which doesn't fit is clamped to the nearest int (as casting a fractional value does) rather than failing the
+         * whole query or wrapping around.
+         */
+        private static int toInt(long value) {
+            return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+        }
+
+        @Override
+        protected void grow(int newCapacity) {
+            values = Arrays.copyOf(values, newCapacity);
+        }
+
+        @Override
+        ResultColumns.Column build(int rowCount) {
+            return new ResultColumns.Column(int.class, Arrays.copyOf(values, rowCount), present, null);
+        }
+    }
+
+    private static final class LongColumnBuilder extends ColumnBuilder {
+        private long[] values = new long[INITIAL_CAPACITY];
+
+        @Override
+        protected boolean readValue(JsonParser parser, JsonToken token, int row) throws IOException {
+            if (token == JsonToken.VALUE_NUMBER_INT) {
+                values[row] = parser.getLongValue();
+            } else if (token == JsonToken.VALUE_NUMBER_FLOAT) {
+                values[row] = (long) parser.getDoubleValue();
+            } else {
+                String text = parser.getText().trim();
+                if (text.length() == 0)
+                    return false;
+                values[row] = (long) Double.parseDouble(text);
+            }
+            return true;
+        }
+
+        @Override
+        protected void grow(int newCapacity) {
+            values = Arrays.copyOf(values, newCapacity);
+        }
+
+        @Override
+        ResultColumns.Column build(int rowCount) {
+            return new ResultColumns.Column(long.class, Arrays.copyOf(values, rowCount), present, null);
+        }
+    }
+
+    private static final class DoubleColumnBuilder extends ColumnBuilder {
+        private double[] values;
+
+        private DoubleColumnBuilder() {
+            values = new double[INITIAL_CAPACITY];
+        }
+
+        /**
+         * Constructs a builder which takes over the values of a long column whose values turned out not to all be
+         * integral.
+         */
+        private DoubleColumnBuilder(LongColumnBuilder longBuilder) {
+            capacity = longBuilder.capacity;
+            values = new double[capacity];
+            for (int i = 0; i < longBuilder.values.length; i++) {
+                values[i] = longBuilder.values[i];
+            }
+            present.or(longBuilder.present);
+        }
+
+        @Override
+        protected boolean readValue(JsonParser parser, JsonToken token, int row) throws IOException {
+            if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+                values[row] = parser.getDoubleValue();
+            } else {
+                String text = parser.getText().trim();
+                if (text.length() == 0)
+                    return false;
+                values[row] = Double.parseDouble(text);
+            }
+            return true;
+        }
+
+        @Override
+        protected void grow(int newCapacity) {
+            values = Arrays.copyOf(values, newCapacity);
+        }
+
+        @Override
+        ResultColumns.Column build(int rowCount) {
+            return new ResultColumns.Column(double.class, Arrays.copyOf(values, rowCount), present, null);
+        }
+    }
+
+    private static final class BooleanColumnBuilder extends ColumnBuilder {
+        private boolean[] values = new boolean[INITIAL_CAPACITY];
+
+        @Override
+        protected boolean readValue(JsonParser parser, JsonToken token, int row) throws IOException {
+            if (token == JsonToken.VALUE_TRUE || token == JsonToken.VALUE_FALSE) {
+                values[row] = (token == JsonToken.VALUE_TRUE);
+            } else {
+                String text = parser.getText().trim();
+                if (text.length() == 0)
+                    return false;
+                values[row] = Boolean.parseBoolean(text);
+            }
+            return true;
+        }
+
+        @Override
+        protected void grow(int newCapacity) {
+            values = Arrays.copyOf(values, newCapacity);
+        }
+
+        @Override
+        ResultColumns.Column build(int rowCount) {
+            return new ResultColumns.Column(boolean.class, Arrays.copyOf(values, rowCount), present, null);
+        }
+    }
+
+    private static final class DictionaryColumnBuilder extends ColumnBuilder {
+        private final Map<String, Integer> codes = new HashMap<String, Integer>();
+        private final List<String> dictionary = new ArrayList<String>();
+        private int[] values = newCodes(INITIAL_CAPACITY);
+
+        @Override
+        protected boolean readValue(JsonParser parser, JsonToken token, int row) throws IOException {
+            String text = parser.getText();
+            Integer code = codes.get(text);
+            if (code == null) {
+                code = dictionary.size();
+                codes.put(text, code);
+                dictionary.add(text);
+            }
+            values[row] = code;
+            return true;
+        }
+
+        @Override
+        protected void grow(int newCapacity) {
+            int oldCapacity = values.length;
+            values = Arrays.copyOf(values, newCapacity);
+            Arrays.fill(values, oldCapacity, newCapacity, -1);
+        }
+
+        @Override
+        ResultColumns.Column build(int rowCount) {
+            int[] rowCodes = Arrays.copyOf(values, rowCount);
+            if (rowCount > values.length)
+                Arrays.fill(rowCodes, values.length, rowCount, -1);
+            return new ResultColumns.Column(String.class, rowCodes, present, dictionary);
+        }
+
+        private static int[] newCodes(int capacity) {
+            int[] newValues = new int[capacity];
+            Arrays.fill(newValues, -1);
+            return newValues;
+        }
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import org.apache.commons.lang.time.DateFormatUtils;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An SOQL template which has already had its wildcards replaced and which has been split into literal text segments
+ * and named parameter slots. Instances are immutable and are cached by {@link SoqlBuilder} so that the work of
+ * processing a template only happens once no matter how many times the template is executed.
+ * <p/>
+ * Named parameters look like this:
+ * <pre>
+ * :name
+ * </pre>
+ * For example:
+ * <pre>
+ * SELECT * FROM Account WHERE Id = :id
+ * </pre>
+ * Parameter values are converted to SOQL literals (with proper quoting and escaping for strings) when bound. Colons
+ * inside quoted literals and colons which are not followed by a letter (for example the ones in date literals such as
+ * <code>LAST_N_DAYS:30</code>) are not treated as parameters.
+ * <p/>
+ * The template is also split where pagination goes, ahead of any LIMIT, OFFSET, FOR VIEW, FOR REFERENCE, FOR UPDATE
+ * or UPDATE TRACKING clause, and the LIMIT and OFFSET of the template are read up front. Pagination can therefore be
+ * added while binding (see {@link #bind(Map, int, int, boolean)}) without looking through the SOQL again.
+ */
+final class CompiledSoqlTemplate {
+    private static final String DATE_TIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'";
+
+    private final Segments whole;
+    private final Segments head; // Everything ahead of where pagination goes
+    private final Segments tail; // FOR or UPDATE clause that follows the pagination. null if there is none.
+    private final int templateLimit; // -1 if the template has no LIMIT
+    private final int templateOffset; // -1 if the template has no OFFSET
+    private final String paginationError; // Why the LIMIT or OFFSET couldn't be read, or null if they could
+    private final Set<String> selectedFields; // Lower case
+
+    private CompiledSoqlTemplate(
+        Segments whole, Segments head, Segments tail, int templateLimit, int templateOffset, String paginationError,
+        Set<String> selectedFields) {
+
+        this.whole = whole;
+        this.head = head;
+        this.tail = tail;
+        this.templateLimit = templateLimit;
+        this.templateOffset = templateOffset;
+        this.paginationError = paginationError;
+        this.selectedFields = selectedFields;
+    }
+
+    /**
+     * Splits SOQL into literal text segments and named parameter slots, and finds where pagination goes.
+     *
+     * @param soql SOQL which has already had its wildcards replaced
+     * @return the compiled template
+     */
+    static CompiledSoqlTemplate compile(String soql) {
+        int fromIndex = SoqlBuilder.indexOfTopLevelKeyword(soql, "FROM", 0);
+        int clausesIndex = Math.max(fromIndex, 0);
+        int limitIndex = SoqlBuilder.indexOfTopLevelKeyword(soql, "LIMIT", clausesIndex);
+        int offsetIndex = SoqlBuilder.indexOfTopLevelKeyword(soql, "OFFSET", clausesIndex);
+        int tailIndex =
+            SoqlBuilder.indexOfFirstTopLevelKeyword(soql, clausesIndex, "FOR", "UPDATE TRACKING", "UPDATE VIEWSTAT");
+        int headEnd = (limitIndex >= 0 || offsetIndex >= 0 || tailIndex >= 0)
+            ? minIndex(minIndex(limitIndex, offsetIndex), tailIndex)
+            : soql.length();
+
+        // A LIMIT or OFFSET given by a parameter can only be read once it has been bound
+        int templateLimit = -1;
+        int templateOffset = -1;
+        String paginationError = null;
+        try {
+            if (limitIndex >= 0)
+                templateLimit = readCount(soql, limitIndex, "LIMIT");
+            if (offsetIndex >= 0)
+                templateOffset = readCount(soql, offsetIndex, "OFFSET");
+        } catch (IllegalArgumentException e) {
+            paginationError = e.getMessage();
+        }
+
+        return new CompiledSoqlTemplate(
+            Segments.split(soql), Segments.split(soql.substring(0, headEnd).trim()),
+            (tailIndex >= 0) ? Segments.split(soql.substring(tailIndex)) : null, templateLimit, templateOffset,
+            paginationError, findSelectedFields(soql, fromIndex));
+    }
+
+    /**
+     * Produces the final SOQL by splicing the parameter values into the parameter slots.
+     *
+     * @param parameters the parameter values by name. May be <code>null</code> if the template has no parameters.
+     * @return a builder holding the final SOQL so that further clauses can be appended cheaply
+     */
+    StringBuilder bind(Map<String, ?> parameters) {
+        StringBuilder sb = new StringBuilder(whole.length + 32);
+        whole.appendTo(sb, parameters);
+        return sb;
+    }
+
+    /**
+     * Produces the final SOQL with a LIMIT and OFFSET, merged with any the template has of its own. The pagination
+     * applies to the results of the template, so the offset counts from the template's own offset and the limit can't
+     * take the page past the template's own limit.
+     *
+     * @param parameters     the parameter values by name. May be <code>null</code> if the template has no parameters.
+     * @param limit          the maximum number of rows or 0 for no limit
+     * @param offset         the number of rows to skip
+     * @param skipWithOffset whether the rows are skipped with OFFSET. If they are skipped some other way (with a key
+     *                       condition) the offset only counts against the template's own limit.
+     * @return a builder holding the final SOQL
+     */
+    StringBuilder bind(Map<String, ?> parameters, int limit, int offset, boolean skipWithOffset) {
+        if (limit <= 0 && offset <= 0)
+            return bind(parameters);
+        if (paginationError != null) {
+            CompiledSoqlTemplate bound = compile(bind(parameters).toString());
+            if (bound.paginationError != null)
+                throw new IllegalArgumentException(bound.paginationError);
+            return bound.bind(null, limit, offset, skipWithOffset);
+        }
+
+        int mergedLimit = limit;
+        if (templateLimit >= 0) {
+            int remaining = Math.max(templateLimit - offset, 0);
+            mergedLimit = (limit > 0) ? Math.min(limit, remaining) : remaining;
+        }
+        int mergedOffset = skipWithOffset ? offset : 0;
+        if (templateOffset >= 0)
+            mergedOffset += templateOffset;
+
+        StringBuilder sb = new StringBuilder(whole.length + 32);
+        head.appendTo(sb, parameters);
+        if (templateLimit >= 0 || limit > 0)
+            sb.append(" LIMIT ").append(mergedLimit);
+        if (mergedOffset > 0)
+            sb.append(" OFFSET ").append(mergedOffset);
+        if (tail != null) {
+            sb.append(' ');
+            tail.appendTo(sb, parameters);
+        }
+        return sb;
+    }
+
+    /**
+     * Tells whether a field is in the top level select list of the template.
+     *
+     * @param fieldName the name of the field
+     * @return <code>true</code> if the template selects the field
+     */
+    boolean selects(String fieldName) {
+        return selectedFields.contains(fieldName.toLowerCase());
+    }
+
+    private static int minIndex(int index1, int index2) {
+        if (index1 < 0)
+            return index2;
+        if (index2 < 0)
+            return index1;
+        return Math.min(index1, index2);
+    }
+
+    private static int readCount(String soql, int keywordIndex, String keyword) {
+        int start = keywordIndex + keyword.length();
+        while (start < soql.length() && Character.isWhitespace(soql.charAt(start)))
+            start++;
+        int end = start;
+        while (end < soql.length() && Character.isDigit(soql.charAt(end)))
+            end++;
+        if (end == start)
+            throw new IllegalArgumentException(String.format("Expected a number after %s in '%s'", keyword, soql));
+
+        return Integer.parseInt(soql.substring(start, end));
+    }
+
+    /**
+     * Finds the fields in the top level select list. Subqueries and anything after the field name (an alias) are
+     * ignored.
+     */
+    private static Set<String> findSelectedFields(String soql, int fromIndex) {
+        int selectIndex = SoqlBuilder.indexOfTopLevelKeyword(soql, "SELECT", 0);
+        if (selectIndex < 0 || fromIndex < selectIndex)
+            return Collections.emptySet();
+
+        Set<String> fields = new HashSet<String>();
+        int depth = 0;
+        int itemStart = selectIndex + "SELECT".length();
+        for (int i = itemStart; i <= fromIndex; i++) {
+            char c = (i < fromIndex) ? soql.charAt(i) : ',';
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                String item = soql.substring(itemStart, i).trim();
+                if (item.length() > 0 && item.charAt(0) != '(')
+                    fields.add(item.split("\\s+")[0].toLowerCase());
+                itemStart = i + 1;
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Appends a value to the SOQL as a literal. Strings (and anything else which isn't recognized) are quoted and
+     * escaped, numbers and booleans are used as is, dates are formatted as SOQL dateTime literals and collections and
+     * arrays become parenthesized lists suitable for use with IN.
+     */
+    private static void appendLiteral(StringBuilder sb, Object value) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof Number || value instanceof Boolean) {
+            sb.append(value.toString());
+        } else if (value instanceof Date) {
+            sb.append(DateFormatUtils.formatUTC((Date) value, DATE_TIME_FORMAT));
+        } else if (value instanceof Calendar) {
+            sb.append(DateFormatUtils.formatUTC(((Calendar) value).getTime(), DATE_TIME_FORMAT));
+        } else if (value instanceof Collection) {
+            sb.append('(');
+            int count = 0;
+            for (Object element : (Collection<?>) value) {
+                if (count++ > 0)
+                    sb.append(',');
+                appendLiteral(sb, element);
+            }
+            sb.append(')');
+        } else if (value.getClass().isArray()) {
+            sb.append('(');
+            for (int i = 0; i < Array.getLength(value); i++) {
+                if (i > 0)
+                    sb.append(',');
+                appendLiteral(sb, Array.get(value, i));
+            }
+            sb.append(')');
+        } else {
+            appendQuoted(sb, value.toString());
+        }
+    }
+
+    private static void appendQuoted(StringBuilder sb, String value) {
+        sb.append('\'');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\'':
+                case '"':
+                case '\\':
+                    sb.append('\\').append(c);
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\b':
+                    sb.append("\\b");
+                    break;
+                case '\f':
+                    sb.append("\\f");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        sb.append('\'');
+    }
+
+    /**
+     * Literal text segments and the named parameter slots between them.
+     */
+    private static final class Segments {
+        private final List<String> segments; // Literal text. There is one more segment than there are parameters.
+        private final List<String> parameterNames;
+        private final int length;
+
+        private Segments(List<String> segments, List<String> parameterNames, int length) {
+            this.segments = segments;
+            this.parameterNames = parameterNames;
+            this.length = length;
+        }
+
+        private static Segments split(String soql) {
+            List<String> segments = new ArrayList<String>();
+            List<String> parameterNames = new ArrayList<String>();
+
+            int segmentStart = 0;
+            for (int i = 0; i < soql.length(); i++) {
+                char c = soql.charAt(i);
+                if (c == '\'' || c == '"') {
+                    i = indexOfClosingQuote(soql, i);
+                } else if (c == ':' && i + 1 < soql.length() && Character.isLetter(soql.charAt(i + 1))) {
+                    int nameEnd = i + 1;
+                    while (nameEnd < soql.length() && isNameCharacter(soql.charAt(nameEnd)))
+                        nameEnd++;
+
+                    segments.add(soql.substring(segmentStart, i));
+                    parameterNames.add(soql.substring(i + 1, nameEnd));
+                    segmentStart = nameEnd;
+                    i = nameEnd - 1;
+                }
+            }
+            segments.add(soql.substring(segmentStart));
+
+            return new Segments(
+                Collections.unmodifiableList(segments), Collections.unmodifiableList(parameterNames), soql.length());
+        }
+
+        private void appendTo(StringBuilder sb, Map<String, ?> parameters) {
+            sb.append(segments.get(0));
+            for (int i = 0; i < parameterNames.size(); i++) {
+                String name = parameterNames.get(i);
+                if (parameters == null || !parameters.containsKey(name))
+                    throw new IllegalArgumentException(
+                        String.format("No value was specified for parameter '%s'", name));
+
+                appendLiteral(sb, parameters.get(name));
+                sb.append(segments.get(i + 1));
+            }
+        }
+    }
+
+    private static boolean isNameCharacter(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    /**
+     * Finds the quote which closes a quoted literal, taking escaped characters into account.
+     *
+     * @param soql         the SOQL containing the literal
+     * @param openingIndex the index of the opening quote
+     * @return the index of the closing quote or the length of the SOQL if the literal is not closed
+     */
+    static int indexOfClosingQuote(String soql, int openingIndex) {
+        char quote = soql.charAt(openingIndex);
+        for (int i = openingIndex + 1; i < soql.length(); i++) {
+            char c = soql.charAt(i);
+            if (c == '\\') {
+                i++; // Skip the escaped character
+            } else if (c == quote) {
+                return i;
+            }
+        }
+        return soql.length();
+    }
+}
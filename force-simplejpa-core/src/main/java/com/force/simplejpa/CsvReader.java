@@ -0,0 +1,88 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A minimal streaming reader for RFC 4180 CSV, which is what the Bulk API returns. Fields may be quoted, quotes inside
+ * quoted fields are doubled and quoted fields may span lines. Rows are read one at a time so memory usage is bounded by
+ * the size of a row.
+ */
+final class CsvReader implements Closeable {
+    private final Reader reader;
+    private int pushedBack = -2; // -2 means nothing has been pushed back
+
+    CsvReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Reads the next row.
+     *
+     * @return the fields of the row or <code>null</code> at the end of the input
+     */
+    List<String> readRow() throws IOException {
+        int c = read();
+        if (c == -1)
+            return null;
+
+        List<String> row = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c == -1)
+                    throw new IOException("CSV input ends inside a quoted field");
+                if (c == '"') {
+                    int next = read();
+                    if (next == '"') {
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                        pushedBack = next;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                row.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\r' || c == '\n' || c == -1) {
+                if (c == '\r') {
+                    int next = read();
+                    if (next != '\n')
+                        pushedBack = next;
+                }
+                row.add(field.toString());
+                return row;
+            } else {
+                field.append((char) c);
+            }
+            c = read();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private int read() throws IOException {
+        if (pushedBack != -2) {
+            int c = pushedBack;
+            pushedBack = -2;
+            return c;
+        }
+        return reader.read();
+    }
+}
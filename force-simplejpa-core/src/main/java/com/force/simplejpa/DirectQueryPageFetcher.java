@@ -0,0 +1,39 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Map;
+
+/**
+ * A {@link QueryPageFetcher} which simply requests each page through the {@link RestConnector} at the moment it is
+ * needed.
+ */
+final class DirectQueryPageFetcher implements QueryPageFetcher {
+    private final RestConnector connector;
+    private final Map<String, String> headers;
+
+    DirectQueryPageFetcher(RestConnector connector, Map<String, String> headers) {
+        this.connector = connector;
+        this.headers = headers;
+    }
+
+    @Override
+    public void pageLocated(URI nextRecordsUrl, int totalSize) {
+        // Nothing to do. Pages are requested on demand.
+    }
+
+    @Override
+    public InputStream fetchPage(URI nextRecordsUrl) {
+        return connector.doGet(nextRecordsUrl, headers);
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release.
+    }
+}
@@ -9,7 +9,9 @@ import org.codehaus.jackson.map.BeanPropertyDefinition;
 import org.codehaus.jackson.map.introspect.BasicBeanDescription;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Extra metadata about an entity above and beyond that normally managed by Jackson that is useful for persistence
@@ -23,6 +25,7 @@ final class EntityDescriptor {
     private final BeanPropertyDefinition attributesProperty;
     private final BasicBeanDescription beanDescription;
     private final Map<String, EntityDescriptor> relatedEntities;
+    private final Set<String> lazyRelationships;
 
     EntityDescriptor(String name, BasicBeanDescription beanDescription, BeanPropertyDefinition idProperty, BeanPropertyDefinition attributesProperty) {
         this.name = name;
@@ -30,6 +33,7 @@ final class EntityDescriptor {
         this.idProperty = idProperty;
         this.attributesProperty = attributesProperty;
         this.relatedEntities = new HashMap<String, EntityDescriptor>();
+        this.lazyRelationships = new HashSet<String>();
     }
 
     public String getName() {
@@ -59,4 +63,18 @@ final class EntityDescriptor {
     public Map<String, EntityDescriptor> getRelatedEntities() {
         return relatedEntities;
     }
+
+    /**
+     * Gets the internal names of the related entity properties which are fetched lazily. Only the id of a lazily
+     * fetched entity is retrieved along with the owning entity.
+     *
+     * @return the internal property names
+     */
+    public Set<String> getLazyRelationships() {
+        return lazyRelationships;
+    }
+
+    public boolean isLazyRelationship(String internalName) {
+        return lazyRelationships.contains(internalName);
+    }
 }
@@ -10,6 +10,7 @@ import org.codehaus.jackson.annotate.JsonAutoDetect;
 import org.codehaus.jackson.map.AnnotationIntrospector;
 import org.codehaus.jackson.map.BeanPropertyDefinition;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectReader;
 import org.codehaus.jackson.map.annotate.JsonSerialize;
 import org.codehaus.jackson.map.deser.StdDeserializerProvider;
 import org.codehaus.jackson.map.introspect.BasicBeanDescription;
@@ -33,6 +34,7 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public final class EntityMappingContext {
     private final ObjectMapper objectMapper;
+    private final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<Class<?>, ObjectReader>();
     private final Map<Class<?>, EntityDescriptor> descriptors = new ConcurrentHashMap<Class<?>, EntityDescriptor>();
     private final Map<Class<?>, EntityDescriptor> incompleteDescriptors = new HashMap<Class<?>, EntityDescriptor>();
 
@@ -65,6 +67,22 @@ public final class EntityMappingContext {
         return objectMapper;
     }
 
+    /**
+     * Gets an {@link ObjectReader} for deserializing instances of the specified class directly from a stream of JSON
+     * tokens. Readers are cached so the lookup of the root deserializer only happens once per class.
+     *
+     * @param clazz the class to be deserialized
+     * @return an object reader
+     */
+    public ObjectReader getObjectReader(Class<?> clazz) {
+        ObjectReader reader = readers.get(clazz);
+        if (reader == null) {
+            reader = objectMapper.reader(clazz);
+            readers.put(clazz, reader);
+        }
+        return reader;
+    }
+
     /**
      * Gets the {@link EntityDescriptor} for the specified class.
      * <p/>
@@ -109,8 +127,11 @@ public final class EntityMappingContext {
                 // Resolve related entity descriptions recursively
                 for (BeanPropertyDefinition property : beanDescription.findProperties()) {
                     EntityDescriptor relatedEntityDescriptor = getEntityDescriptor(getPropertyClass(property));
-                    if (relatedEntityDescriptor != null)
+                    if (relatedEntityDescriptor != null) {
                         entityDescriptor.getRelatedEntities().put(property.getInternalName(), relatedEntityDescriptor);
+                        if (isLazyRelationshipProperty(property))
+                            entityDescriptor.getLazyRelationships().add(property.getInternalName());
+                    }
                 }
 
                 if (!recursiveCall)
@@ -163,6 +184,11 @@ public final class EntityMappingContext {
         return null;
     }
 
+    private static boolean isLazyRelationshipProperty(BeanPropertyDefinition property) {
+        return IntrospectionUtils.isLazyRelationshipProperty(property.getAccessor())
+            || IntrospectionUtils.isLazyRelationshipProperty(property.getMutator());
+    }
+
     private static boolean isIntrinsicJavaPackage(Package aPackage) {
         return (aPackage != null) && (aPackage.getName().startsWith("java."));
     }
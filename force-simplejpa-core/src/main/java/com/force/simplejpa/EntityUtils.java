@@ -15,6 +15,8 @@ import java.util.Map;
  * Utilities for working with entity instances.
  */
 public final class EntityUtils {
+    private static final String ID_SUFFIX_CHARACTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ012345";
+
     private EntityUtils() {
         throw new UnsupportedOperationException("Can not be instantiated");
     }
@@ -104,6 +106,32 @@ public final class EntityUtils {
         }
     }
 
+    /**
+     * Converts a Salesforce id to its 18 character, case-insensitive form. Salesforce accepts either form of an id in a
+     * request but always returns the 18 character form, so ids need to be converted before they are compared. Anything
+     * which isn't a 15 character id is returned unchanged.
+     *
+     * @param id the id
+     * @return the 18 character form of the id
+     */
+    public static String toCaseInsensitiveId(String id) {
+        if (id == null || id.length() != 15)
+            return id;
+
+        // Each suffix character records which of the characters in a block of 5 are uppercase letters
+        StringBuilder sb = new StringBuilder(18).append(id);
+        for (int block = 0; block < 3; block++) {
+            int flags = 0;
+            for (int i = 0; i < 5; i++) {
+                char c = id.charAt(block * 5 + i);
+                if (c >= 'A' && c <= 'Z')
+                    flags |= 1 << i;
+            }
+            sb.append(ID_SUFFIX_CHARACTERS.charAt(flags));
+        }
+        return sb.toString();
+    }
+
     /**
      * Sets the ID property of an entity instance.
      *
@@ -136,4 +164,49 @@ public final class EntityUtils {
         } else
             throw new IllegalArgumentException("There is no way to set the entity id");
     }
+
+    /**
+     * Gets the value of a property of an entity instance.
+     *
+     * @param property definition of the property
+     * @param instance the entity instance from which to get the value
+     * @return the value
+     */
+    public static Object getPropertyValue(BeanPropertyDefinition property, Object instance) {
+        try {
+            if (property.hasGetter()) {
+                return property.getGetter().getAnnotated().invoke(instance);
+            } else if (property.hasField()) {
+                Field field = property.getField().getAnnotated();
+                field.setAccessible(true);
+                return field.get(instance);
+            } else {
+                throw new IllegalStateException(
+                    String.format("There is no way to get the value of property %s", property.getName()));
+            }
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Sets the value of a property of an entity instance.
+     *
+     * @param property definition of the property
+     * @param instance the entity instance on which to set the value
+     * @param value    the value
+     */
+    public static void setPropertyValue(BeanPropertyDefinition property, Object instance, Object value) {
+        if (property.hasSetter()) {
+            property.getSetter().setValue(instance, value);
+        } else if (property.hasField()) {
+            Field field = property.getField().getAnnotated();
+            field.setAccessible(true);
+            property.getField().setValue(instance, value);
+        } else
+            throw new IllegalArgumentException(
+                String.format("There is no way to set the value of property %s", property.getName()));
+    }
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.Properties;
+
+/**
+ * A {@link CheckpointStore} which keeps all checkpoints in a single properties file.
+ * <p/>
+ * Each save rewrites the file by writing a temporary file alongside it and then renaming the temporary file into place,
+ * so a crash in the middle of a save leaves the previous checkpoints intact.
+ */
+public final class FileCheckpointStore implements CheckpointStore {
+    private final File file;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param file the properties file. It is created when the first checkpoint is saved.
+     */
+    public FileCheckpointStore(File file) {
+        Validate.notNull(file, "file must not be null");
+
+        this.file = file;
+    }
+
+    @Override
+    public synchronized SyncCheckpoint load(String key) {
+        Validate.notEmpty(key, "key must not be empty");
+
+        String value = readProperties().getProperty(key);
+        if (value == null)
+            return null;
+
+        String[] parts = StringUtils.split(value, ',');
+        if (parts.length != 2)
+            throw new IllegalStateException(String.format("Malformed checkpoint for '%s' in %s", key, file));
+
+        try {
+            return new SyncCheckpoint(new Date(Long.parseLong(parts[0])), parts[1]);
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException(String.format("Malformed checkpoint for '%s' in %s", key, file), e);
+        }
+    }
+
+    @Override
+    public synchronized void save(String key, SyncCheckpoint checkpoint) {
+        Validate.notEmpty(key, "key must not be empty");
+        Validate.notNull(checkpoint, "checkpoint must not be null");
+
+        Properties properties = readProperties();
+        properties.setProperty(key, checkpoint.getSystemModstamp().getTime() + "," + checkpoint.getId());
+        writeProperties(properties);
+    }
+
+    private Properties readProperties() {
+        Properties properties = new Properties();
+        if (!file.exists())
+            return properties;
+
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            properties.load(inputStream);
+            return properties;
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Failed to read checkpoints from %s", file), e);
+        } finally {
+            Closeables.closeQuietly(inputStream);
+        }
+    }
+
+    private void writeProperties(Properties properties) {
+        File tempFile = new File(file.getPath() + ".tmp");
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(tempFile);
+            properties.store(outputStream, "Synchronization checkpoints");
+            outputStream.close();
+            outputStream = null;
+
+            Files.move(tempFile, file);
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Failed to write checkpoints to %s", file), e);
+        } finally {
+            Closeables.closeQuietly(outputStream);
+        }
+    }
+}
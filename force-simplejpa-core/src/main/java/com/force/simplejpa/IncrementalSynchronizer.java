@@ -0,0 +1,253 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import org.apache.commons.lang.Validate;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.BeanPropertyDefinition;
+import org.codehaus.jackson.map.ObjectReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Keeps a local copy of a Salesforce object up to date by retrieving just the records which have changed since the last
+ * synchronization.
+ * <p/>
+ * Progress is tracked with a high-water mark made up of the SystemModstamp and Id of the last change delivered (see
+ * {@link SyncCheckpoint}). Each call to {@link #synchronize(SyncListener)} queries the records beyond the high-water
+ * mark in SystemModstamp and Id order, hands them to a {@link SyncListener} in batches, and saves the new high-water
+ * mark in a {@link CheckpointStore} after each batch. The first synchronization (when there is no checkpoint yet)
+ * retrieves everything.
+ * <p/>
+ * A record's SystemModstamp is set when its transaction starts to write it, but the change only becomes visible when
+ * the transaction commits. A transaction that commits late can therefore make a change visible below a high-water mark
+ * that has already moved past it. To guard against that, only changes with a SystemModstamp older than a safety lag
+ * (see {@link #setSafetyLag(long)}) are retrieved; newer ones are left for a later synchronization. No change is
+ * skipped provided that the time a transaction takes to commit, plus any difference between the local clock and that
+ * of Salesforce, stays below the safety lag. The price is that changes are only seen once they are older than the
+ * lag.
+ * <p/>
+ * Deleted records are only found if {@link #setIncludeDeleted(boolean)} is turned on, in which case the query is issued
+ * with "queryAll" so that it also returns records from the recycle bin. Records which have been purged from the recycle
+ * bin before a synchronization are never seen, so synchronization needs to happen more often than the recycle bin is
+ * emptied for deletes to be complete.
+ * <p/>
+ * Instances are not safe for concurrent synchronization. Use one instance (and one checkpoint key) per object.
+ *
+ * @param <T> type of entity being synchronized
+ */
+public final class IncrementalSynchronizer<T> {
+    private static final Logger log = LoggerFactory.getLogger(IncrementalSynchronizer.class);
+
+    private static final int DEFAULT_BATCH_SIZE = 200;
+    private static final long DEFAULT_SAFETY_LAG_MILLIS = 5 * 60 * 1000L;
+
+    private final SimpleEntityManager em;
+    private final Class<T> entityClass;
+    private final CheckpointStore checkpointStore;
+    private final EntityDescriptor descriptor;
+    private final ObjectReader reader;
+
+    private String checkpointKey;
+    private boolean includeDeleted;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long safetyLagMillis = DEFAULT_SAFETY_LAG_MILLIS;
+
+    /**
+     * Constructs a new instance. The checkpoint key defaults to the entity name.
+     *
+     * @param em              the entity manager used to query for changes
+     * @param entityClass     the class of the entity being synchronized
+     * @param checkpointStore where to keep the high-water mark
+     */
+    public IncrementalSynchronizer(SimpleEntityManager em, Class<T> entityClass, CheckpointStore checkpointStore) {
+        Validate.notNull(em, "em must not be null");
+        Validate.notNull(entityClass, "entityClass must not be null");
+        Validate.notNull(checkpointStore, "checkpointStore must not be null");
+
+        EntityMappingContext mappingContext = RestSimpleEntityManager.getMappingContext();
+        EntityDescriptor descriptor = mappingContext.getEntityDescriptor(entityClass);
+        if (descriptor == null) {
+            throw new IllegalArgumentException(
+                String.format("%s can't be used as an entity, probably because it isn't annotated", entityClass));
+        }
+
+        this.em = em;
+        this.entityClass = entityClass;
+        this.checkpointStore = checkpointStore;
+        this.descriptor = descriptor;
+        this.reader = mappingContext.getObjectReader(entityClass);
+        this.checkpointKey = descriptor.getName();
+    }
+
+    /**
+     * Sets the key under which the high-water mark is kept in the checkpoint store. The default is the entity name.
+     *
+     * @param checkpointKey the checkpoint key
+     * @return this synchronizer
+     */
+    public IncrementalSynchronizer<T> setCheckpointKey(String checkpointKey) {
+        Validate.notEmpty(checkpointKey, "checkpointKey must not be empty");
+
+        this.checkpointKey = checkpointKey;
+        return this;
+    }
+
+    /**
+     * Sets whether deleted records are looked for (with "queryAll") and delivered to
+     * {@link SyncListener#handleDeletes(List)}. The default is <code>false</code>.
+     *
+     * @param includeDeleted <code>true</code> to look for deleted records
+     * @return this synchronizer
+     */
+    public IncrementalSynchronizer<T> setIncludeDeleted(boolean includeDeleted) {
+        this.includeDeleted = includeDeleted;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of changes handed to the listener at once. The high-water mark is saved after each
+     * batch. The default is 200.
+     *
+     * @param batchSize the maximum number of changes in a batch
+     * @return this synchronizer
+     */
+    public IncrementalSynchronizer<T> setBatchSize(int batchSize) {
+        Validate.isTrue(batchSize > 0, "batchSize must be greater than zero");
+
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Sets how old a change has to be before it is retrieved. Changes with a SystemModstamp more recent than this are
+     * left for a later synchronization, which gives transactions that were still in progress time to commit. It needs
+     * to exceed the longest time a transaction takes to commit plus any difference between the local clock and that
+     * of Salesforce. The default is 5 minutes. With 0 all visible changes are retrieved, and a change committed late
+     * may be missed for good.
+     *
+     * @param safetyLagMillis the safety lag in milliseconds
+     * @return this synchronizer
+     */
+    public IncrementalSynchronizer<T> setSafetyLag(long safetyLagMillis) {
+        Validate.isTrue(safetyLagMillis >= 0, "safetyLagMillis must not be negative");
+
+        this.safetyLagMillis = safetyLagMillis;
+        return this;
+    }
+
+    /**
+     * Retrieves the changes made since the last synchronization and hands them to a listener.
+     *
+     * @param listener the listener which receives the changes
+     * @return the number of changes delivered
+     */
+    public int synchronize(SyncListener<T> listener) {
+        Validate.notNull(listener, "listener must not be null");
+
+        SyncCheckpoint checkpoint = checkpointStore.load(checkpointKey);
+        if (log.isDebugEnabled())
+            log.debug(String.format("Synchronize %s from %s", descriptor.getName(), checkpoint));
+
+        SimpleTypedQuery<T> query = em.createQuery(buildSoqlTemplate(checkpoint != null), entityClass);
+        query.setIncludeDeleted(includeDeleted);
+        if (checkpoint != null) {
+            query.setParameter("modstamp", checkpoint.getSystemModstamp());
+            query.setParameter("id", checkpoint.getId());
+        }
+        if (safetyLagMillis > 0)
+            query.setParameter("settled", new Date(System.currentTimeMillis() - safetyLagMillis));
+
+        List<T> upserts = new ArrayList<T>();
+        List<String> deletes = new ArrayList<String>();
+        int count = 0;
+        CloseableIterator<JsonNode> rows = query.iterate(JsonNode.class);
+        try {
+            while (rows.hasNext()) {
+                JsonNode row = rows.next();
+                String id = row.path("Id").getTextValue();
+                if (row.path("IsDeleted").asBoolean()) {
+                    deletes.add(id);
+                } else {
+                    upserts.add(reader.<T>readValue(row));
+                }
+                checkpoint = new SyncCheckpoint(getSystemModstamp(row), id);
+
+                if (upserts.size() + deletes.size() >= batchSize)
+                    count += deliver(listener, upserts, deletes, checkpoint);
+            }
+            count += deliver(listener, upserts, deletes, checkpoint);
+        } catch (IOException e) {
+            throw new EntityResponseException("Failed to parse the 'query' result", e);
+        } finally {
+            rows.close();
+        }
+
+        if (log.isDebugEnabled())
+            log.debug(String.format("...Synchronized %d %s changes", count, descriptor.getName()));
+        return count;
+    }
+
+    private int deliver(SyncListener<T> listener, List<T> upserts, List<String> deletes, SyncCheckpoint checkpoint) {
+        int count = upserts.size() + deletes.size();
+        if (count == 0)
+            return 0;
+
+        if (!upserts.isEmpty())
+            listener.handleUpserts(new ArrayList<T>(upserts));
+        if (!deletes.isEmpty())
+            listener.handleDeletes(new ArrayList<String>(deletes));
+        checkpointStore.save(checkpointKey, checkpoint);
+
+        upserts.clear();
+        deletes.clear();
+        return count;
+    }
+
+    /**
+     * Builds the query for the changes. The fields needed to track the high-water mark (and to recognize deletes) are
+     * added to the wildcard unless the entity already maps them. Changes newer than the safety lag are left out.
+     */
+    private String buildSoqlTemplate(boolean hasCheckpoint) {
+        StringBuilder sb = new StringBuilder("SELECT *");
+        if (!hasProperty("SystemModstamp"))
+            sb.append(",SystemModstamp");
+        if (includeDeleted && !hasProperty("IsDeleted"))
+            sb.append(",IsDeleted");
+        sb.append(" FROM ").append(descriptor.getName());
+        if (hasCheckpoint && safetyLagMillis > 0) {
+            sb.append(" WHERE (SystemModstamp > :modstamp OR (SystemModstamp = :modstamp AND Id > :id))");
+            sb.append(" AND SystemModstamp < :settled");
+        } else if (hasCheckpoint) {
+            sb.append(" WHERE SystemModstamp > :modstamp OR (SystemModstamp = :modstamp AND Id > :id)");
+        } else if (safetyLagMillis > 0) {
+            sb.append(" WHERE SystemModstamp < :settled");
+        }
+        sb.append(" ORDER BY SystemModstamp,Id");
+        return sb.toString();
+    }
+
+    private boolean hasProperty(String name) {
+        for (BeanPropertyDefinition property : descriptor.getBeanDescription().findProperties()) {
+            if (property.getName().equalsIgnoreCase(name))
+                return true;
+        }
+        return false;
+    }
+
+    private static Date getSystemModstamp(JsonNode row) throws IOException {
+        JsonNode systemModstamp = row.get("SystemModstamp");
+        if (systemModstamp == null || systemModstamp.isNull())
+            throw new EntityResponseException("JSON response is missing expected fields");
+
+        return RestSimpleEntityManager.getMappingContext().getObjectMapper().readValue(systemModstamp, Date.class);
+    }
+}
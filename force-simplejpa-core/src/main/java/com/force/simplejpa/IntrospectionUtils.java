@@ -12,6 +12,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToOne;
 
@@ -85,6 +86,38 @@ public final class IntrospectionUtils {
         return false;
     }
 
+    /**
+     * Determines whether a member is a relationship whose related entity should not be fetched along with the owning
+     * entity. That is a {@link ManyToOne} or {@link OneToOne} relationship with a fetch type of {@link FetchType#LAZY}.
+     *
+     * @param annotated the member
+     * @return <code>true</code> if the member is a lazily fetched relationship
+     */
+    static boolean isLazyRelationshipProperty(Annotated annotated) {
+        if (!(annotated instanceof AnnotatedMember))
+            return false;
+
+        AnnotatedMember annotatedMember = (AnnotatedMember) annotated;
+        if (isRelationshipAnnotationPresent(annotatedMember)) {
+            ManyToOne manyToOne = annotatedMember.getAnnotation(ManyToOne.class);
+            OneToOne oneToOne = annotatedMember.getAnnotation(OneToOne.class);
+            return getFetchType(manyToOne, oneToOne) == FetchType.LAZY;
+        }
+
+        Field relatedField = getRelatedField(annotatedMember);
+        if (relatedField != null && isRelationshipAnnotationPresent(relatedField)) {
+            ManyToOne manyToOne = relatedField.getAnnotation(ManyToOne.class);
+            OneToOne oneToOne = relatedField.getAnnotation(OneToOne.class);
+            return getFetchType(manyToOne, oneToOne) == FetchType.LAZY;
+        }
+
+        return false;
+    }
+
+    private static FetchType getFetchType(ManyToOne manyToOne, OneToOne oneToOne) {
+        return (manyToOne != null) ? manyToOne.fetch() : oneToOne.fetch();
+    }
+
     private static String getEntityName(Class<?> clazz) {
         Entity entity = clazz.getAnnotation(Entity.class);
         if (entity != null) return entity.name();
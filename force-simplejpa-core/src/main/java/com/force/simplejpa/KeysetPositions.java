@@ -0,0 +1,208 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import org.apache.commons.lang.ClassUtils;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.BeanPropertyDefinition;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Remembers where pages start for a query which uses keyset pagination.
+ * <p/>
+ * With keyset pagination a page is requested by the last key of the previous page rather than by its position, so the
+ * key which precedes each position that has been reached is recorded as results are consumed. Asking for the next page
+ * (the usual case) then costs a single query no matter how far into the results it is.
+ * <p/>
+ * The keys are bound into the key condition as SOQL literals, so the key field has to be one whose values can be
+ * written as literals without knowing more about the field: an Id, a string or a number. Date and time fields can't
+ * be used because SOQL date and dateTime literals look different and the entity mapping doesn't say which one the
+ * field is.
+ */
+final class KeysetPositions {
+    private final String keyField;
+    private final TreeMap<Integer, Object> lastKeys = new TreeMap<Integer, Object>(); // Position -> preceding key
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param keyField   the field the results are ordered by
+     * @param descriptor descriptor of the entity being queried, which has to map the key field
+     * @throws IllegalArgumentException if the entity doesn't map the key field or the field isn't an Id, a string or a
+     *                                  number
+     */
+    KeysetPositions(String keyField, EntityDescriptor descriptor) {
+        checkKeyField(keyField, descriptor);
+
+        this.keyField = keyField;
+        lastKeys.put(0, null); // Nothing precedes the first row
+    }
+
+    /**
+     * Checks that an entity maps a key field which keyset pagination can use. The entity being queried has to map it
+     * and so does any other class the results are read into, since the keys are read from the result rows.
+     *
+     * @param keyField   the field the results are ordered by
+     * @param descriptor descriptor of the entity
+     * @throws IllegalArgumentException if the entity doesn't map the key field or the field isn't an Id, a string or a
+     *                                  number
+     */
+    static void checkKeyField(String keyField, EntityDescriptor descriptor) {
+        BeanPropertyDefinition property = findProperty(descriptor, keyField);
+        if (property == null)
+            throw new IllegalArgumentException(
+                String.format("Keyset pagination needs a key field which %s maps, but it doesn't map %s",
+                    descriptor.getName(), keyField));
+        Class<?> keyType = property.getAccessor().getRawType();
+        if (!isSupportedKeyType(keyType))
+            throw new IllegalArgumentException(
+                String.format("Keyset pagination needs an Id, string or number key field, but %s is a %s",
+                    keyField, keyType.getName()));
+    }
+
+    String getKeyField() {
+        return keyField;
+    }
+
+    /**
+     * Finds the closest known position at or before the given one.
+     *
+     * @param position the desired position
+     * @return the known position and the key which precedes it (<code>null</code> for position 0)
+     */
+    Map.Entry<Integer, Object> floor(int position) {
+        return lastKeys.floorEntry(position);
+    }
+
+    void record(int position, Object lastKey) {
+        lastKeys.put(position, lastKey);
+    }
+
+    /**
+     * Wraps an iterator so that the key of the last row it returns is recorded against the position that follows it.
+     *
+     * @param iterator      the iterator over the results of a page
+     * @param startPosition the position of the first row returned by the iterator
+     * @param descriptor    descriptor of the class of the rows (not used for raw JSON rows)
+     * @return the wrapped iterator
+     */
+    <T> CloseableIterator<T> recording(CloseableIterator<T> iterator, int startPosition, EntityDescriptor descriptor) {
+        return new RecordingIterator<T>(iterator, startPosition, descriptor);
+    }
+
+    /**
+     * Gets the value of the key field from a result row, which is either raw JSON or a bean.
+     */
+    Object getKey(Object row, EntityDescriptor descriptor) {
+        if (row instanceof JsonNode) {
+            JsonNode keyNode = findField((JsonNode) row);
+            if (keyNode == null || keyNode.isNull())
+                throw new IllegalStateException(String.format("Result row has no value for key field %s", keyField));
+            if (keyNode.isNumber())
+                return keyNode.getNumberValue();
+            if (keyNode.isTextual())
+                return keyNode.asText();
+            throw new IllegalStateException(
+                String.format("Key field %s has a value which is neither a string nor a number", keyField));
+        }
+
+        BeanPropertyDefinition property = findProperty(descriptor, keyField);
+        if (property == null)
+            throw new IllegalStateException(
+                String.format("%s has no property for key field %s", row.getClass().getName(), keyField));
+
+        Object key = EntityUtils.getPropertyValue(property, row);
+        if (key == null)
+            throw new IllegalStateException(String.format("Result row has no value for key field %s", keyField));
+        if (!isSupportedKeyType(key.getClass()))
+            throw new IllegalStateException(
+                String.format("Key field %s has a value which is neither a string nor a number", keyField));
+        return key;
+    }
+
+    private static BeanPropertyDefinition findProperty(EntityDescriptor descriptor, String keyField) {
+        for (BeanPropertyDefinition property : descriptor.getBeanDescription().findProperties()) {
+            if (property.getName().equalsIgnoreCase(keyField))
+                return property;
+        }
+        return null;
+    }
+
+    private static boolean isSupportedKeyType(Class<?> type) {
+        Class<?> wrapperType = ClassUtils.primitiveToWrapper(type);
+        return String.class.equals(wrapperType) || Number.class.isAssignableFrom(wrapperType);
+    }
+
+    private JsonNode findField(JsonNode node) {
+        JsonNode keyNode = node.get(keyField);
+        if (keyNode != null)
+            return keyNode;
+
+        Iterator<String> fieldNames = node.getFieldNames();
+        while (fieldNames.hasNext()) {
+            String fieldName = fieldNames.next();
+            if (fieldName.equalsIgnoreCase(keyField))
+                return node.get(fieldName);
+        }
+        return null;
+    }
+
+    private final class RecordingIterator<T> implements CloseableIterator<T> {
+        private final CloseableIterator<T> iterator;
+        private final EntityDescriptor descriptor;
+        private int position;
+        private T lastRow;
+
+        private RecordingIterator(CloseableIterator<T> iterator, int startPosition, EntityDescriptor descriptor) {
+            this.iterator = iterator;
+            this.descriptor = descriptor;
+            this.position = startPosition;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (iterator.hasNext())
+                return true;
+
+            recordLastRow();
+            return false;
+        }
+
+        @Override
+        public T next() {
+            T row = iterator.next();
+            lastRow = row;
+            position++;
+            return row;
+        }
+
+        @Override
+        public void remove() {
+            iterator.remove();
+        }
+
+        @Override
+        public void close() {
+            try {
+                recordLastRow();
+            } catch (RuntimeException e) {
+                // The position just isn't recorded, which only costs a key query if the next page is asked for
+            } finally {
+                iterator.close();
+            }
+        }
+
+        private void recordLastRow() {
+            if (lastRow != null) {
+                record(position, getKey(lastRow, descriptor));
+                lastRow = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import java.io.Closeable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A read-only {@link List} of query results which only retrieves pages of results as they are needed (see
+ * {@link SimpleTypedQuery#getPagedResultList()}).
+ * <p/>
+ * Results are read from the response as an index or iterator position beyond those already read is touched. So if a
+ * caller stops looking after the first few matches, the remaining pages are never requested.
+ * <p/>
+ * {@link #size()} always agrees with {@link #get(int)}, so it has to read every remaining page (as do the other
+ * methods which look at the whole list, such as <code>equals</code>, <code>hashCode</code>, <code>toArray</code> and
+ * <code>contains</code> of a result that isn't there). Use {@link #getTotalSizeHint()} for the number of results
+ * Salesforce expects without reading them, or {@link #getLoadedSize()} for the number read so far.
+ * <p/>
+ * The list should be closed if it is not read to the end. Closing it releases the response stream and truncates the
+ * list to the results read so far. Instances are not thread safe.
+ *
+ * @param <T> type of the results
+ */
+public final class PagedResultList<T> extends AbstractList<T> implements Closeable {
+    private final CloseableIterator<T> iterator;
+    private final List<T> results = new ArrayList<T>();
+    private final int totalSize;
+    private boolean exhausted;
+
+    PagedResultList(CloseableIterator<T> iterator) {
+        this.iterator = iterator;
+        this.totalSize =
+            (iterator instanceof QueryResultIterator) ? ((QueryResultIterator<?>) iterator).getTotalSize() : -1;
+    }
+
+    @Override
+    public T get(int index) {
+        if (index < 0 || !isLoaded(index))
+            throw new IndexOutOfBoundsException(String.format("Index: %d, Size: %d", index, results.size()));
+        return results.get(index);
+    }
+
+    /**
+     * Gets the number of results, reading all of the remaining pages to find out.
+     *
+     * @return the number of results
+     */
+    @Override
+    public int size() {
+        while (load());
+        return results.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return !isLoaded(0);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return isLoaded(index);
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return results.get(index++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Query results can not be removed");
+            }
+        };
+    }
+
+    /**
+     * Gets the total number of results that Salesforce reported with the first page, without reading any more pages.
+     * This is only a hint: results which are deleted while the pages are read or which were skipped with
+     * {@link SimpleTypedQuery#setFirstResult(int)} may not be in the list, so use {@link #size()} when the list is
+     * going to be indexed.
+     *
+     * @return the reported total number of results or -1 if Salesforce didn't report one (for example for Bulk and
+     *         keyset paginated queries)
+     */
+    public int getTotalSizeHint() {
+        return totalSize;
+    }
+
+    /**
+     * Gets the number of results which have been read so far.
+     *
+     * @return the number of results read
+     */
+    public int getLoadedSize() {
+        return results.size();
+    }
+
+    /**
+     * Stops reading results and releases the response stream. The list is truncated to the results read so far.
+     */
+    @Override
+    public void close() {
+        exhausted = true;
+        iterator.close();
+    }
+
+    /**
+     * Reads results until there is one at the given index or there are no more.
+     *
+     * @return <code>true</code> if there is a result at the index
+     */
+    private boolean isLoaded(int index) {
+        while (index >= results.size()) {
+            if (!load())
+                return false;
+        }
+        return true;
+    }
+
+    private boolean load() {
+        if (exhausted)
+            return false;
+
+        if (iterator.hasNext()) {
+            results.add(iterator.next());
+            return true;
+        } else {
+            exhausted = true;
+            iterator.close();
+            return false;
+        }
+    }
+}
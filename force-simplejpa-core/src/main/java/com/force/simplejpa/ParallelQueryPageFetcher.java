@@ -0,0 +1,145 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import com.google.common.util.concurrent.SettableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A {@link QueryPageFetcher} which retrieves the remaining pages of a query result concurrently.
+ * <p/>
+ * Salesforce query locators have a predictable form in which the locator of each page ends with the offset of the first
+ * record of that page (for example <code>/services/data/v28.0/query/01gD0000002HU6KIAW-2000</code>). Given the
+ * locator of the second page and the total size reported in the first page, the locators of all the remaining pages can
+ * be computed up front. Those pages are then requested with bounded parallelism and handed back in order as the
+ * consumer asks for them.
+ * <p/>
+ * At most {@link #PAGES_AHEAD_PER_REQUEST} times the parallelism pages are buffered or in flight at any one time, so
+ * memory usage is bounded by the parallelism rather than by the size of the result. Further pages are requested as the
+ * consumer takes the buffered ones.
+ * <p/>
+ * If the locator does not have the expected form then this falls back to requesting pages one at a time.
+ */
+final class ParallelQueryPageFetcher extends BufferingQueryPageFetcher {
+    private static final Logger log = LoggerFactory.getLogger(ParallelQueryPageFetcher.class);
+
+    /**
+     * The number of pages which may be buffered or in flight ahead of the consumer for each concurrent request.
+     */
+    static final int PAGES_AHEAD_PER_REQUEST = 2;
+
+    private final int parallelism;
+    private final int window;
+
+    private final Queue<URI> queuedPages = new LinkedList<URI>();
+    private boolean fannedOut;
+    private int running;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param connector   the connector used to request the pages
+     * @param headers     optional HTTP headers to add to the page requests
+     * @param executor    the executor on which the page requests are issued
+     * @param parallelism the maximum number of page requests to have in flight at once
+     */
+    ParallelQueryPageFetcher(
+        RestConnector connector, Map<String, String> headers, ExecutorService executor, int parallelism) {
+
+        super(connector, headers, executor);
+        this.parallelism = parallelism;
+        this.window = parallelism * PAGES_AHEAD_PER_REQUEST;
+    }
+
+    @Override
+    public synchronized void pageLocated(URI nextRecordsUrl, int totalSize) {
+        if (fannedOut || isClosed())
+            return; // The locations reported for later pages were already computed
+
+        fannedOut = true;
+        List<URI> locators = getRemainingLocators(nextRecordsUrl, totalSize);
+        if (log.isDebugEnabled())
+            log.debug(String.format("...Fetching %d pages in parallel", locators.size()));
+
+        queuedPages.addAll(locators);
+        startQueuedRequests();
+    }
+
+    @Override
+    protected synchronized void pageTaken(URI nextRecordsUrl) {
+        queuedPages.remove(nextRecordsUrl); // Only there if the consumer got ahead of the locators we computed
+        startQueuedRequests();
+    }
+
+    /**
+     * Computes the locators of all the remaining pages of a query result.
+     *
+     * @param nextRecordsUrl the locator of the second page
+     * @param totalSize      the total number of records which satisfy the query
+     * @return the locators of the second and all subsequent pages, or just the locator of the second page if the
+     *         locator does not have the expected form
+     */
+    static List<URI> getRemainingLocators(URI nextRecordsUrl, int totalSize) {
+        List<URI> locators = new ArrayList<URI>();
+        locators.add(nextRecordsUrl);
+
+        String locator = nextRecordsUrl.toString();
+        int p = locator.lastIndexOf('-');
+        if (p < 0 || totalSize < 0)
+            return locators;
+
+        int pageSize;
+        try {
+            pageSize = Integer.parseInt(locator.substring(p + 1));
+        } catch (NumberFormatException e) {
+            return locators;
+        }
+        if (pageSize <= 0)
+            return locators;
+
+        String prefix = locator.substring(0, p + 1);
+        for (int offset = pageSize + pageSize; offset < totalSize; offset += pageSize) {
+            locators.add(URI.create(prefix + offset));
+        }
+        return locators;
+    }
+
+    private synchronized void startQueuedRequests() {
+        while (!isClosed() && running < parallelism && getPendingCount() < window && !queuedPages.isEmpty()) {
+            final URI locator = queuedPages.remove();
+            final SettableFuture<byte[]> page = SettableFuture.create();
+            addPending(locator, page);
+            running++;
+            getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!page.isCancelled())
+                            page.set(readPage(locator));
+                    } catch (Throwable e) {
+                        page.setException(e);
+                    } finally {
+                        requestFinished();
+                    }
+                }
+            });
+        }
+    }
+
+    private synchronized void requestFinished() {
+        running--;
+        startQueuedRequests();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A {@link QueryPageFetcher} which retrieves subsequent pages in the background while the current page is still being
+ * consumed.
+ * <p/>
+ * As soon as the location of a subsequent page is known, a request for the page is issued on a background executor and
+ * the response body is buffered in memory. The network time for the next page therefore overlaps with the time spent
+ * deserializing the current one. When the prefetch depth is greater than one, each buffered page is also scanned for
+ * the location of the page after it so that several pages can be in flight at once.
+ * <p/>
+ * At most "prefetch depth" pages are buffered or in flight at any one time which keeps memory usage bounded.
+ */
+final class PrefetchingQueryPageFetcher extends BufferingQueryPageFetcher {
+    private static final Logger log = LoggerFactory.getLogger(PrefetchingQueryPageFetcher.class);
+
+    private final JsonFactory jsonFactory;
+    private final int prefetchDepth;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param connector     the connector used to request the pages
+     * @param headers       optional HTTP headers to add to the page requests
+     * @param jsonFactory   the factory used to scan buffered pages for the location of the page which follows
+     * @param executor      the executor on which the page requests are issued
+     * @param prefetchDepth the maximum number of pages to retrieve ahead of the consumer
+     */
+    PrefetchingQueryPageFetcher(
+        RestConnector connector, Map<String, String> headers, JsonFactory jsonFactory, ExecutorService executor,
+        int prefetchDepth) {
+
+        super(connector, headers, executor);
+        this.jsonFactory = jsonFactory;
+        this.prefetchDepth = prefetchDepth;
+    }
+
+    @Override
+    public synchronized void pageLocated(final URI nextRecordsUrl, int totalSize) {
+        if (isClosed() || isPending(nextRecordsUrl) || getPendingCount() >= prefetchDepth)
+            return;
+
+        if (log.isDebugEnabled())
+            log.debug(String.format("...Prefetch: %s", nextRecordsUrl));
+
+        addPending(nextRecordsUrl, getExecutor().submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                byte[] page = readPage(nextRecordsUrl);
+                if (prefetchDepth > 1) {
+                    URI followingRecordsUrl = findNextRecordsUrl(page);
+                    if (followingRecordsUrl != null)
+                        pageLocated(followingRecordsUrl, -1);
+                }
+                return page;
+            }
+        }));
+    }
+
+    private URI findNextRecordsUrl(byte[] page) throws IOException {
+        JsonParser parser = jsonFactory.createJsonParser(page);
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                return null;
+
+            for (JsonToken token = parser.nextToken(); token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+                String fieldName = parser.getCurrentName();
+                JsonToken valueToken = parser.nextToken();
+                if (fieldName.equals("nextRecordsUrl") && valueToken == JsonToken.VALUE_STRING)
+                    return URI.create(parser.getText());
+
+                parser.skipChildren();
+            }
+            return null;
+        } finally {
+            parser.close();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import java.io.InputStream;
+import java.net.URI;
+
+/**
+ * A strategy for retrieving the subsequent pages of a paged Salesforce REST query result.
+ * <p/>
+ * The {@link QueryResultIterator} reports the location of each subsequent page as soon as it is discovered in the
+ * response (through {@link #pageLocated}) and then asks for the page itself (through {@link #fetchPage}) only once the
+ * consumer has advanced past the end of the current page. This gives implementations the opportunity to retrieve pages
+ * ahead of time if they so choose.
+ */
+interface QueryPageFetcher {
+    /**
+     * Notes the location of a subsequent page of results. This is called as soon as the location is known, which is
+     * usually well before the page is actually needed.
+     *
+     * @param nextRecordsUrl the location of the subsequent page
+     * @param totalSize      the total number of records which satisfy the query or -1 if not known
+     */
+    void pageLocated(URI nextRecordsUrl, int totalSize);
+
+    /**
+     * Retrieves a subsequent page of results.
+     *
+     * @param nextRecordsUrl the location of the subsequent page
+     * @return input stream for the response body of the page
+     */
+    InputStream fetchPage(URI nextRecordsUrl);
+
+    /**
+     * Releases any resources held by the fetcher, including pages which were retrieved but never asked for.
+     */
+    void close();
+}
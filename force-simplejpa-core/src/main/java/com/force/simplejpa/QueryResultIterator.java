@@ -0,0 +1,253 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.NoSuchElementException;
+
+/**
+ * A {@link CloseableIterator} which streams the records of a Salesforce REST query result.
+ * <p/>
+ * Records are pulled from the response stream one at a time with a Jackson {@link JsonParser} rather than reading the
+ * whole response into a tree. Subsequent pages of the result (as indicated by "nextRecordsUrl") are only requested when
+ * the consumer advances past the end of the current page (unless the {@link QueryPageFetcher} chooses to retrieve them
+ * ahead of time). This means memory usage is bounded by the size of a page rather than by the size of the whole result
+ * set.
+ *
+ * @param <T> type of object returned by the iterator
+ */
+final class QueryResultIterator<T> implements CloseableIterator<T> {
+    private static final Logger log = LoggerFactory.getLogger(QueryResultIterator.class);
+
+    private final QueryPageFetcher pageFetcher;
+    private final EntityMappingContext mappingContext;
+    private final Class<T> resultClass;
+    private final ObjectReader reader;
+
+    private JsonParser parser;
+    private URI nextRecordsUrl;
+    private int totalSize = -1;
+    private T nextResult;
+    private boolean closed;
+
+    /**
+     * Constructs a new instance positioned at the beginning of the first page of query results.
+     *
+     * @param pageFetcher    the fetcher used to retrieve subsequent pages of results
+     * @param mappingContext the mapping context used to deserialize the records
+     * @param resultClass    the class of the returned objects
+     * @param continuation   used to retrieve the remainder of truncated subquery results. May be <code>null</code> in
+     *                       which case subquery results are limited to what Salesforce returns with the parent record.
+     * @param responseStream the response stream for the first page of results
+     */
+    QueryResultIterator(
+        QueryPageFetcher pageFetcher, EntityMappingContext mappingContext, Class<T> resultClass,
+        SubqueryContinuation continuation, InputStream responseStream) {
+
+        this.pageFetcher = pageFetcher;
+        this.mappingContext = mappingContext;
+        this.resultClass = resultClass;
+        this.reader = continuation == null
+            ? mappingContext.getObjectReader(resultClass)
+            : mappingContext.getObjectReader(resultClass).withInjectableValues(continuation.asInjectableValues());
+
+        openPage(responseStream);
+    }
+
+    /**
+     * Returns the total number of records which satisfy the query as reported by Salesforce in the first page of
+     * results.
+     *
+     * @return the total number of records or -1 if not reported
+     */
+    int getTotalSize() {
+        return totalSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextResult != null)
+            return true;
+
+        try {
+            if (!advanceToRecord())
+                return false;
+
+            nextResult = readRecord();
+            return true;
+        } catch (IOException e) {
+            close();
+            throw new EntityResponseException("Failed to parse the 'query' result", e);
+        }
+    }
+
+    /**
+     * Hands the next record to a {@link ColumnarDecoder} rather than binding it to the result class. The record is
+     * decoded straight from the parser, so no object is created for it.
+     *
+     * @param decoder the decoder to receive the record
+     * @return <code>true</code> if a record was decoded or <code>false</code> if there are no more
+     */
+    boolean decodeNext(ColumnarDecoder decoder) {
+        if (nextResult != null)
+            throw new IllegalStateException("A record has already been read by hasNext()");
+
+        try {
+            if (!advanceToRecord())
+                return false;
+
+            decoder.decodeRecord(parser);
+            return true;
+        } catch (IOException e) {
+            close();
+            throw new EntityResponseException("Failed to parse the 'query' result", e);
+        }
+    }
+
+    /**
+     * Positions the parser at the beginning of the next record, requesting the next page of results if needed.
+     *
+     * @return <code>true</code> if positioned at a record or <code>false</code> if there are no more
+     */
+    private boolean advanceToRecord() throws IOException {
+        while (true) {
+            if (parser != null) {
+                if (parser.nextToken() == JsonToken.START_OBJECT)
+                    return true;
+                finishPage(); // We've reached the end of the records for this page
+            }
+
+            if (nextRecordsUrl == null) {
+                close();
+                return false;
+            }
+
+            URI uri = nextRecordsUrl;
+            nextRecordsUrl = null;
+            openPage(pageFetcher.fetchPage(uri));
+        }
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        T result = nextResult;
+        nextResult = null;
+        return result;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Query results can not be removed");
+    }
+
+    @Override
+    public void close() {
+        if (closed)
+            return;
+
+        closed = true;
+        nextResult = null;
+        nextRecordsUrl = null;
+        closeParser();
+        pageFetcher.close();
+    }
+
+    /**
+     * Opens a new page of results and positions the parser at the beginning of the "records" array.
+     */
+    private void openPage(InputStream responseStream) {
+        try {
+            parser = mappingContext.getObjectMapper().getJsonFactory().createJsonParser(responseStream);
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                close();
+                throw new EntityResponseException("JSON response is missing expected fields");
+            }
+
+            if (!readPageFieldsUntilRecords())
+                closeParser(); // There are no records on this page
+        } catch (IOException e) {
+            close();
+            throw new EntityResponseException("Failed to parse the 'query' result", e);
+        }
+    }
+
+    /**
+     * Reads the fields that describe the page until the "records" array is encountered.
+     *
+     * @return <code>true</code> if positioned at the beginning of the "records" array or <code>false</code> if the end
+     *         of the page was reached without finding one
+     */
+    private boolean readPageFieldsUntilRecords() throws IOException {
+        for (JsonToken token = parser.nextToken(); token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+            String fieldName = parser.getCurrentName();
+            JsonToken valueToken = parser.nextToken();
+            if (fieldName.equals("records") && valueToken == JsonToken.START_ARRAY) {
+                return true;
+            } else if (fieldName.equals("nextRecordsUrl") && valueToken == JsonToken.VALUE_STRING) {
+                nextRecordsUrl = URI.create(parser.getText());
+                pageFetcher.pageLocated(nextRecordsUrl, totalSize);
+            } else if (fieldName.equals("totalSize") && valueToken == JsonToken.VALUE_NUMBER_INT) {
+                if (totalSize < 0)
+                    totalSize = parser.getIntValue();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads any fields that follow the "records" array and then releases the page.
+     */
+    private void finishPage() throws IOException {
+        readPageFieldsUntilRecords();
+        closeParser();
+    }
+
+    /**
+     * Reads the record at the current position of the parser. Records are normally bound directly from the parser into
+     * the result class without building an intermediate tree. A tree is only built if that is what was asked for or if
+     * the row needs to be logged.
+     */
+    private T readRecord() throws IOException {
+        if (resultClass.equals(JsonNode.class) || log.isTraceEnabled()) {
+            JsonNode node = mappingContext.getObjectMapper().readTree(parser);
+            if (log.isTraceEnabled()) {
+                log.trace(String.format("...Result Row: %s", node.toString()));
+            }
+            if (resultClass.equals(JsonNode.class)) {
+                return resultClass.cast(node);
+            } else {
+                return reader.<T>readValue(node);
+            }
+        } else {
+            return reader.<T>readValue(parser);
+        }
+    }
+
+    private void closeParser() {
+        if (parser != null) {
+            try {
+                parser.close();
+            } catch (IOException e) {
+                log.debug("Failed to close query response stream", e);
+            }
+            parser = null;
+        }
+    }
+}
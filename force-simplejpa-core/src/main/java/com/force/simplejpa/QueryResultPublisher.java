@@ -0,0 +1,200 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import org.apache.commons.lang.Validate;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link ResultPublisher} which delivers the results of a query by pulling them from a {@link CloseableIterator}
+ * over the query results.
+ * <p/>
+ * Results are only pulled from the iterator while there is outstanding demand, and the iterator only requests the
+ * next page of results when it reaches the end of the current one. A subscriber that stops requesting therefore stops
+ * the fetching too, once the current page has been delivered, and memory usage stays bounded by the size of a page
+ * (plus whatever the query has been told to prefetch) no matter how many results there are.
+ * <p/>
+ * Results are delivered on the executor, so requesting more never waits on Salesforce. Delivery for a subscription is
+ * serialized: at most one task per subscription is running on the executor at any time. If the authorization
+ * connector is known, the authorization is captured on the thread which subscribes and the delivery tasks run with it
+ * (see {@link AuthorizationContext}).
+ *
+ * @param <T> type of object produced
+ */
+final class QueryResultPublisher<T> implements ResultPublisher<T> {
+    private final Callable<CloseableIterator<T>> query;
+    private final Executor executor;
+    private final AuthorizationConnector authorizationConnector;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param query                  executes the query and returns an iterator over the results. Called on the
+     *                               executor when the first results are requested by a subscriber, so it must not
+     *                               touch anything which isn't thread-safe.
+     * @param executor               the executor which executes the query and delivers the results
+     * @param authorizationConnector the authorization connector used by the query. May be <code>null</code> if it
+     *                               isn't known.
+     */
+    QueryResultPublisher(
+        Callable<CloseableIterator<T>> query, Executor executor, AuthorizationConnector authorizationConnector) {
+
+        this.query = query;
+        this.executor = executor;
+        this.authorizationConnector = authorizationConnector;
+    }
+
+    @Override
+    public void subscribe(ResultSubscriber<? super T> subscriber) {
+        Validate.notNull(subscriber, "subscriber must not be null");
+
+        subscriber.onSubscribe(new QuerySubscription(subscriber));
+    }
+
+    private final class QuerySubscription implements ResultSubscription, Runnable {
+        private final ResultSubscriber<? super T> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pendingSignals = new AtomicInteger(); // Non-zero while a delivery task is scheduled
+        private volatile boolean cancelled;
+        private volatile RuntimeException failure;
+        private final AuthorizationContext context; // null unless the authorization connector is known
+
+        // Only touched by the delivery task
+        private CloseableIterator<T> iterator;
+        private boolean done;
+
+        private QuerySubscription(ResultSubscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+
+            // The subscription is created on the subscribing thread, which is where the authorization is captured
+            AuthorizationContext capturedContext = null;
+            if (authorizationConnector != null) {
+                try {
+                    capturedContext = AuthorizationContext.capture(authorizationConnector);
+                } catch (RuntimeException e) {
+                    failure = e; // Reported once the subscriber requests results
+                }
+            }
+            this.context = capturedContext;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                failure =
+                    new IllegalArgumentException(String.format("Requested %d results, which is not positive", n));
+            } else {
+                addDemand(n);
+            }
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            signal();
+        }
+
+        private void addDemand(long n) {
+            while (true) {
+                long current = demand.get();
+                long updated = current + n;
+                if (updated < 0)
+                    updated = Long.MAX_VALUE; // Overflow means there is no limit any more
+                if (demand.compareAndSet(current, updated))
+                    return;
+            }
+        }
+
+        /**
+         * Makes sure a delivery task will run after this call. If one is already running it simply goes round again.
+         */
+        private void signal() {
+            if (pendingSignals.getAndIncrement() == 0)
+                executor.execute((context != null) ? context.wrap(this) : this);
+        }
+
+        @Override
+        public void run() {
+            int signals = pendingSignals.get();
+            while (true) {
+                deliver();
+                signals = pendingSignals.addAndGet(-signals);
+                if (signals == 0)
+                    return;
+            }
+        }
+
+        private void deliver() {
+            if (done)
+                return;
+
+            if (cancelled) {
+                finish();
+                return;
+            }
+            if (failure != null) {
+                fail(failure);
+                return;
+            }
+
+            // Only the query and the iterator are guarded. A failure of the subscriber itself must not be reported back
+            // to it, least of all after it has been told the results are complete.
+            boolean exhausted = false;
+            while (demand.get() > 0 && !cancelled) {
+                T result;
+                try {
+                    if (iterator == null)
+                        iterator = query.call();
+                    if (!iterator.hasNext()) {
+                        exhausted = true;
+                        break;
+                    }
+                    result = iterator.next();
+                } catch (Exception e) {
+                    fail(e);
+                    return;
+                }
+
+                if (demand.get() != Long.MAX_VALUE)
+                    demand.decrementAndGet();
+                try {
+                    subscriber.onNext(result);
+                } catch (RuntimeException e) {
+                    finish(); // The subscriber is broken, so nothing more is delivered to it
+                    throw e;
+                }
+            }
+
+            if (cancelled) {
+                finish();
+            } else if (exhausted) {
+                finish();
+                subscriber.onComplete();
+            }
+        }
+
+        /**
+         * Ends the subscription with an error. The subscriber isn't signalled again afterwards.
+         */
+        private void fail(Throwable cause) {
+            finish();
+            subscriber.onError(cause);
+        }
+
+        private void finish() {
+            done = true;
+            if (iterator != null) {
+                iterator.close();
+                iterator = null;
+            }
+        }
+    }
+}
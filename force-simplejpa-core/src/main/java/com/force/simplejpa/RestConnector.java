@@ -50,6 +50,29 @@ public interface RestConnector {
      */
     InputStream doQuery(String soql, Map<String, String> headers);
 
+    /**
+     * Issues a Salesforce SOQL query which also returns deleted and archived records ("queryAll").
+     *
+     * @param soql    the SOQL for the query
+     * @param headers optional HTTP headers to add to the request.
+     * @return input stream for the response body returned by Salesforce.
+     */
+    InputStream doQueryAll(String soql, Map<String, String> headers);
+
+    /**
+     * Retrieves selected fields of an existing Salesforce object. This is cheaper than a query for the same object
+     * because there is no query to plan and no query result envelope to wade through.
+     *
+     * @param entityType the Salesforce object type
+     * @param id         the Salesforce ID of the object
+     * @param fields     comma separated list of the fields to retrieve
+     * @param headers    optional HTTP headers to add to the request.
+     * @return input stream for the response body returned by Salesforce or <code>null</code> if the object does not
+     *         exist (a 404 with the NOT_FOUND error code). Any other failure, including a 404 for an unknown object
+     *         type, is an {@link EntityRequestException}.
+     */
+    InputStream doRetrieve(String entityType, String id, String fields, Map<String, String> headers);
+
     /**
      * Updates an existing Salesforce object.
      *
@@ -5,37 +5,91 @@
  */
 package com.force.simplejpa;
 
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
 import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.BeanPropertyDefinition;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.ObjectNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.persistence.NoResultException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * An implementation of {@link SimpleEntityManager} that is based on the JSON representations of the Salesforce REST
  * API.
+ * <p/>
+ * Some work is done in the background on the executor, for example prefetching pages of query results (see
+ * {@link SimpleTypedQuery#setPrefetchDepth(int)}). When the entity manager is constructed with the
+ * {@link AuthorizationConnector} its connectors use, the authorization is captured on the thread which starts an
+ * operation and carried over to the background tasks (see {@link AuthorizationContext}). This is required when the
+ * authorization connector only answers on the thread serving a particular request, as one that propagates the
+ * authorization of an inbound web request does.
  */
 public final class RestSimpleEntityManager implements SimpleEntityManager {
     private static final Logger log = LoggerFactory.getLogger(RestSimpleEntityManager.class);
 
     static final String SHARING_SPECIFICATION_HEADER_NAME = "Work-Sharing-Specification";
     static final String SHARING_SPECIFICATION_ATTRIBUTE_NAME = "sharingSpecification";
+    static final String QUERY_OPTIONS_HEADER_NAME = "Sforce-Query-Options";
 
     // Just one mapping context is shared by all instances. It is thread-safe and configured the same every time. There
     // is no reason to go through the expense of creating multiple instances. This way we get to share the cache.
     private static final EntityMappingContext mappingContext = new EntityMappingContext();
 
+    private static final Map<EntityDescriptor, String> findTemplates =
+        new ConcurrentHashMap<EntityDescriptor, String>();
+    private static final Map<EntityDescriptor, String> retrieveFields =
+        new ConcurrentHashMap<EntityDescriptor, String>();
+    private static final Map<EntityDescriptor, String> findAllTemplates =
+        new ConcurrentHashMap<EntityDescriptor, String>();
+
+    // Keeps the URL of a findAll query (which carries the ids) comfortably below common URL length limits
+    private static final int MAX_IDS_PER_FIND_QUERY = 200;
+
+    // Background work (such as prefetching query results) is performed on a shared pool of daemon threads unless the
+    // application supplies its own executor. Threads are only created when there is actually background work to do.
+    private static final ExecutorService defaultExecutor =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("simplejpa-background-%d").build());
+
+    // How long to wait between checks on the progress of a Bulk query job. The wait doubles up to the maximum.
+    private static final long INITIAL_BULK_POLL_INTERVAL_MILLIS = 500;
+    private static final long MAX_BULK_POLL_INTERVAL_MILLIS = 10000;
+
+    // Concurrent identical executions of single-flight queries, shared by all instances because an application often
+    // creates an instance per request
+    private static final SingleFlight<SingleFlightKey, Object> singleFlight =
+        new SingleFlight<SingleFlightKey, Object>();
+
     private RestConnector connector;
+    private BulkConnector bulkConnector;
+    private AsyncRestConnector asyncConnector;
+    private ExecutorService executor;
+    private AuthorizationConnector authorizationConnector;
 
     /**
      * Constructs a new instance with the given {@link RestConnector}.
@@ -43,23 +97,185 @@ public final class RestSimpleEntityManager implements SimpleEntityManager {
      * @param connector a REST connector
      */
     public RestSimpleEntityManager(RestConnector connector) {
+        this(connector, defaultExecutor);
+    }
+
+    /**
+     * Constructs a new instance with the given {@link RestConnector} and the {@link AuthorizationConnector} it uses.
+     * The authorization connector tells the users of single-flight queries apart (see
+     * {@link SimpleTypedQuery#setSingleFlight(boolean)}).
+     *
+     * @param connector              a REST connector
+     * @param authorizationConnector the authorization connector used by the REST connector
+     */
+    public RestSimpleEntityManager(RestConnector connector, AuthorizationConnector authorizationConnector) {
+        this(
+            connector, (connector instanceof BulkConnector) ? (BulkConnector) connector : null, defaultExecutor,
+            authorizationConnector);
+    }
+
+    /**
+     * Constructs a new instance with the given {@link RestConnector} and an {@link ExecutorService} for performing
+     * background work such as prefetching query results.
+     *
+     * @param connector a REST connector
+     * @param executor  an executor for background work
+     */
+    public RestSimpleEntityManager(RestConnector connector, ExecutorService executor) {
+        this(connector, (connector instanceof BulkConnector) ? (BulkConnector) connector : null, executor);
+    }
+
+    /**
+     * Constructs a new instance with the given {@link RestConnector}, a {@link BulkConnector} for queries in Bulk mode
+     * (see {@link SimpleTypedQuery#setBulkMode(boolean)}) and an {@link ExecutorService} for performing background
+     * work such as prefetching query results.
+     *
+     * @param connector     a REST connector
+     * @param bulkConnector a Bulk API connector. May be <code>null</code> if Bulk queries aren't needed.
+     * @param executor      an executor for background work
+     */
+    public RestSimpleEntityManager(RestConnector connector, BulkConnector bulkConnector, ExecutorService executor) {
+        this(connector, bulkConnector, executor, null);
+    }
+
+    /**
+     * Constructs a new instance with the given {@link RestConnector}, a {@link BulkConnector} for queries in Bulk mode,
+     * an {@link ExecutorService} for performing background work and the {@link AuthorizationConnector} used by the
+     * connectors, which tells the users of single-flight queries apart.
+     *
+     * @param connector              a REST connector
+     * @param bulkConnector          a Bulk API connector. May be <code>null</code> if Bulk queries aren't needed.
+     * @param executor               an executor for background work
+     * @param authorizationConnector the authorization connector used by the connectors. May be <code>null</code> if
+     *                               single-flight queries aren't needed.
+     */
+    public RestSimpleEntityManager(
+        RestConnector connector, BulkConnector bulkConnector, ExecutorService executor,
+        AuthorizationConnector authorizationConnector) {
+
+        Validate.notNull(executor, "executor must not be null");
+
         this.connector = connector;
+        this.bulkConnector = bulkConnector;
+        this.asyncConnector = (connector instanceof AsyncRestConnector) ? (AsyncRestConnector) connector : null;
+        this.executor = executor;
+        this.authorizationConnector = authorizationConnector;
     }
 
     @Override
     public void persist(Object entity) {
-        Validate.notNull(entity, "entity must not be null");
+        EntityRequest request = newPersistRequest(entity);
+        InputStream responseStream = connector.doCreate(request.entityType, request.json, request.headers);
+        readCreateResponse(request, entity, responseStream);
+    }
 
-        EntityDescriptor descriptor = getRequiredEntityDescriptor(entity.getClass());
-        if (descriptor.hasIdMember() && StringUtils.isNotEmpty(EntityUtils.getEntityId(descriptor, entity))) {
-            throw new EntityRequestException("Id value should not exist for new object creation");
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T merge(T entity) {
+        EntityRequest request = newMergeRequest(entity);
+        connector.doUpdate(request.entityType, request.id, request.json, request.headers);
+        logCompletion("Updated", request);
+        return entity;
+    }
+
+    @Override
+    public void remove(Object entity) {
+        EntityRequest request = newRemoveRequest(entity);
+        connector.doDelete(request.entityType, request.id, request.headers);
+        logCompletion("Deleted", request);
+    }
+
+    @Override
+    public <T> T find(Class<T> entityClass, Object primaryKey) {
+        EntityRequest request = newFindRequest(entityClass, primaryKey);
+
+        // Entities without relationships can be retrieved directly, which is cheaper than a query
+        if (request.descriptor.getRelatedEntities().isEmpty()) {
+            InputStream responseStream =
+                connector.doRetrieve(
+                    request.entityType, request.id, getRetrieveFields(request.descriptor), request.headers);
+            return readRetrieveResponse(entityClass, responseStream);
         }
 
+        try {
+            return newFindQuery(request, entityClass).getSingleResult();
+        } catch (NoResultException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks a new entity and builds the request which creates it.
+     */
+    private EntityRequest newPersistRequest(Object entity) {
+        Validate.notNull(entity, "entity must not be null");
+
+        EntityDescriptor descriptor = getRequiredNewEntityDescriptor(entity);
         String json = convertToJsonForPersist(entity);
 
         optionallyLogRequest("Persist", descriptor.getName(), null, json);
 
-        InputStream responseStream = connector.doCreate(descriptor.getName(), json, buildHeaders(descriptor, entity));
+        return new EntityRequest(descriptor, null, json, buildHeaders(descriptor, entity));
+    }
+
+    /**
+     * Checks an existing entity and builds the request which updates it.
+     */
+    private EntityRequest newMergeRequest(Object entity) {
+        Validate.notNull(entity, "entity must not be null");
+
+        EntityDescriptor descriptor = getRequiredEntityDescriptor(entity.getClass());
+        String id = getRequiredId(descriptor, entity);
+        String json = convertToJsonForMerge(entity);
+
+        optionallyLogRequest("Merge", descriptor.getName(), id, json);
+
+        return new EntityRequest(descriptor, id, json, buildHeaders(descriptor, entity));
+    }
+
+    /**
+     * Checks an existing entity and builds the request which deletes it.
+     */
+    private EntityRequest newRemoveRequest(Object entity) {
+        Validate.notNull(entity, "entity must not be null");
+
+        EntityDescriptor descriptor = getRequiredEntityDescriptor(entity.getClass());
+        String id = getRequiredId(descriptor, entity);
+
+        optionallyLogRequest("Remove", descriptor.getName(), id, null);
+
+        return new EntityRequest(descriptor, id, null, buildHeaders(descriptor, entity));
+    }
+
+    /**
+     * Builds the request which finds an entity by id, either by retrieving it or by querying it.
+     */
+    private EntityRequest newFindRequest(Class<?> entityClass, Object primaryKey) {
+        Validate.notNull(entityClass, "entityClass must not be null");
+        Validate.notNull(primaryKey, "primaryKey must not be null");
+
+        EntityDescriptor descriptor = getRequiredEntityDescriptor(entityClass);
+        String id = primaryKey.toString();
+
+        optionallyLogRequest("Find", descriptor.getName(), id, null);
+
+        return new EntityRequest(descriptor, id, null, buildHeaders(descriptor, null));
+    }
+
+    /**
+     * Creates the query which finds an entity that has relationships to be fetched along with it.
+     */
+    private <T> RestSimpleTypedQuery<T> newFindQuery(EntityRequest request, Class<T> entityClass) {
+        RestSimpleTypedQuery<T> query =
+            new RestSimpleTypedQuery<T>(request.descriptor, getFindTemplate(request.descriptor), entityClass);
+        query.setParameter("id", request.id).setMaxResults(1);
+        return query;
+    }
+
+    /**
+     * Reads the response to the creation of an entity and sets the id the entity was given.
+     */
+    private void readCreateResponse(EntityRequest request, Object entity, InputStream responseStream) {
         JsonNode responseNode = parseJsonResponse(responseStream);
         if (!responseNode.has("success") || !responseNode.has("id")) {
             throw new EntityResponseException("JSON response is missing expected fields");
@@ -68,70 +284,245 @@ public final class RestSimpleEntityManager implements SimpleEntityManager {
             throw new EntityResponseException(getErrorsText(responseNode));
         }
         String id = responseNode.get("id").getTextValue();
-        if (descriptor.hasIdMember()) {
-            EntityUtils.setEntityId(descriptor, entity, id);
+        if (request.descriptor.hasIdMember()) {
+            EntityUtils.setEntityId(request.descriptor, entity, id);
         }
 
         if (log.isDebugEnabled()) {
-            log.debug(String.format("...Created %s %s", descriptor.getName(), id));
+            log.debug(String.format("...Created %s %s", request.entityType, id));
+        }
+    }
+
+    private static void logCompletion(String outcome, EntityRequest request) {
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("...%s %s %s", outcome, request.entityType, request.id));
         }
     }
 
-    @SuppressWarnings("unchecked")
     @Override
-    public <T> T merge(T entity) {
-        Validate.notNull(entity, "entity must not be null");
+    public <T> List<T> findAll(Class<T> entityClass, Collection<?> primaryKeys) {
+        Validate.notNull(entityClass, "entityClass must not be null");
+        Validate.notNull(primaryKeys, "primaryKeys must not be null");
 
-        EntityDescriptor descriptor = getRequiredEntityDescriptor(entity.getClass());
-        String id = getRequiredId(descriptor, entity);
-        String json = convertToJsonForMerge(entity);
+        EntityDescriptor descriptor = getRequiredEntityDescriptor(entityClass);
 
-        optionallyLogRequest("Merge", descriptor.getName(), id, json);
+        optionallyLogRequest("FindAll", descriptor.getName(), null, String.format("%d ids", primaryKeys.size()));
 
-        connector.doUpdate(descriptor.getName(), id, json, buildHeaders(descriptor, entity));
+        return findAll(descriptor, entityClass, primaryKeys);
+    }
 
-        if (log.isDebugEnabled()) {
-            log.debug(String.format("...Updated %s %s", descriptor.getName(), id));
+    /**
+     * Finds a group of entities by id. The ids are split into chunks that keep the query URL a reasonable length and
+     * the chunks are queried concurrently. The results are returned in the order of the ids. Ids may be given in
+     * either their 15 or 18 character form.
+     */
+    private <T> List<T> findAll(EntityDescriptor descriptor, Class<T> entityClass, Collection<?> primaryKeys) {
+        Map<String, String> idsByCaseInsensitiveId = new LinkedHashMap<String, String>();
+        for (Object primaryKey : primaryKeys) {
+            if (primaryKey != null) {
+                String id = primaryKey.toString();
+                String caseInsensitiveId = EntityUtils.toCaseInsensitiveId(id);
+                if (!idsByCaseInsensitiveId.containsKey(caseInsensitiveId))
+                    idsByCaseInsensitiveId.put(caseInsensitiveId, id);
+            }
         }
+        if (idsByCaseInsensitiveId.isEmpty())
+            return new ArrayList<T>();
 
-        return entity;
-    }
+        // Issue all but the last chunk in the background and the last one on this thread
+        List<List<String>> chunks =
+            Lists.partition(new ArrayList<String>(idsByCaseInsensitiveId.values()), MAX_IDS_PER_FIND_QUERY);
+        List<Future<List<T>>> futures = new ArrayList<Future<List<T>>>();
+        try {
+            if (chunks.size() > 1) {
+                ExecutorService backgroundExecutor = getBackgroundExecutor();
+                for (List<String> chunk : chunks.subList(0, chunks.size() - 1)) {
+                    futures.add(backgroundExecutor.submit(newFindAllTask(descriptor, entityClass, chunk)));
+                }
+            }
+            Map<String, T> entitiesById = new HashMap<String, T>();
+            putById(descriptor, findChunk(descriptor, entityClass, chunks.get(chunks.size() - 1)), entitiesById);
+            for (Future<List<T>> future : futures) {
+                putById(descriptor, future.get(), entitiesById);
+            }
 
-    @Override
-    public void remove(Object entity) {
-        Validate.notNull(entity, "entity must not be null");
+            List<T> entities = new ArrayList<T>(entitiesById.size());
+            for (String id : idsByCaseInsensitiveId.keySet()) {
+                T entity = entitiesById.get(id);
+                if (entity != null)
+                    entities.add(entity);
+            }
+            return entities;
 
-        EntityDescriptor descriptor = getRequiredEntityDescriptor(entity.getClass());
-        String id = getRequiredId(descriptor, entity);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EntityRequestException("Interrupted while waiting for entities", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new EntityResponseException("Failed to find entities", e.getCause());
+        } finally {
+            for (Future<List<T>> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
 
-        optionallyLogRequest("Remove", descriptor.getName(), id, null);
+    private <T> Callable<List<T>> newFindAllTask(
+        final EntityDescriptor descriptor, final Class<T> entityClass, final List<String> ids) {
+
+        return new Callable<List<T>>() {
+            @Override
+            public List<T> call() {
+                return findChunk(descriptor, entityClass, ids);
+            }
+        };
+    }
 
-        connector.doDelete(descriptor.getName(), id, buildHeaders(descriptor, entity));
+    private <T> List<T> findChunk(EntityDescriptor descriptor, Class<T> entityClass, List<String> ids) {
+        return createQuery(descriptor, getFindAllTemplate(descriptor), entityClass)
+            .setParameter("ids", ids)
+            .getResultList();
+    }
 
-        if (log.isDebugEnabled()) {
-            log.debug(String.format("...Deleted %s %s", descriptor.getName(), id));
+    private static <T> void putById(EntityDescriptor descriptor, List<T> entities, Map<String, T> entitiesById) {
+        for (T entity : entities) {
+            entitiesById.put(EntityUtils.toCaseInsensitiveId(EntityUtils.getEntityId(descriptor, entity)), entity);
         }
     }
 
     @Override
-    public <T> T find(Class<T> entityClass, Object primaryKey) {
-        Validate.notNull(entityClass, "entityClass must not be null");
-        Validate.notNull(primaryKey, "primaryKey must not be null");
+    public void loadLazyRelationships(Collection<?> entities) {
+        Validate.notNull(entities, "entities must not be null");
 
-        EntityDescriptor descriptor = getRequiredEntityDescriptor(entityClass);
+        // Group the entities by descriptor since the lazily fetched relationships are a property of the entity class
+        Map<EntityDescriptor, List<Object>> entitiesByDescriptor = new LinkedHashMap<EntityDescriptor, List<Object>>();
+        for (Object entity : entities) {
+            if (entity == null)
+                continue;
 
-        optionallyLogRequest("Find", descriptor.getName(), primaryKey.toString(), null);
+            EntityDescriptor descriptor = getRequiredEntityDescriptor(entity.getClass());
+            List<Object> descriptorEntities = entitiesByDescriptor.get(descriptor);
+            if (descriptorEntities == null) {
+                descriptorEntities = new ArrayList<Object>();
+                entitiesByDescriptor.put(descriptor, descriptorEntities);
+            }
+            descriptorEntities.add(entity);
+        }
 
-        return find(descriptor, entityClass, primaryKey);
+        for (Map.Entry<EntityDescriptor, List<Object>> entry : entitiesByDescriptor.entrySet()) {
+            EntityDescriptor descriptor = entry.getKey();
+            for (BeanPropertyDefinition property : descriptor.getBeanDescription().findProperties()) {
+                String internalName = property.getInternalName();
+                if (descriptor.isLazyRelationship(internalName)) {
+                    EntityDescriptor relatedDescriptor = descriptor.getRelatedEntities().get(internalName);
+                    loadLazyRelationship(property, relatedDescriptor, entry.getValue());
+                }
+            }
+        }
     }
 
-    private <T> T find(EntityDescriptor descriptor, Class<T> entityClass, Object primaryKey) {
-        String soqlTemplate = String.format("SELECT * FROM %s WHERE Id = '%s'", descriptor.getName(), primaryKey);
-        try {
-            return createQuery(descriptor, soqlTemplate, entityClass).setMaxResults(1).getSingleResult();
-        } catch (NoResultException e) {
+    /**
+     * Loads one lazily fetched relationship for a group of entities of the same class. The related entities are
+     * retrieved together (see {@link #findAll(Class, Collection)}) and then replace the id-only instances held by the
+     * owning entities.
+     */
+    private void loadLazyRelationship(
+        BeanPropertyDefinition property, EntityDescriptor relatedDescriptor, List<Object> entities) {
+
+        if (!relatedDescriptor.hasIdMember())
+            return; // There is no way to tell what to load
+
+        // Figure out which related entities are needed and who needs them. Owners are grouped by the 18 character
+        // form of the id since that is what comes back, whichever form the owners hold.
+        List<String> ids = new ArrayList<String>();
+        Map<String, List<Object>> ownersById = new HashMap<String, List<Object>>();
+        for (Object entity : entities) {
+            Object related = EntityUtils.getPropertyValue(property, entity);
+            String id = (related != null) ? EntityUtils.getEntityId(relatedDescriptor, related) : null;
+            if (StringUtils.isEmpty(id))
+                continue;
+
+            String caseInsensitiveId = EntityUtils.toCaseInsensitiveId(id);
+            List<Object> owners = ownersById.get(caseInsensitiveId);
+            if (owners == null) {
+                owners = new ArrayList<Object>();
+                ownersById.put(caseInsensitiveId, owners);
+                ids.add(id);
+            }
+            owners.add(entity);
+        }
+        if (ownersById.isEmpty())
+            return;
+
+        optionallyLogRequest(
+            "LoadLazyRelationship", relatedDescriptor.getName(), null,
+            String.format("%s for %d ids", property.getName(), ownersById.size()));
+
+        Class<?> relatedClass = relatedDescriptor.getBeanDescription().getBeanClass();
+        List<?> relatedEntities = findAll(relatedDescriptor, relatedClass, ids);
+
+        for (Object related : relatedEntities) {
+            String id = EntityUtils.toCaseInsensitiveId(EntityUtils.getEntityId(relatedDescriptor, related));
+            List<Object> owners = ownersById.get(id);
+            if (owners != null) {
+                for (Object owner : owners) {
+                    EntityUtils.setPropertyValue(property, owner, related);
+                }
+            }
+        }
+    }
+
+    private static <T> T readRetrieveResponse(Class<T> entityClass, InputStream responseStream) {
+        if (responseStream == null)
             return null;
+
+        try {
+            return mappingContext.getObjectReader(entityClass).<T>readValue(responseStream);
+        } catch (IOException e) {
+            throw new EntityResponseException("Failed to parse the 'retrieve' result", e);
+        } finally {
+            Closeables.closeQuietly(responseStream);
+        }
+    }
+
+    /**
+     * Gets the list of fields used to retrieve an entity directly. It is the same list of fields a wildcard expands to
+     * and it doesn't change so it is only built once per entity.
+     */
+    private static String getRetrieveFields(EntityDescriptor descriptor) {
+        String fields = retrieveFields.get(descriptor);
+        if (fields == null) {
+            fields = new SoqlBuilder(descriptor).soqlTemplate("*").build();
+            retrieveFields.put(descriptor, fields);
         }
+        return fields;
+    }
+
+    /**
+     * Gets the SOQL template used to find an entity by id. The template is the same for every id (the id is bound as a
+     * parameter) so it is only built once per entity.
+     */
+    private static String getFindTemplate(EntityDescriptor descriptor) {
+        String soqlTemplate = findTemplates.get(descriptor);
+        if (soqlTemplate == null) {
+            soqlTemplate = String.format("SELECT * FROM %s WHERE Id = :id", descriptor.getName());
+            findTemplates.put(descriptor, soqlTemplate);
+        }
+        return soqlTemplate;
+    }
+
+    /**
+     * Gets the SOQL template used to find a group of entities by id. The template is the same for every group of ids
+     * (the ids are bound as a parameter) so it is only built once per entity.
+     */
+    private static String getFindAllTemplate(EntityDescriptor descriptor) {
+        String soqlTemplate = findAllTemplates.get(descriptor);
+        if (soqlTemplate == null) {
+            soqlTemplate = String.format("SELECT * FROM %s WHERE Id IN :ids", descriptor.getName());
+            findAllTemplates.put(descriptor, soqlTemplate);
+        }
+        return soqlTemplate;
     }
 
     @Override
@@ -146,10 +537,155 @@ public final class RestSimpleEntityManager implements SimpleEntityManager {
         return createQuery(descriptor, soqlTemplate, entityClass);
     }
 
-    private <T> SimpleTypedQuery<T> createQuery(final EntityDescriptor descriptor, final String soqlTemplate, final Class<T> entityClass) {
+    private <T> SimpleTypedQuery<T> createQuery(
+        EntityDescriptor descriptor, String soqlTemplate, Class<T> entityClass) {
+
         return new RestSimpleTypedQuery<T>(descriptor, soqlTemplate, entityClass);
     }
 
+    /**
+     * Tells whether the connector is also an {@link AsyncRestConnector}, through which the operations of an
+     * {@link AsyncSimpleEntityManager} can be issued.
+     */
+    boolean hasAsyncConnector() {
+        return asyncConnector != null;
+    }
+
+    /**
+     * Tells whether a query can be issued through the {@link AsyncRestConnector}. Queries in Bulk mode, keyset
+     * paginated queries and single-flight queries take more than issuing the query and reading the results, so they
+     * can't.
+     */
+    boolean canExecuteAsync(SimpleTypedQuery<?> query) {
+        return hasAsyncConnector()
+            && query instanceof RestSimpleTypedQuery
+            && ((RestSimpleTypedQuery<?>) query).canExecuteAsync(this);
+    }
+
+    /**
+     * Persists a new entity through the {@link AsyncRestConnector}. The response is read on the executor once it
+     * arrives.
+     *
+     * @param entity the entity
+     * @return a future which completes once the entity has its id set
+     */
+    ListenableFuture<Void> persistAsync(final Object entity) {
+        final EntityRequest request = newPersistRequest(entity);
+        ListenableFuture<InputStream> response =
+            asyncConnector.doCreateAsync(request.entityType, request.json, request.headers);
+        return Futures.transform(response, new Function<InputStream, Void>() {
+            @Override
+            public Void apply(InputStream responseStream) {
+                readCreateResponse(request, entity, responseStream);
+                return null;
+            }
+        }, executor);
+    }
+
+    /**
+     * Merges an existing entity through the {@link AsyncRestConnector}.
+     *
+     * @param entity the entity
+     * @return a future which completes with the entity once it has been updated
+     */
+    <T> ListenableFuture<T> mergeAsync(final T entity) {
+        final EntityRequest request = newMergeRequest(entity);
+        ListenableFuture<Void> response =
+            asyncConnector.doUpdateAsync(request.entityType, request.id, request.json, request.headers);
+        return Futures.transform(response, new Function<Void, T>() {
+            @Override
+            public T apply(Void ignored) {
+                logCompletion("Updated", request);
+                return entity;
+            }
+        });
+    }
+
+    /**
+     * Removes an existing entity through the {@link AsyncRestConnector}.
+     *
+     * @param entity the entity
+     * @return a future which completes once the entity has been deleted
+     */
+    ListenableFuture<Void> removeAsync(Object entity) {
+        final EntityRequest request = newRemoveRequest(entity);
+        ListenableFuture<Void> response = asyncConnector.doDeleteAsync(request.entityType, request.id, request.headers);
+        return Futures.transform(response, new Function<Void, Void>() {
+            @Override
+            public Void apply(Void ignored) {
+                logCompletion("Deleted", request);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Finds an entity by id through the {@link AsyncRestConnector}. As with {@link #find(Class, Object)}, entities
+     * without relationships are retrieved directly and the rest are queried.
+     *
+     * @param entityClass the class of the entity
+     * @param primaryKey  the id of the entity
+     * @return a future which completes with the entity or with <code>null</code> if it doesn't exist
+     */
+    <T> ListenableFuture<T> findAsync(final Class<T> entityClass, Object primaryKey) {
+        EntityRequest request = newFindRequest(entityClass, primaryKey);
+
+        if (request.descriptor.getRelatedEntities().isEmpty()) {
+            ListenableFuture<InputStream> response =
+                asyncConnector.doRetrieveAsync(
+                    request.entityType, request.id, getRetrieveFields(request.descriptor), request.headers);
+            return Futures.transform(response, new Function<InputStream, T>() {
+                @Override
+                public T apply(InputStream responseStream) {
+                    return readRetrieveResponse(entityClass, responseStream);
+                }
+            }, executor);
+        }
+
+        ListenableFuture<List<T>> results = newFindQuery(request, entityClass).getResultListAsync(entityClass);
+        return Futures.transform(results, new Function<List<T>, T>() {
+            @Override
+            public T apply(List<T> results) {
+                return results.isEmpty() ? null : results.get(0);
+            }
+        });
+    }
+
+    /**
+     * Executes a query through the {@link AsyncRestConnector}. Only valid if
+     * {@link #canExecuteAsync(SimpleTypedQuery)}.
+     *
+     * @param query the query
+     * @return a future which completes with the results
+     */
+    <T> ListenableFuture<List<T>> getResultListAsync(SimpleTypedQuery<T> query) {
+        RestSimpleTypedQuery<T> restQuery = (RestSimpleTypedQuery<T>) query;
+        return restQuery.getResultListAsync(restQuery.entityClass);
+    }
+
+    /**
+     * Executes a query through the {@link AsyncRestConnector}, binding the results to a specific class. Only valid if
+     * {@link #canExecuteAsync(SimpleTypedQuery)}.
+     *
+     * @param query       the query
+     * @param resultClass the class of the results
+     * @return a future which completes with the results
+     */
+    <R> ListenableFuture<List<R>> getResultListAsync(SimpleTypedQuery<?> query, Class<R> resultClass) {
+        return ((RestSimpleTypedQuery<?>) query).getResultListAsync(resultClass);
+    }
+
+    /**
+     * Counts the results of a query through the {@link AsyncRestConnector}. Only valid if
+     * {@link #canExecuteAsync(SimpleTypedQuery)}.
+     *
+     * @param query the query
+     * @return a future which completes with the number of results
+     */
+    ListenableFuture<Long> getResultCountAsync(SimpleTypedQuery<?> query) {
+        return ((RestSimpleTypedQuery<?>) query).getResultCountAsync();
+    }
+
     private EntityDescriptor getRequiredEntityDescriptor(Class<?> clazz) {
         EntityDescriptor descriptor = mappingContext.getEntityDescriptor(clazz);
         if (descriptor == null) {
@@ -159,6 +695,14 @@ public final class RestSimpleEntityManager implements SimpleEntityManager {
         return descriptor;
     }
 
+    private EntityDescriptor getRequiredNewEntityDescriptor(Object entity) {
+        EntityDescriptor descriptor = getRequiredEntityDescriptor(entity.getClass());
+        if (descriptor.hasIdMember() && StringUtils.isNotEmpty(EntityUtils.getEntityId(descriptor, entity))) {
+            throw new EntityRequestException("Id value should not exist for new object creation");
+        }
+        return descriptor;
+    }
+
     private static String getRequiredId(EntityDescriptor descriptor, Object entity) {
         if (descriptor.hasIdMember()) {
             String id = EntityUtils.getEntityId(descriptor.getIdProperty(), entity);
@@ -171,6 +715,34 @@ public final class RestSimpleEntityManager implements SimpleEntityManager {
         }
     }
 
+    /**
+     * Gets the mapping context shared by all instances, for collaborators in this package which need to bind query
+     * results themselves.
+     */
+    static EntityMappingContext getMappingContext() {
+        return mappingContext;
+    }
+
+    /**
+     * Gets the authorization connector the connectors use, if it is known.
+     *
+     * @return the authorization connector or <code>null</code>
+     */
+    AuthorizationConnector getAuthorizationConnector() {
+        return authorizationConnector;
+    }
+
+    /**
+     * Gets the executor for background work which is part of an operation started on the calling thread. If the
+     * authorization connector is known, the authorization is captured now and the background tasks run with it.
+     */
+    private ExecutorService getBackgroundExecutor() {
+        if (authorizationConnector == null)
+            return executor;
+
+        return AuthorizationContext.capture(authorizationConnector).wrap(executor);
+    }
+
     private ObjectMapper getObjectMapper() {
         return mappingContext.getObjectMapper();
     }
@@ -261,6 +833,7 @@ public final class RestSimpleEntityManager implements SimpleEntityManager {
         private EntityDescriptor descriptor;
         private Class<T> entityClass;
         private String soqlTemplate;
+        private KeysetPositions keysetPositions;
 
         private RestSimpleTypedQuery(EntityDescriptor descriptor, String soqlTemplate, Class<T> entityClass) {
             this.descriptor = descriptor;
@@ -274,52 +847,523 @@ public final class RestSimpleEntityManager implements SimpleEntityManager {
         }
 
         @Override
-        public <R> List<R> getResultList(Class<R> resultClass) {
+        @SuppressWarnings("unchecked")
+        public <R> List<R> getResultList(final Class<R> resultClass) {
+            if (!isSharedExecution())
+                return readAll(iterate(resultClass));
+
+            final String soql = newSoqlBuilder(resultClass)
+                .offset(getFirstResult())
+                .limit(getMaxResults())
+                .build();
+            SingleFlightKey key =
+                new SingleFlightKey(soql, isIncludeDeleted(), buildQueryHeaders(), getIdentity(), resultClass);
+            return (List<R>) singleFlight.execute(key, new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return Collections.unmodifiableList(readAll(execute(soql, resultClass)));
+                }
+            });
+        }
+
+        private <R> List<R> readAll(CloseableIterator<R> iterator) {
             List<R> results = new ArrayList<R>();
             try {
-                String soql = new SoqlBuilder(descriptor)
-                    .soqlTemplate(soqlTemplate)
-                    .offset(getFirstResult())
-                    .limit(getMaxResults())
-                    .build();
+                while (iterator.hasNext()) {
+                    results.add(iterator.next());
+                }
+            } finally {
+                iterator.close();
+            }
+            return results;
+        }
 
-                if (log.isDebugEnabled())
-                    log.debug(String.format("...Query: %s", soql));
+        @Override
+        public CloseableIterator<T> iterate() {
+            return iterate(entityClass);
+        }
 
-                // Issue the query and parse the first batch of results.
-                InputStream responseStream = connector.doQuery(soql, buildHeaders(descriptor, null));
-                JsonNode rootNode = getObjectMapper().readTree(responseStream);
-                for (JsonNode node : rootNode.get("records")) {
-                    if (log.isDebugEnabled()) {
-                        log.debug(String.format("...Result Row: %s", node.toString()));
-                    }
-                    if (resultClass.equals(JsonNode.class)) {
-                        results.add((resultClass.cast(node)));
-                    } else {
-                        results.add(getObjectMapper().readValue(node, resultClass));
+        @Override
+        public <R> CloseableIterator<R> iterate(Class<R> resultClass) {
+            return iterate(resultClass, getMaxResults());
+        }
+
+        @Override
+        protected CloseableIterator<T> iterateAtMost(int maxResults) {
+            return iterate(entityClass, maxResults);
+        }
+
+        private <R> CloseableIterator<R> iterate(Class<R> resultClass, int maxResults) {
+            if (isBulkMode())
+                return iterateInBulk(resultClass, maxResults);
+            if (getKeysetField() != null)
+                return iterateByKeyset(resultClass, maxResults);
+
+            String soql = newSoqlBuilder(resultClass)
+                .offset(getFirstResult())
+                .limit(maxResults)
+                .build();
+            return execute(soql, resultClass);
+        }
+
+        /**
+         * Iterates over a page of results using keyset pagination. The page is requested by the key which precedes
+         * the first position. If that key isn't known yet, the keys of the rows in between are queried to find it.
+         */
+        private <R> CloseableIterator<R> iterateByKeyset(Class<R> resultClass, int maxResults) {
+            String keyField = getKeysetField();
+            if (keysetPositions == null || !keysetPositions.getKeyField().equals(keyField))
+                keysetPositions = new KeysetPositions(keyField, descriptor);
+            if (!JsonNode.class.isAssignableFrom(resultClass))
+                KeysetPositions.checkKeyField(keyField, getResultDescriptor(resultClass));
+
+            Map.Entry<Integer, Object> known = keysetPositions.floor(getFirstResult());
+            int position = known.getKey();
+            Object lastKey = known.getValue();
+            if (position < getFirstResult()) {
+                String soql = newSoqlBuilder(JsonNode.class)
+                    .selectList(keyField)
+                    .keyset(keyField, lastKey)
+                    .offset(position)
+                    .limit(getFirstResult() - position)
+                    .build();
+                CloseableIterator<JsonNode> keys =
+                    keysetPositions.recording(execute(soql, JsonNode.class), position, descriptor);
+                try {
+                    while (keys.hasNext()) {
+                        lastKey = keysetPositions.getKey(keys.next(), descriptor);
                     }
+                } finally {
+                    keys.close();
                 }
+            }
 
-                // Request additional results if they exist
-                while (rootNode.get("nextRecordsUrl") != null) {
-                    URI nextRecordsUrl = URI.create(rootNode.get("nextRecordsUrl").getTextValue());
-                    responseStream = connector.doGet(nextRecordsUrl, buildHeaders(descriptor, null));
-                    rootNode = getObjectMapper().readTree(responseStream);
-                    for (JsonNode node : rootNode.get("records")) {
-                        if (log.isDebugEnabled()) {
-                            log.debug(String.format("...Result Row: %s", node.toString()));
-                        }
-                        if (resultClass.equals(JsonNode.class)) {
-                            results.add((resultClass.cast(node)));
-                        } else {
-                            results.add(getObjectMapper().readValue(node, resultClass));
-                        }
-                    }
+            String soql = newSoqlBuilder(resultClass)
+                .keyset(keyField, lastKey)
+                .offset(getFirstResult())
+                .limit(maxResults)
+                .build();
+            return keysetPositions.recording(
+                execute(soql, resultClass), getFirstResult(), getResultDescriptor(resultClass));
+        }
+
+        /**
+         * Runs the query as a Bulk query job. The job is created and then polled until Salesforce has finished
+         * processing it. The results are streamed from the job as the iterator advances.
+         */
+        private <R> CloseableIterator<R> iterateInBulk(Class<R> resultClass, int maxResults) {
+            if (bulkConnector == null)
+                throw new IllegalStateException("Bulk queries need an entity manager with a BulkConnector");
+            Validate.isTrue(getFirstResult() == 0, "Bulk queries don't support setFirstResult");
+            Validate.isTrue(getKeysetField() == null, "Bulk queries don't support keyset pagination");
+
+            String soql = newSoqlBuilder(resultClass)
+                .limit(maxResults)
+                .build();
+
+            if (log.isDebugEnabled())
+                log.debug(String.format("...Bulk Query: %s", soql));
+
+            Map<String, String> headers = buildHeaders(descriptor, null);
+            ObjectNode jobRequest = getObjectMapper().createObjectNode();
+            jobRequest.put("operation", isIncludeDeleted() ? "queryAll" : "query");
+            jobRequest.put("query", soql);
+            JsonNode job = parseJsonResponse(bulkConnector.doCreateQueryJob(jobRequest.toString(), headers));
+            String jobId = job.path("id").getTextValue();
+            if (jobId == null)
+                throw new EntityResponseException("Bulk query job response is missing expected fields");
+
+            waitForBulkQueryJob(jobId, job, headers);
+            return new BulkQueryResultIterator<R>(bulkConnector, jobId, headers, mappingContext, resultClass);
+        }
+
+        private void waitForBulkQueryJob(String jobId, JsonNode job, Map<String, String> headers) {
+            long pollInterval = INITIAL_BULK_POLL_INTERVAL_MILLIS;
+            while (true) {
+                String state = job.path("state").getTextValue();
+                if ("JobComplete".equals(state))
+                    return;
+                if ("Failed".equals(state) || "Aborted".equals(state))
+                    throw new EntityRequestException(
+                        String.format("Bulk query job %s %s: %s",
+                            jobId, state.toLowerCase(), job.path("errorMessage").getTextValue()));
+
+                try {
+                    Thread.sleep(pollInterval);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new EntityRequestException(
+                        String.format("Interrupted while waiting for Bulk query job %s", jobId), e);
                 }
-            } catch (IOException e) {
-                throw new EntityResponseException("Failed to parse the 'query' result", e);
+                pollInterval = Math.min(pollInterval * 2, MAX_BULK_POLL_INTERVAL_MILLIS);
+                job = parseJsonResponse(bulkConnector.doGetQueryJob(jobId, headers));
             }
-            return results;
+        }
+
+        private SoqlBuilder newSoqlBuilder(Class<?> resultClass) {
+            return new SoqlBuilder(descriptor)
+                .soqlTemplate(soqlTemplate)
+                .resultDescriptor(getResultDescriptor(resultClass))
+                .depth(getFetchDepth())
+                .parameters(getParameters());
+        }
+
+        private <R> CloseableIterator<R> execute(String soql, Class<R> resultClass) {
+            return newExecution(soql, resultClass, getFetchParallelism()).start();
+        }
+
+        private <R> QueryExecution<R> newExecution(String soql, Class<R> resultClass, int fetchParallelism) {
+            return new QueryExecution<R>(
+                soql, resultClass, buildQueryHeaders(), isIncludeDeleted(), getPrefetchDepth(), fetchParallelism);
+        }
+
+        @Override
+        public ResultPublisher<T> getResultPublisher() {
+            return getResultPublisher(entityClass);
+        }
+
+        /**
+         * Prepares the execution here, on the thread which owns the query, so that the subscriptions never touch the
+         * query. Pages are fetched one after the other (as prefetching allows) rather than in parallel, so that the
+         * retrieval doesn't run further ahead of the demand than the prefetch depth.
+         */
+        @Override
+        public <R> ResultPublisher<R> getResultPublisher(Class<R> resultClass) {
+            Validate.isTrue(!isBulkMode(), "Result publishers are not supported for Bulk queries");
+            Validate.isTrue(getKeysetField() == null, "Result publishers don't support keyset pagination");
+
+            String soql = newSoqlBuilder(resultClass)
+                .offset(getFirstResult())
+                .limit(getMaxResults())
+                .build();
+            final QueryExecution<R> execution = newExecution(soql, resultClass, 0);
+            return new QueryResultPublisher<R>(new Callable<CloseableIterator<R>>() {
+                @Override
+                public CloseableIterator<R> call() {
+                    return execution.start();
+                }
+            }, executor, authorizationConnector);
+        }
+
+        @Override
+        public long getResultCount() {
+            final String soql = buildCountSoql();
+            if (!isSharedExecution())
+                return count(soql);
+
+            SingleFlightKey key = new SingleFlightKey(
+                soql, isIncludeDeleted(), buildHeaders(descriptor, null), getIdentity(), Long.class);
+            return (Long) singleFlight.execute(key, new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return count(soql);
+                }
+            });
+        }
+
+        private String buildCountSoql() {
+            return new SoqlBuilder(descriptor)
+                .soqlTemplate(soqlTemplate)
+                .parameters(getParameters())
+                .buildCount();
+        }
+
+        private long count(String soql) {
+            if (log.isDebugEnabled())
+                log.debug(String.format("...Query: %s", soql));
+
+            Map<String, String> headers = buildHeaders(descriptor, null);
+            return readCount(doQuery(soql, headers), headers);
+        }
+
+        /**
+         * Reads the response to a count query. Just the total size is of interest. There aren't any records to read.
+         */
+        private long readCount(InputStream responseStream, Map<String, String> headers) {
+            QueryResultIterator<JsonNode> iterator =
+                new QueryResultIterator<JsonNode>(
+                    new DirectQueryPageFetcher(connector, headers), mappingContext, JsonNode.class, null,
+                    responseStream);
+            try {
+                iterator.hasNext(); // Finishes off the page in case the total size comes after the (empty) records
+                if (iterator.getTotalSize() < 0)
+                    throw new EntityResponseException("JSON response is missing expected fields");
+                return iterator.getTotalSize();
+            } finally {
+                iterator.close();
+            }
+        }
+
+        /**
+         * Issues the query through the {@link AsyncRestConnector}. Once the response arrives, the results are read on
+         * the executor exactly as {@link #getResultList(Class)} reads them, so subsequent pages and the rest of any
+         * truncated subquery results are retrieved the same way.
+         */
+        private <R> ListenableFuture<List<R>> getResultListAsync(Class<R> resultClass) {
+            String soql = newSoqlBuilder(resultClass)
+                .offset(getFirstResult())
+                .limit(getMaxResults())
+                .build();
+            final QueryExecution<R> execution = newExecution(soql, resultClass, getFetchParallelism());
+            return Futures.transform(execution.startAsync(), new Function<InputStream, List<R>>() {
+                @Override
+                public List<R> apply(InputStream responseStream) {
+                    return readAll(execution.read(responseStream));
+                }
+            }, getBackgroundExecutor());
+        }
+
+        private ListenableFuture<Long> getResultCountAsync() {
+            String soql = buildCountSoql();
+            if (log.isDebugEnabled())
+                log.debug(String.format("...Query: %s", soql));
+
+            final Map<String, String> headers = buildHeaders(descriptor, null);
+            ListenableFuture<InputStream> response = doQueryAsync(soql, headers);
+            return Futures.transform(response, new Function<InputStream, Long>() {
+                @Override
+                public Long apply(InputStream responseStream) {
+                    return readCount(responseStream, headers);
+                }
+            }, executor);
+        }
+
+        @Override
+        public ResultColumns getResultColumns() {
+            return decodeResultColumns(false);
+        }
+
+        @Override
+        public ResultColumns getAggregateResultColumns() {
+            return decodeResultColumns(true);
+        }
+
+        private ResultColumns decodeResultColumns(boolean aggregate) {
+            Validate.isTrue(!isBulkMode(), "Columnar results are not supported for Bulk queries");
+
+            String soql = newSoqlBuilder(entityClass)
+                .offset(getFirstResult())
+                .limit(getMaxResults())
+                .build();
+            if (log.isDebugEnabled())
+                log.debug(String.format("...Query: %s", soql));
+
+            // The records are decoded straight into the columns as each page is parsed
+            QueryExecution<JsonNode> execution = newExecution(soql, JsonNode.class, getFetchParallelism());
+            InputStream responseStream = doQuery(soql, execution.headers);
+            QueryResultIterator<JsonNode> iterator =
+                new QueryResultIterator<JsonNode>(
+                    execution.createPageFetcher(), mappingContext, JsonNode.class, null, responseStream);
+            try {
+                ColumnarDecoder decoder = new ColumnarDecoder(descriptor, aggregate);
+                while (iterator.decodeNext(decoder));
+                return decoder.build();
+            } finally {
+                iterator.close();
+            }
+        }
+
+        /**
+         * Gets the descriptor of the class the results will be bound to so that wildcards only select the fields the
+         * result class can actually hold. Raw JSON results (and anything else which isn't a bean) get all the fields
+         * of the queried entity.
+         */
+        private EntityDescriptor getResultDescriptor(Class<?> resultClass) {
+            if (resultClass.equals(entityClass) || JsonNode.class.isAssignableFrom(resultClass))
+                return descriptor;
+
+            EntityDescriptor resultDescriptor = mappingContext.getEntityDescriptor(resultClass);
+            return resultDescriptor != null ? resultDescriptor : descriptor;
+        }
+
+        private boolean isSharedExecution() {
+            return isSingleFlight() && !isBulkMode() && getKeysetField() == null;
+        }
+
+        /**
+         * Gets a string which identifies the user and org that requests are made for, so that single-flight queries
+         * are only shared between callers who would have seen the same results anyway.
+         */
+        private String getIdentity() {
+            if (authorizationConnector == null)
+                throw new IllegalStateException(
+                    "Single-flight queries need an entity manager with an AuthorizationConnector");
+
+            return AuthorizationContext.getInstanceUrl(authorizationConnector)
+                + " " + AuthorizationContext.getAuthorization(authorizationConnector);
+        }
+
+        /**
+         * Builds the headers for a query which returns records. These are the usual entity headers plus the page size,
+         * if one was asked for. The same headers go with the requests for subsequent pages so that they are the same
+         * size.
+         */
+        private Map<String, String> buildQueryHeaders() {
+            Map<String, String> headers = buildHeaders(descriptor, null);
+            if (getFetchSize() > 0) {
+                headers = (headers == null) ? new HashMap<String, String>() : new HashMap<String, String>(headers);
+                headers.put(QUERY_OPTIONS_HEADER_NAME, "batchSize=" + getFetchSize());
+            }
+            return headers;
+        }
+
+        private boolean canExecuteAsync(RestSimpleEntityManager entityManager) {
+            return entityManager == RestSimpleEntityManager.this
+                && !isBulkMode() && getKeysetField() == null && !isSingleFlight();
+        }
+
+        private ListenableFuture<InputStream> doQueryAsync(String soql, Map<String, String> headers) {
+            return isIncludeDeleted()
+                ? asyncConnector.doQueryAllAsync(soql, headers)
+                : asyncConnector.doQueryAsync(soql, headers);
+        }
+
+        private InputStream doQuery(String soql, Map<String, String> headers) {
+            return isIncludeDeleted() ? connector.doQueryAll(soql, headers) : connector.doQuery(soql, headers);
+        }
+    }
+
+    /**
+     * An execution of a query which returns records. Everything it needs is taken from the query when it is created,
+     * so that it can be started on another thread without touching the query, which isn't thread-safe.
+     *
+     * @param <R> type of the results
+     */
+    private final class QueryExecution<R> {
+        private final String soql;
+        private final Class<R> resultClass;
+        private final Map<String, String> headers;
+        private final boolean includeDeleted;
+        private final int prefetchDepth;
+        private final int fetchParallelism;
+
+        private QueryExecution(
+            String soql, Class<R> resultClass, Map<String, String> headers, boolean includeDeleted, int prefetchDepth,
+            int fetchParallelism) {
+
+            this.soql = soql;
+            this.resultClass = resultClass;
+            this.headers = headers;
+            this.includeDeleted = includeDeleted;
+            this.prefetchDepth = prefetchDepth;
+            this.fetchParallelism = fetchParallelism;
+        }
+
+        /**
+         * Issues the query. The records are parsed (and additional results requested) as the iterator advances.
+         */
+        private QueryResultIterator<R> start() {
+            if (log.isDebugEnabled())
+                log.debug(String.format("...Query: %s", soql));
+
+            return read(includeDeleted ? connector.doQueryAll(soql, headers) : connector.doQuery(soql, headers));
+        }
+
+        /**
+         * Issues the query through the {@link AsyncRestConnector}. The response is then read with
+         * {@link #read(InputStream)}, just as {@link #start()} reads it.
+         */
+        private ListenableFuture<InputStream> startAsync() {
+            if (log.isDebugEnabled())
+                log.debug(String.format("...Query: %s", soql));
+
+            return includeDeleted
+                ? asyncConnector.doQueryAllAsync(soql, headers)
+                : asyncConnector.doQueryAsync(soql, headers);
+        }
+
+        /**
+         * Creates the iterator over the results, which starts with the response to the query itself.
+         */
+        private QueryResultIterator<R> read(InputStream responseStream) {
+            return new QueryResultIterator<R>(
+                createPageFetcher(), mappingContext, resultClass, createSubqueryContinuation(), responseStream);
+        }
+
+        private QueryPageFetcher createPageFetcher() {
+            if (fetchParallelism > 1) {
+                return new ParallelQueryPageFetcher(connector, headers, getBackgroundExecutor(), fetchParallelism);
+            } else if (prefetchDepth > 0) {
+                return new PrefetchingQueryPageFetcher(
+                    connector, headers, getObjectMapper().getJsonFactory(), getBackgroundExecutor(), prefetchDepth);
+            } else {
+                return new DirectQueryPageFetcher(connector, headers);
+            }
+        }
+
+        /**
+         * Creates the continuation which retrieves the rest of any subquery result that Salesforce truncated. The
+         * pages are retrieved on the calling thread unless the query has been given a fetch parallelism.
+         */
+        private SubqueryContinuation createSubqueryContinuation() {
+            ExecutorService subqueryExecutor = (fetchParallelism > 1) ? getBackgroundExecutor() : null;
+            return new SubqueryContinuation(
+                connector, headers, subqueryExecutor, getObjectMapper().getJsonFactory(), fetchParallelism);
+        }
+    }
+
+    /**
+     * A request concerning a single entity. It is checked and built the same way whether it is sent through the
+     * {@link RestConnector} or the {@link AsyncRestConnector}.
+     */
+    private static final class EntityRequest {
+        private final EntityDescriptor descriptor;
+        private final String entityType;
+        private final String id; // null when creating
+        private final String json; // null unless the request has a body
+        private final Map<String, String> headers;
+
+        private EntityRequest(EntityDescriptor descriptor, String id, String json, Map<String, String> headers) {
+            this.descriptor = descriptor;
+            this.entityType = descriptor.getName();
+            this.id = id;
+            this.json = json;
+            this.headers = headers;
+        }
+    }
+
+    /**
+     * Identifies an execution of a single-flight query. Queries that would send the same request for the same user and
+     * bind the results the same way have equal keys.
+     */
+    private static final class SingleFlightKey {
+        private final String soql;
+        private final boolean includeDeleted;
+        private final Map<String, String> headers;
+        private final String identity;
+        private final Class<?> resultClass;
+
+        private SingleFlightKey(
+            String soql, boolean includeDeleted, Map<String, String> headers, String identity, Class<?> resultClass) {
+
+            this.soql = soql;
+            this.includeDeleted = includeDeleted;
+            this.headers = headers;
+            this.identity = identity;
+            this.resultClass = resultClass;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            SingleFlightKey that = (SingleFlightKey) o;
+            return soql.equals(that.soql)
+                && includeDeleted == that.includeDeleted
+                && (headers == null ? that.headers == null : headers.equals(that.headers))
+                && identity.equals(that.identity)
+                && resultClass.equals(that.resultClass);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = soql.hashCode();
+            result = 31 * result + (includeDeleted ? 1 : 0);
+            result = 31 * result + (headers != null ? headers.hashCode() : 0);
+            result = 31 * result + identity.hashCode();
+            result = 31 * result + resultClass.hashCode();
+            return result;
         }
     }
 }
@@ -0,0 +1,146 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Query results decoded column by column rather than row by row (see {@link SimpleTypedQuery#getResultColumns()}).
+ * <p/>
+ * Each column is held in a single array. Integral, floating point and boolean columns use primitive arrays so that no
+ * object is created per value. Everything else (strings, dates, picklists...) is dictionary encoded: each row holds a
+ * code which is an index into a list of the distinct values of the column. This makes scanning a large result for a
+ * few aggregates cheap in both time and garbage.
+ * <p/>
+ * The arrays returned by the accessors are the ones held by this object, not copies, and must not be modified. Rows
+ * which have no value for a column hold 0, <code>false</code> or code -1 as appropriate; use
+ * {@link #isNull(String, int)} to tell a missing value from a real one.
+ */
+public final class ResultColumns {
+    private final int rowCount;
+    private final Map<String, Column> columns;
+
+    ResultColumns(int rowCount, Map<String, Column> columns) {
+        this.rowCount = rowCount;
+        this.columns = columns;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Gets the names of the columns, which are the Salesforce field names.
+     *
+     * @return the column names in select list order
+     */
+    public List<String> getColumnNames() {
+        return Collections.unmodifiableList(new ArrayList<String>(columns.keySet()));
+    }
+
+    /**
+     * Gets the type of the values of a column.
+     *
+     * @param name the name of the column
+     * @return <code>int.class</code>, <code>long.class</code>, <code>double.class</code>, <code>boolean.class</code>
+     *         or <code>String.class</code> for a dictionary encoded column
+     */
+    public Class<?> getColumnType(String name) {
+        return getColumn(name).type;
+    }
+
+    public int[] getIntColumn(String name) {
+        return (int[]) getColumn(name, int.class).values;
+    }
+
+    public long[] getLongColumn(String name) {
+        return (long[]) getColumn(name, long.class).values;
+    }
+
+    public double[] getDoubleColumn(String name) {
+        return (double[]) getColumn(name, double.class).values;
+    }
+
+    public boolean[] getBooleanColumn(String name) {
+        return (boolean[]) getColumn(name, boolean.class).values;
+    }
+
+    /**
+     * Gets the dictionary codes of a string column.
+     *
+     * @param name the name of the column
+     * @return for each row, the index of its value in the dictionary (see {@link #getStringDictionary(String)}) or -1
+     *         if it has no value
+     */
+    public int[] getStringCodes(String name) {
+        return (int[]) getColumn(name, String.class).values;
+    }
+
+    /**
+     * Gets the distinct values of a string column.
+     *
+     * @param name the name of the column
+     * @return the distinct values in order of first appearance
+     */
+    public List<String> getStringDictionary(String name) {
+        return Collections.unmodifiableList(getColumn(name, String.class).dictionary);
+    }
+
+    /**
+     * Gets the value of a string column for one row. This is a convenience for occasional access. Scans should use
+     * the codes instead.
+     *
+     * @param name the name of the column
+     * @param row  the row
+     * @return the value or <code>null</code> if the row has no value
+     */
+    public String getString(String name, int row) {
+        Column column = getColumn(name, String.class);
+        int code = ((int[]) column.values)[row];
+        return code < 0 ? null : column.dictionary.get(code);
+    }
+
+    public boolean isNull(String name, int row) {
+        return !getColumn(name).present.get(row);
+    }
+
+    private Column getColumn(String name) {
+        Column column = columns.get(name);
+        if (column == null)
+            throw new IllegalArgumentException(String.format("There is no column named %s", name));
+        return column;
+    }
+
+    private Column getColumn(String name, Class<?> type) {
+        Column column = getColumn(name);
+        if (!column.type.equals(type))
+            throw new IllegalArgumentException(
+                String.format("Column %s holds %s values, not %s", name, column.type.getSimpleName(),
+                    type.getSimpleName()));
+        return column;
+    }
+
+    /**
+     * The decoded values of one column.
+     */
+    static final class Column {
+        private final Class<?> type;
+        private final Object values; // A primitive array with one element per row
+        private final BitSet present;
+        private final List<String> dictionary; // Only for String columns
+
+        Column(Class<?> type, Object values, BitSet present, List<String> dictionary) {
+            this.type = type;
+            this.values = values;
+            this.present = present;
+            this.dictionary = dictionary;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+/**
+ * A source of query results which only produces them as fast as its subscribers ask for them. The methods of this
+ * interface and of {@link ResultSubscriber} and {@link ResultSubscription} follow the Reactive Streams contracts, so an
+ * adapter to <code>org.reactivestreams.Publisher</code> just needs to forward each call.
+ *
+ * @param <T> type of object produced
+ * @see SimpleTypedQuery#getResultPublisher()
+ */
+public interface ResultPublisher<T> {
+    /**
+     * Starts delivering results to a subscriber. {@link ResultSubscriber#onSubscribe(ResultSubscription)} is called
+     * first and nothing further is delivered until the subscriber requests it through the subscription. Each
+     * subscription executes the query afresh.
+     *
+     * @param subscriber the subscriber
+     */
+    void subscribe(ResultSubscriber<? super T> subscriber);
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+/**
+ * Receives the results produced by a {@link ResultPublisher}. The calls for a subscription are made one at a time,
+ * never concurrently.
+ *
+ * @param <T> type of object received
+ */
+public interface ResultSubscriber<T> {
+    /**
+     * Called once when the subscription starts. Results are only delivered after they have been requested through
+     * {@link ResultSubscription#request(long)}.
+     *
+     * @param subscription the subscription, for requesting results or cancelling
+     */
+    void onSubscribe(ResultSubscription subscription);
+
+    /**
+     * Receives the next result. Never called more times than have been requested.
+     *
+     * @param result the result
+     */
+    void onNext(T result);
+
+    /**
+     * Called when the results can not be produced. Nothing further is delivered.
+     *
+     * @param cause the failure
+     */
+    void onError(Throwable cause);
+
+    /**
+     * Called when all the results have been delivered. Nothing further is delivered.
+     */
+    void onComplete();
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+/**
+ * The link between a {@link ResultPublisher} and one of its {@link ResultSubscriber}s, through which the subscriber
+ * says how many more results it is ready for. Both methods may be called from any thread and return without waiting
+ * for results to be produced.
+ */
+public interface ResultSubscription {
+    /**
+     * Asks for more results. Demand adds up, so requesting 10 twice allows 20 results to be delivered. Requesting
+     * {@link Long#MAX_VALUE} removes the limit.
+     *
+     * @param n the number of additional results wanted. Must be positive.
+     */
+    void request(long n);
+
+    /**
+     * Stops the delivery of results and releases what is held for producing them. Results already on their way may
+     * still be delivered.
+     */
+    void cancel();
+}
@@ -5,6 +5,9 @@
  */
 package com.force.simplejpa;
 
+import java.util.Collection;
+import java.util.List;
+
 /**
  * A simple JPA-like entity manager for interacting with Salesforce object persistence.
  */
@@ -45,6 +48,34 @@ public interface SimpleEntityManager {
      */
     <T> T find(Class<T> entityClass, Object primaryKey);
 
+    /**
+     * Find a group of persisted entities by primary key. This is much cheaper than calling {@link #find} for each
+     * primary key because the entities are retrieved with a few queries (which run concurrently) rather than one query
+     * per entity.
+     *
+     * @param entityClass the class of the entities
+     * @param primaryKeys the primary keys (Salesforce IDs)
+     * @param <T>         a class annotated with JPA persistence annotations
+     *
+     * @return the entities in the order of the primary keys. Entities which don't exist are omitted, as are duplicates.
+     */
+    <T> List<T> findAll(Class<T> entityClass, Collection<?> primaryKeys);
+
+    /**
+     * Loads the lazily fetched related entities of a collection of entities. Lazily fetched relationships are
+     * {@link javax.persistence.ManyToOne} or {@link javax.persistence.OneToOne} relationships with a fetch type of
+     * {@link javax.persistence.FetchType#LAZY}. Queries only retrieve the id of such a related entity, so what the
+     * owning entity holds after a query is an instance with nothing but the id set. This method replaces those
+     * instances with fully loaded ones.
+     * <p/>
+     * The related entities for all of the given entities are loaded together (as with {@link #findAll}) for each
+     * relationship, so it is best to pass all of the results of a query (or a whole batch of them) at once rather
+     * than one at a time.
+     *
+     * @param entities the entities whose lazily fetched relationships should be loaded
+     */
+    void loadLazyRelationships(Collection<?> entities);
+
     /**
      * Creates an instance of {@link SimpleTypedQuery} for executing a query based on SOQL.
      *
@@ -22,6 +22,9 @@ public interface SimpleTypedQuery<T> {
 
     /**
      * Execute a SOQL query and return the list of objects satisfying the query.
+     * <p/>
+     * Unqualified wildcards in the query are replaced with the fields of the result class rather than those of the
+     * entity class, so a projection class with just a few fields only retrieves those fields.
      *
      * @param resultClass the class of the returned object
      * @param <R>         the class of the returned object
@@ -37,6 +40,131 @@ public interface SimpleTypedQuery<T> {
      */
     T getSingleResult();
 
+    /**
+     * Execute a SOQL query which counts the objects satisfying the query without retrieving them. The select list of
+     * the query is replaced with <code>COUNT()</code> so only the total is returned by Salesforce. The first result and
+     * maximum results settings of this query are ignored.
+     *
+     * @return the number of objects satisfying the query
+     */
+    long getResultCount();
+
+    /**
+     * Execute a SOQL query and return the results decoded into columns rather than objects. There is one array per
+     * field instead of one object per row, with primitive arrays for numeric and boolean properties of the entity and
+     * dictionary encoding for everything else. This is far cheaper than {@link #getResultList()} for scanning a large
+     * result for a few aggregates.
+     * <p/>
+     * The columns are the scalar properties of the entity. Related entities are not decoded.
+     *
+     * @return the columns of the results
+     */
+    ResultColumns getResultColumns();
+
+    /**
+     * Execute an aggregate (GROUP BY) SOQL query and return the results decoded into columns. The columns are the
+     * fields of the aggregate result rows, named by alias or by the "expr0", "expr1"... names that Salesforce assigns
+     * to unaliased aggregate functions. Grouped fields which are properties of the entity get the type of the
+     * property. The types of the other columns are taken from the values: COUNT() gives a long column and SUM() or
+     * AVG() a double column, for example.
+     * <p/>
+     * Like {@link #getResultColumns()}, no object is created per row. To bind each row to a class instead, use
+     * {@link #getResultList(Class)} with a class whose properties are named after the aliases.
+     *
+     * @return the columns of the aggregate results
+     */
+    ResultColumns getAggregateResultColumns();
+
+    /**
+     * Execute a SOQL query and return a list of the objects satisfying the query which only retrieves further pages of
+     * results when they are needed. This suits callers who may stop after the first few matches but can't express that
+     * as a LIMIT, for example because they filter the results themselves. Calling <code>size()</code> reads every page
+     * (see {@link PagedResultList#getTotalSizeHint()} for a count which doesn't). The list should be closed if it is
+     * not read to the end.
+     *
+     * @return a lazily paged list of the objects satisfying the query
+     */
+    PagedResultList<T> getPagedResultList();
+
+    /**
+     * Execute a SOQL query and return a list of the objects satisfying the query which only retrieves further pages of
+     * results when they are needed. The list should be closed if it is not read to the end.
+     *
+     * @param resultClass the class of the returned object
+     * @param <R>         the class of the returned object
+     * @return a lazily paged list of the objects satisfying the query
+     */
+    <R> PagedResultList<R> getPagedResultList(Class<R> resultClass);
+
+    /**
+     * Execute a SOQL query and publish the objects satisfying the query to subscribers at the rate they ask for them.
+     * Further pages of results are only requested from Salesforce as the demand of a subscriber reaches them, so a slow
+     * subscriber slows the retrieval rather than letting results pile up in memory. Prefetching (see
+     * {@link #setPrefetchDepth(int)}) still applies, so the retrieval runs at most that many pages ahead of the demand.
+     * Parallel fetching (see {@link #setFetchParallelism(int)}) doesn't apply to publishers.
+     * <p/>
+     * The SOQL is built when the publisher is created and the query isn't touched after that. It is executed separately
+     * for each subscriber, when it first requests results. Bulk mode and keyset pagination are not supported.
+     *
+     * @return a publisher of the objects satisfying the query
+     */
+    ResultPublisher<T> getResultPublisher();
+
+    /**
+     * Execute a SOQL query and publish the objects satisfying the query to subscribers at the rate they ask for them.
+     *
+     * @param resultClass the class of the published object
+     * @param <R>         the class of the published object
+     * @return a publisher of the objects satisfying the query
+     */
+    <R> ResultPublisher<R> getResultPublisher(Class<R> resultClass);
+
+    /**
+     * Execute a SOQL query and return an iterator over the objects satisfying the query.
+     * <p/>
+     * Unlike {@link #getResultList()}, the results are streamed from the response and additional pages of results are
+     * only retrieved as the iterator advances. The iterator should be closed if it is not fully consumed.
+     *
+     * @return an iterator over the objects satisfying the query
+     */
+    CloseableIterator<T> iterate();
+
+    /**
+     * Execute a SOQL query and return an iterator over the objects satisfying the query.
+     * <p/>
+     * Unlike {@link #getResultList(Class)}, the results are streamed from the response and additional pages of results
+     * are only retrieved as the iterator advances. The iterator should be closed if it is not fully consumed.
+     *
+     * @param resultClass the class of the returned object
+     * @param <R>         the class of the returned object
+     * @return an iterator over the objects satisfying the query
+     */
+    <R> CloseableIterator<R> iterate(Class<R> resultClass);
+
+    /**
+     * Execute a SOQL query and hand the objects satisfying the query to a handler in fixed size batches.
+     * <p/>
+     * The results are streamed as with {@link #iterate()} and only one batch is held in memory at a time, which makes
+     * this suitable for processing result sets that are too large to hold in a single list.
+     *
+     * @param batchSize the number of objects in each batch
+     * @param handler   the handler which receives the batches
+     */
+    void forEachBatch(int batchSize, BatchHandler<T> handler);
+
+    /**
+     * Execute a SOQL query and hand the objects satisfying the query to a handler in fixed size batches.
+     * <p/>
+     * The results are streamed as with {@link #iterate(Class)} and only one batch is held in memory at a time, which
+     * makes this suitable for processing result sets that are too large to hold in a single list.
+     *
+     * @param resultClass the class of the returned object
+     * @param batchSize   the number of objects in each batch
+     * @param handler     the handler which receives the batches
+     * @param <R>         the class of the returned object
+     */
+    <R> void forEachBatch(Class<R> resultClass, int batchSize, BatchHandler<R> handler);
+
     /**
      * Sets the maximum number of results to retrieve.
      *
@@ -52,4 +180,120 @@ public interface SimpleTypedQuery<T> {
      * @return the same query instance
      */
     SimpleTypedQuery<T> setFirstResult(int startPosition);
+
+    /**
+     * Binds a value to a named parameter of the query. Named parameters appear in the SOQL template as
+     * <code>:name</code> and are replaced with the bound value as a properly quoted and escaped SOQL literal.
+     * Collections and arrays are bound as parenthesized lists for use with IN.
+     * <p/>
+     * Using parameters (rather than building a new template for each set of values) allows the processed form of the
+     * template to be cached and reused.
+     *
+     * @param name  the name of the parameter (without the leading colon)
+     * @param value the value of the parameter
+     * @return the same query instance
+     */
+    SimpleTypedQuery<T> setParameter(String name, Object value);
+
+    /**
+     * Sets the number of result pages to retrieve in the background ahead of the consumer. Prefetching overlaps the
+     * network time for subsequent pages with the time spent processing the current page at the cost of buffering up to
+     * this many pages in memory. The default is 0, which means subsequent pages are only retrieved when needed.
+     *
+     * @param prefetchDepth the number of result pages to retrieve ahead of the consumer
+     * @return the same query instance
+     */
+    SimpleTypedQuery<T> setPrefetchDepth(int prefetchDepth);
+
+    /**
+     * Sets the maximum number of result pages to retrieve concurrently. When greater than 1, the locations of all the
+     * remaining pages are computed as soon as the first page is received and the pages are then retrieved in parallel
+     * and returned in order. This reduces the elapsed time of large queries at the cost of buffering up to twice this
+     * many pages in memory ahead of the consumer. The remaining pages of child relationship subqueries which Salesforce
+     * returned incomplete are retrieved the same way. The default is 0, which means pages are retrieved one at a time
+     * on the calling thread.
+     *
+     * @param fetchParallelism the maximum number of result pages to retrieve concurrently
+     * @return the same query instance
+     */
+    SimpleTypedQuery<T> setFetchParallelism(int fetchParallelism);
+
+    /**
+     * Sets how many levels of related entities are retrieved when wildcards in the query are replaced with concrete
+     * field lists. A depth of 0 retrieves just the fields of the entity itself, 1 adds the fields of directly related
+     * entities (including child relationship subqueries), and so on. The default is 5.
+     *
+     * @param fetchDepth the number of levels of related entities to retrieve
+     * @return the same query instance
+     */
+    SimpleTypedQuery<T> setFetchDepth(int fetchDepth);
+
+    /**
+     * Sets the number of records Salesforce returns per page of results (the "batchSize" query option). Small pages
+     * get the first rows back sooner, which suits interactive use. Large pages mean fewer round trips, which suits
+     * exports. Salesforce accepts sizes from 200 to 2000 and treats the size as a hint: it may return smaller pages,
+     * depending on the fields being queried. The default is 0, which leaves the size up to Salesforce.
+     *
+     * @param fetchSize the number of records per page or 0 for the Salesforce default
+     * @return the same query instance
+     * @throws IllegalArgumentException if the size is neither 0 nor from 200 to 2000
+     */
+    SimpleTypedQuery<T> setFetchSize(int fetchSize);
+
+    /**
+     * Sets whether deleted (and archived) records are included in the results. Deleted records can be recognized by
+     * selecting the IsDeleted field. The default is <code>false</code>.
+     *
+     * @param includeDeleted <code>true</code> to include deleted records
+     * @return the same query instance
+     */
+    SimpleTypedQuery<T> setIncludeDeleted(boolean includeDeleted);
+
+    /**
+     * Switches the query to keyset pagination. Instead of skipping rows with OFFSET, the results are ordered by the
+     * given field and each page starts after the last key of the page before it. This avoids the 2000 row OFFSET limit
+     * and the cost of skipping rows, and keeps pages stable while records are being inserted. The field must be
+     * unique (Id is the usual choice), mapped by the entity as an Id, string or number, and the SOQL template must
+     * not have an ORDER BY or OFFSET clause of its own.
+     * <p/>
+     * {@link #setFirstResult(int)} and {@link #setMaxResults(int)} still select the page. Moving on to the next page
+     * of the same query instance costs a single query. Jumping ahead to a position which hasn't been reached yet
+     * first runs a query for just the keys of the skipped rows.
+     *
+     * @param keyField the unique field to order and page by
+     * @return the same query instance
+     */
+    SimpleTypedQuery<T> setKeysetPagination(String keyField);
+
+    /**
+     * Sets whether the query runs as a Salesforce Bulk API 2.0 query job rather than through the REST query API. Bulk
+     * queries are meant for very large extracts (millions of rows). They are processed asynchronously by Salesforce,
+     * so there is a delay before the first result, but they count far less against API limits and return results in
+     * large CSV chunks. The default is <code>false</code>.
+     * <p/>
+     * Bulk queries don't support subqueries or {@link #setFirstResult(int)}. The entity manager must have been
+     * constructed with a {@link BulkConnector}.
+     *
+     * @param bulkMode <code>true</code> to run the query as a Bulk query job
+     * @return the same query instance
+     */
+    SimpleTypedQuery<T> setBulkMode(boolean bulkMode);
+
+    /**
+     * Sets whether concurrent identical executions of this query share a single request. When set, a call to
+     * {@link #getResultList()}, {@link #getResultList(Class)} or {@link #getResultCount()} which finds the same query
+     * (same final SOQL, headers and result class) already running for the same user waits for that execution and
+     * returns its result instead of issuing a request of its own. This is meant for popular queries such as
+     * reference data lookups which many threads run at the same moment. Results are not remembered once the
+     * execution finishes.
+     * <p/>
+     * Because a result can be handed to several callers at once, result lists are unmodifiable and the entities in them
+     * must be treated as read only. The entity manager must have been constructed with an
+     * {@link AuthorizationConnector} so that different users never share results. Keyset pagination and Bulk mode
+     * queries are never shared. The default is <code>false</code>.
+     *
+     * @param singleFlight <code>true</code> to share concurrent identical executions
+     * @return the same query instance
+     */
+    SimpleTypedQuery<T> setSingleFlight(boolean singleFlight);
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Collapses concurrent executions of the same work into one. The first caller for a key does the work on its own
+ * thread. Callers which arrive with the same key while it is in progress wait for it and get the same result (or the
+ * same exception). Nothing is remembered once the work has finished, so this is not a cache: a caller which arrives
+ * afterwards does the work again.
+ *
+ * @param <K> type of the keys which identify the work
+ * @param <V> type of the result of the work
+ */
+final class SingleFlight<K, V> {
+    private final ConcurrentMap<K, FutureTask<V>> inFlight = new ConcurrentHashMap<K, FutureTask<V>>();
+
+    /**
+     * Does the work for a key or waits for the execution that is already in progress for it.
+     *
+     * @param key  identifies the work. Must have proper equals and hashCode methods.
+     * @param work the work
+     * @return the result of the work
+     */
+    V execute(K key, Callable<V> work) {
+        FutureTask<V> task = new FutureTask<V>(work);
+        FutureTask<V> existingTask = inFlight.putIfAbsent(key, task);
+        if (existingTask == null) {
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+        } else {
+            task = existingTask;
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EntityRequestException("Interrupted while waiting for a shared query", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw new EntityResponseException("Shared query failed", e.getCause());
+        }
+    }
+}
@@ -5,6 +5,8 @@
  */
 package com.force.simplejpa;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
 import org.codehaus.jackson.map.BeanPropertyDefinition;
@@ -13,6 +15,7 @@ import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -23,8 +26,11 @@ import java.util.regex.Pattern;
  * Builder for generating SOQL to retrieve a particular type of entity. The type of entity for which SOQL is desired is
  * specified in the constructor of the builder.
  * <p/>
- * This builder transforms an SOQL template by performing wildcard substitution and optionally adding pagination
- * information (in the form of LIMIT and OFFSET clauses).
+ * This builder transforms an SOQL template by performing wildcard substitution, binding named parameters and optionally
+ * adding pagination information (in the form of LIMIT and OFFSET clauses, or a key condition for keyset pagination, see
+ * {@link #keyset(String, Object)}). A LIMIT or OFFSET in the template itself is merged with the pagination rather than
+ * repeated. It can also rewrite the template into a
+ * query which just counts the matching records (see {@link #buildCount()}).
  * <p/>
  * The SOQL template can contain wildcard specifications. The wildcard specifications are replaced with a concrete list
  * of fields from the associated entityDescriptor. Wildcard specifications can look like this:
@@ -36,19 +42,45 @@ import java.util.regex.Pattern;
  * *
  * Modules.*
  * </pre>
+ * Wildcards without an entity name qualifier are normally replaced with the fields of the root entity. If the results
+ * are going to be bound to some other class (a slimmed down projection of the entity for example), specify the
+ * descriptor of that class with {@link #resultDescriptor(EntityDescriptor)} and the wildcards will be replaced with
+ * just the fields the result class can hold.
+ * <p/>
+ * Related entities are expanded in place, except for lazily fetched ones (see
+ * {@link IntrospectionUtils#isLazyRelationshipProperty}) for which just the id is selected.
+ * <p/>
+ * The SOQL template can also contain named parameters (like <code>:id</code>) whose values are supplied separately
+ * and spliced in as properly escaped literals. The result of wildcard substitution and the location of the parameters
+ * are cached per template (see {@link CompiledSoqlTemplate}) so the template is only processed once no matter how many
+ * times it is executed.
  */
 final class SoqlBuilder {
-    private static final int DEFAULT_DEPTH = 5;
+    static final int DEFAULT_DEPTH = 5;
     private static final Pattern SPLIT_AT_LITERAL_PATTERN = Pattern.compile("([^\'\"]+)(.*)");
     private static final Pattern WILDCARD_PATTERN = Pattern.compile("([^\\*\\s]*?)\\*(\\{(\\w*)\\})?");
 
+    private static final int MAX_COMPILED_TEMPLATES = 1000;
+
+    // Name of the parameter which holds the last key of the previous page in keyset pagination
+    private static final String KEYSET_PARAMETER = "keysetLastKey";
+
     private static final Map<CacheKey, String> cachedWildcardSubstitutions = new ConcurrentHashMap<CacheKey, String>();
 
+    // Templates come from application code, which may well generate them with values inlined, so the cache is bounded.
+    private static final Cache<TemplateKey, CompiledSoqlTemplate> cachedTemplates =
+        CacheBuilder.newBuilder().maximumSize(MAX_COMPILED_TEMPLATES).build();
+
     private EntityDescriptor rootDescriptor;
+    private EntityDescriptor resultDescriptor;
     private String soqlTemplate;
     private int offset = 0;
     private int limit = 0;
     private int depth = DEFAULT_DEPTH;
+    private Map<String, ?> parameters;
+    private String keyField;
+    private Object lastKey;
+    private String selectList;
 
     public SoqlBuilder(EntityDescriptor rootDescriptor) {
         this.rootDescriptor = rootDescriptor;
@@ -60,6 +92,18 @@ final class SoqlBuilder {
         return this;
     }
 
+    /**
+     * Specifies the descriptor of the class the query results will be bound to, if different from the root entity.
+     * Unqualified wildcards are then replaced with the fields of the result class rather than those of the root entity.
+     *
+     * @param resultDescriptor the descriptor of the result class or <code>null</code> to use the root entity
+     * @return this builder
+     */
+    public SoqlBuilder resultDescriptor(EntityDescriptor resultDescriptor) {
+        this.resultDescriptor = resultDescriptor;
+        return this;
+    }
+
     public SoqlBuilder offset(int offset) {
         this.offset = offset;
         return this;
@@ -75,15 +119,232 @@ final class SoqlBuilder {
         return this;
     }
 
+    public SoqlBuilder parameters(Map<String, ?> parameters) {
+        this.parameters = parameters;
+        return this;
+    }
+
+    /**
+     * Switches to keyset pagination. Rather than skipping rows with OFFSET (which Salesforce caps at 2000 and which
+     * gets more expensive the further it goes) the results are ordered by a unique key and the page starts after the
+     * last key of the previous page:
+     * <pre>
+     * ... WHERE (original conditions) AND keyField > :lastKey ORDER BY keyField LIMIT n
+     * </pre>
+     * The template must not have an ORDER BY or OFFSET clause of its own. The offset of this builder doesn't skip any
+     * rows (the key condition does that) but still counts against a LIMIT in the template. The key field is added to
+     * the select list if the template doesn't select it, since the last key of each page is read from its rows.
+     *
+     * @param keyField the unique field the results are ordered by
+     * @param lastKey  the value of the key field in the last row of the previous page or <code>null</code> for the
+     *                 first page
+     * @return this builder
+     */
+    public SoqlBuilder keyset(String keyField, Object lastKey) {
+        Validate.notEmpty(keyField, "No keyField was specified");
+        this.keyField = keyField;
+        this.lastKey = lastKey;
+        return this;
+    }
+
+    /**
+     * Replaces the select list of the template. This is for retrieving something other than what the template
+     * normally selects (just the keys, for example) while keeping the rest of the query the same.
+     *
+     * @param selectList the replacement select list
+     * @return this builder
+     */
+    public SoqlBuilder selectList(String selectList) {
+        this.selectList = selectList;
+        return this;
+    }
+
     public String build() {
-        StringBuilder sb = replaceFieldWildcards(soqlTemplate);
-        if (limit > 0)
-            sb.append(" LIMIT ").append(limit);
-        if (offset > 0)
-            sb.append(" OFFSET ").append(offset);
+        String template = (selectList != null) ? replaceSelectList(soqlTemplate, selectList) : soqlTemplate;
+        if (keyField == null) {
+            return getCompiledTemplate(template).bind(parameters, limit, offset, true).toString();
+        } else {
+            CompiledSoqlTemplate compiledTemplate = getCompiledTemplate(applyKeyset(template));
+            if (!compiledTemplate.selects(keyField))
+                compiledTemplate = getCompiledTemplate(applyKeyset(addToSelectList(template, keyField)));
+            return compiledTemplate.bind(getKeysetParameters(), limit, offset, false).toString();
+        }
+    }
+
+    /**
+     * Builds a query which counts the records matched by the template rather than retrieving them. The select list of
+     * the template is replaced with <code>COUNT()</code> and any ORDER BY clause (which SOQL does not allow with
+     * <code>COUNT()</code>) is dropped. The pagination settings of this builder are ignored.
+     *
+     * @return the SOQL for the count query
+     */
+    public String buildCount() {
+        String template = replaceSelectList(soqlTemplate, "COUNT()");
+        int orderByIndex = indexOfTopLevelKeyword(template, "ORDER BY", 0);
+        if (orderByIndex >= 0) {
+            StringBuilder sb = new StringBuilder(template.substring(0, orderByIndex).trim());
+            int restIndex = indexOfFirstTopLevelKeyword(template, orderByIndex, "LIMIT", "OFFSET", "FOR");
+            if (restIndex >= 0)
+                sb.append(' ').append(template.substring(restIndex));
+            template = sb.toString();
+        }
+        return getCompiledTemplate(template).bind(parameters).toString();
+    }
+
+    private static String replaceSelectList(String template, String selectList) {
+        int fromIndex = indexOfTopLevelKeyword(template, "FROM", 0);
+        if (fromIndex < 0)
+            throw new IllegalArgumentException(String.format("No FROM clause found in '%s'", template));
+
+        return "SELECT " + selectList + " " + template.substring(fromIndex);
+    }
+
+    private static String addToSelectList(String template, String field) {
+        int selectIndex = indexOfTopLevelKeyword(template, "SELECT", 0);
+        if (selectIndex < 0)
+            throw new IllegalArgumentException(String.format("No SELECT clause found in '%s'", template));
+
+        int selectEnd = selectIndex + "SELECT".length();
+        return template.substring(0, selectEnd) + " " + field + "," + template.substring(selectEnd);
+    }
+
+    /**
+     * Rewrites the template for keyset pagination by adding the key condition to the WHERE clause (if there is a
+     * previous page) and ordering by the key.
+     */
+    private String applyKeyset(String template) {
+        int fromIndex = indexOfTopLevelKeyword(template, "FROM", 0);
+        if (fromIndex < 0)
+            throw new IllegalArgumentException(String.format("No FROM clause found in '%s'", template));
+        if (indexOfTopLevelKeyword(template, "ORDER BY", fromIndex) >= 0)
+            throw new IllegalArgumentException(
+                String.format("Keyset pagination supplies its own ORDER BY. Remove the one in '%s'", template));
+        if (indexOfTopLevelKeyword(template, "OFFSET", fromIndex) >= 0)
+            throw new IllegalArgumentException(
+                String.format("Keyset pagination can't be combined with OFFSET. Remove the one in '%s'", template));
+
+        int tailIndex = indexOfFirstTopLevelKeyword(template, fromIndex, "LIMIT", "OFFSET", "FOR");
+        String head = (tailIndex < 0) ? template.trim() : template.substring(0, tailIndex).trim();
+
+        StringBuilder sb = new StringBuilder();
+        if (lastKey == null) {
+            sb.append(head);
+        } else {
+            int whereIndex = indexOfTopLevelKeyword(head, "WHERE", fromIndex);
+            if (whereIndex < 0) {
+                int groupByIndex = indexOfTopLevelKeyword(head, "GROUP BY", fromIndex);
+                int conditionIndex = (groupByIndex < 0) ? head.length() : groupByIndex;
+                sb.append(head.substring(0, conditionIndex).trim()).append(" WHERE ");
+                appendKeysetCondition(sb);
+                appendRemainder(sb, head, conditionIndex);
+            } else {
+                int conditionStart = whereIndex + "WHERE".length();
+                int conditionEnd = indexOfFirstTopLevelKeyword(head, conditionStart, "GROUP BY", "HAVING");
+                if (conditionEnd < 0)
+                    conditionEnd = head.length();
+                sb.append(head.substring(0, conditionStart))
+                    .append(" (").append(head.substring(conditionStart, conditionEnd).trim()).append(") AND ");
+                appendKeysetCondition(sb);
+                appendRemainder(sb, head, conditionEnd);
+            }
+        }
+        sb.append(" ORDER BY ").append(keyField);
+        if (tailIndex >= 0)
+            sb.append(' ').append(template.substring(tailIndex));
         return sb.toString();
     }
 
+    private void appendKeysetCondition(StringBuilder sb) {
+        sb.append(keyField).append(" > :").append(KEYSET_PARAMETER);
+    }
+
+    private static void appendRemainder(StringBuilder sb, String head, int index) {
+        String remainder = head.substring(index).trim();
+        if (remainder.length() > 0)
+            sb.append(' ').append(remainder);
+    }
+
+    private Map<String, ?> getKeysetParameters() {
+        if (lastKey == null)
+            return parameters;
+
+        Map<String, Object> keysetParameters = new HashMap<String, Object>();
+        if (parameters != null)
+            keysetParameters.putAll(parameters);
+        keysetParameters.put(KEYSET_PARAMETER, lastKey);
+        return keysetParameters;
+    }
+
+    private CompiledSoqlTemplate getCompiledTemplate(String template) {
+        TemplateKey key = new TemplateKey(rootDescriptor, getResultDescriptor(), template, depth);
+        CompiledSoqlTemplate compiledTemplate = cachedTemplates.getIfPresent(key);
+        if (compiledTemplate != null)
+            return compiledTemplate;
+
+        compiledTemplate = CompiledSoqlTemplate.compile(replaceFieldWildcards(template).toString());
+        cachedTemplates.put(key, compiledTemplate);
+        return compiledTemplate;
+    }
+
+    static int indexOfFirstTopLevelKeyword(String soql, int fromIndex, String... keywords) {
+        int firstIndex = -1;
+        for (String keyword : keywords) {
+            int index = indexOfTopLevelKeyword(soql, keyword, fromIndex);
+            if (index >= 0 && (firstIndex < 0 || index < firstIndex))
+                firstIndex = index;
+        }
+        return firstIndex;
+    }
+
+    /**
+     * Finds a keyword in the top level of a SOQL statement, which means outside of any parenthesized subquery and
+     * outside of any quoted literal. The keyword may consist of several words separated by single spaces, in which case
+     * any amount of whitespace is accepted between the words.
+     */
+    static int indexOfTopLevelKeyword(String soql, String keyword, int fromIndex) {
+        String[] words = keyword.split(" ");
+        int depth = 0;
+        for (int i = fromIndex; i < soql.length(); i++) {
+            char c = soql.charAt(i);
+            if (c == '\'' || c == '"') {
+                i = CompiledSoqlTemplate.indexOfClosingQuote(soql, i);
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (depth == 0 && isWordStart(soql, i) && matchesWords(soql, i, words)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isWordStart(String soql, int index) {
+        return index == 0 || !isWordCharacter(soql.charAt(index - 1));
+    }
+
+    private static boolean isWordCharacter(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == ':'; // Colon so parameters aren't keywords
+    }
+
+    private static boolean matchesWords(String soql, int index, String[] words) {
+        int i = index;
+        for (int w = 0; w < words.length; w++) {
+            if (w > 0) {
+                int wordStart = i;
+                while (i < soql.length() && Character.isWhitespace(soql.charAt(i)))
+                    i++;
+                if (i == wordStart)
+                    return false;
+            }
+            String word = words[w];
+            if (!soql.regionMatches(true, i, word, 0, word.length()))
+                return false;
+            i += word.length();
+        }
+        return i == soql.length() || !isWordCharacter(soql.charAt(i));
+    }
+
     private StringBuilder replaceFieldWildcards(String soqlTemplate) {
 
         // Use a simple algorithm to make our job easy (remember this is simple JPA, not full JPA). Quoted literals
@@ -113,11 +374,22 @@ final class SoqlBuilder {
         return sb;
     }
 
+    private EntityDescriptor getResultDescriptor() {
+        return resultDescriptor != null ? resultDescriptor : rootDescriptor;
+    }
+
     private EntityDescriptor getEntityDescriptor(String entityName) {
-        EntityDescriptor descriptor = getEntityDescriptor(rootDescriptor, entityName);
+        EntityDescriptor descriptor = getEntityDescriptor(getResultDescriptor(), entityName);
         if (descriptor != null)
             return descriptor;
 
+        // With a separate result class, qualified wildcards may also refer to the root entity (or its relations)
+        if (getResultDescriptor() != rootDescriptor) {
+            descriptor = getEntityDescriptor(rootDescriptor, entityName);
+            if (descriptor != null)
+                return descriptor;
+        }
+
         throw new IllegalArgumentException(
             String.format("Wildcard substitution for '%s' cannot be resolved", entityName));
     }
@@ -136,7 +408,7 @@ final class SoqlBuilder {
     }
 
     private static String getWildcardSubstitution(EntityDescriptor descriptor, String prefix, int depth) {
-        CacheKey cacheKey = new CacheKey(descriptor, prefix);
+        CacheKey cacheKey = new CacheKey(descriptor, prefix, depth);
         String substitution = cachedWildcardSubstitutions.get(cacheKey);
         if (substitution != null)
             return substitution;
@@ -158,6 +430,9 @@ final class SoqlBuilder {
                 if (depth > 0) {
                     if (isArrayOrCollection(property)) {
                         fields.add(getSubquery(relatedDescriptor, prefixedFieldName, depth - 1));
+                    } else if (descriptor.isLazyRelationship(property.getInternalName())
+                        && relatedDescriptor.hasIdMember()) {
+                        fields.add(prefixedFieldName + "." + relatedDescriptor.getIdProperty().getName());
                     } else {
                         fields.addAll(getFields(relatedDescriptor, prefixedFieldName + ".", depth - 1));
                     }
@@ -193,10 +468,12 @@ final class SoqlBuilder {
     private static final class CacheKey {
         private final EntityDescriptor descriptor;
         private final String prefix;
+        private final int depth;
 
-        CacheKey(EntityDescriptor descriptor, String prefix) {
+        CacheKey(EntityDescriptor descriptor, String prefix, int depth) {
             this.descriptor = descriptor;
             this.prefix = prefix;
+            this.depth = depth;
         }
 
         @Override
@@ -206,6 +483,7 @@ final class SoqlBuilder {
 
             CacheKey cacheKey = (CacheKey) o;
 
+            if (depth != cacheKey.depth) return false;
             if (descriptor != null ? !descriptor.equals(cacheKey.descriptor) : cacheKey.descriptor != null)
                 return false;
             if (prefix != null ? !prefix.equals(cacheKey.prefix) : cacheKey.prefix != null) return false;
@@ -217,6 +495,49 @@ final class SoqlBuilder {
         public int hashCode() {
             int result = descriptor != null ? descriptor.hashCode() : 0;
             result = 31 * result + (prefix != null ? prefix.hashCode() : 0);
+            result = 31 * result + depth;
+            return result;
+        }
+    }
+
+    private static final class TemplateKey {
+        private final EntityDescriptor descriptor;
+        private final EntityDescriptor resultDescriptor;
+        private final String template;
+        private final int depth;
+
+        TemplateKey(EntityDescriptor descriptor, EntityDescriptor resultDescriptor, String template, int depth) {
+            this.descriptor = descriptor;
+            this.resultDescriptor = resultDescriptor;
+            this.template = template;
+            this.depth = depth;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            TemplateKey templateKey = (TemplateKey) o;
+
+            if (depth != templateKey.depth) return false;
+            if (descriptor != null ? !descriptor.equals(templateKey.descriptor) : templateKey.descriptor != null)
+                return false;
+            if (resultDescriptor != null
+                ? !resultDescriptor.equals(templateKey.resultDescriptor)
+                : templateKey.resultDescriptor != null)
+                return false;
+            if (template != null ? !template.equals(templateKey.template) : templateKey.template != null) return false;
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = descriptor != null ? descriptor.hashCode() : 0;
+            result = 31 * result + (resultDescriptor != null ? resultDescriptor.hashCode() : 0);
+            result = 31 * result + (template != null ? template.hashCode() : 0);
+            result = 31 * result + depth;
             return result;
         }
     }
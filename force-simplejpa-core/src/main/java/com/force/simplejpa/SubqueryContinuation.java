@@ -0,0 +1,72 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.map.InjectableValues;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Everything {@link SubqueryDeserializer} needs in order to retrieve the remaining pages of a subquery result which
+ * Salesforce did not return in full with the parent record.
+ * <p/>
+ * An instance is made available to the deserializer as a Jackson injectable value for the duration of a query (see
+ * {@link #asInjectableValues()}). Deserialization which isn't part of a query simply has no continuation available.
+ */
+final class SubqueryContinuation {
+    static final String INJECTABLE_VALUE_ID = SubqueryContinuation.class.getName();
+
+    private final RestConnector connector;
+    private final Map<String, String> headers;
+    private final ExecutorService executor;
+    private final JsonFactory jsonFactory;
+    private final int parallelism;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param connector   the connector used to request the remaining pages
+     * @param headers     optional HTTP headers to add to the page requests
+     * @param executor    the executor on which the page requests are issued when they are retrieved in parallel. May
+     *                    be <code>null</code> if the parallelism is 1 or less.
+     * @param jsonFactory the factory used to parse the remaining pages
+     * @param parallelism the maximum number of page requests to have in flight at once for a single subquery. With 1
+     *                    or less, the pages are requested one at a time on the thread which deserializes the parent.
+     */
+    SubqueryContinuation(
+        RestConnector connector, Map<String, String> headers, ExecutorService executor, JsonFactory jsonFactory,
+        int parallelism) {
+
+        this.connector = connector;
+        this.headers = headers;
+        this.executor = executor;
+        this.jsonFactory = jsonFactory;
+        this.parallelism = parallelism;
+    }
+
+    JsonFactory getJsonFactory() {
+        return jsonFactory;
+    }
+
+    /**
+     * Creates a fetcher for the remaining pages of one subquery result. If the parallelism allows, the pages are
+     * retrieved in parallel when their locations can be computed up front. Otherwise they are retrieved one at a time
+     * as they are needed.
+     *
+     * @return a page fetcher
+     */
+    QueryPageFetcher newPageFetcher() {
+        if (parallelism > 1)
+            return new ParallelQueryPageFetcher(connector, headers, executor, parallelism);
+        return new DirectQueryPageFetcher(connector, headers);
+    }
+
+    InjectableValues asInjectableValues() {
+        return new InjectableValues.Std().addValue(INJECTABLE_VALUE_ID, this);
+    }
+}
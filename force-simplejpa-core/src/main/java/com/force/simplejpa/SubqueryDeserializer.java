@@ -6,11 +6,17 @@
 package com.force.simplejpa;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.net.URI;
+import java.util.Collection;
 
 import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.map.DeserializationContext;
 import org.codehaus.jackson.map.JsonDeserializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A special deserializer that knows how to deal with the Salesforce REST representation for SOQL subqueries.
@@ -24,8 +30,15 @@ import org.codehaus.jackson.map.JsonDeserializer;
  * <p/>
  * This special deserializer helps to wade through the extra metadata and arrive at the raw array of records which the
  * standard Jackson deserializers can then handle in the normal way.
+ * <p/>
+ * Salesforce only returns the first batch of records of a large subquery result along with the parent record. When the
+ * extra metadata indicates there are more ("nextRecordsUrl"), and the deserialization is part of a query (in which case
+ * a {@link SubqueryContinuation} is available as an injectable value), the remaining pages are retrieved before the
+ * parent is returned. The pages are retrieved in parallel when their locations can be computed up front.
  */
 class SubqueryDeserializer extends JsonDeserializer<Object> {
+    private static final Logger log = LoggerFactory.getLogger(SubqueryDeserializer.class);
+
     private JsonDeserializer<?> delegate;
 
     /**
@@ -41,22 +54,108 @@ class SubqueryDeserializer extends JsonDeserializer<Object> {
     @Override
     public Object deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException {
         if (jp.getCurrentToken() == JsonToken.START_OBJECT) {
-            jp.nextToken();
+            Page page = readPage(jp, ctxt);
+            if (page.nextRecordsUrl == null)
+                return page.records;
+
+            // Salesforce only returns the first batch of a large subquery result along with the parent record. The
+            // rest has to be requested separately.
+            SubqueryContinuation continuation = findContinuation(ctxt);
+            if (continuation == null) {
+                log.warn(String.format("Subquery result truncated. No way to retrieve %s", page.nextRecordsUrl));
+                return page.records;
+            }
+            return readRemainingPages(page, continuation, ctxt);
+        } else {
+            return delegate.deserialize(jp, ctxt);
+        }
+    }
+
+    /**
+     * Reads one page of subquery results. The parser is positioned at the start of the object which wraps the records.
+     */
+    private Page readPage(JsonParser jp, DeserializationContext ctxt) throws IOException {
+        jp.nextToken();
+
+        Page page = new Page();
+        for (JsonToken token = jp.getCurrentToken(); token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
+            String fieldName = jp.getCurrentName();
+            jp.nextValue();
+
+            if (fieldName.equals("records")) {
+                page.records = delegate.deserialize(jp, ctxt); // Delegate the raw records to the standard deserializer
+            } else if (fieldName.equals("nextRecordsUrl") && jp.getCurrentToken() == JsonToken.VALUE_STRING) {
+                page.nextRecordsUrl = URI.create(jp.getText());
+            } else if (fieldName.equals("totalSize") && jp.getCurrentToken() == JsonToken.VALUE_NUMBER_INT) {
+                page.totalSize = jp.getIntValue();
+            } else {
+                jp.skipChildren();
+            }
+        }
+        return page;
+    }
 
-            Object result = null;
-            for (JsonToken token = jp.getCurrentToken(); token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
-                String fieldName = jp.getCurrentName();
-                jp.nextValue();
+    private Object readRemainingPages(Page firstPage, SubqueryContinuation continuation, DeserializationContext ctxt)
+        throws IOException {
 
-                if (fieldName.equals("records")) {
-                    result = delegate.deserialize(jp, ctxt); // Delegate the raw records to the standard deserializer
+        Object records = firstPage.records;
+        QueryPageFetcher pageFetcher = continuation.newPageFetcher();
+        try {
+            pageFetcher.pageLocated(firstPage.nextRecordsUrl, firstPage.totalSize);
+            for (URI nextRecordsUrl = firstPage.nextRecordsUrl; nextRecordsUrl != null; ) {
+                InputStream pageStream = pageFetcher.fetchPage(nextRecordsUrl);
+                JsonParser pageParser = continuation.getJsonFactory().createJsonParser(pageStream);
+                try {
+                    pageParser.nextToken();
+                    Page page = readPage(pageParser, ctxt);
+                    records = concatenate(records, page.records);
+                    nextRecordsUrl = page.nextRecordsUrl;
+                } finally {
+                    pageParser.close();
                 }
             }
-            return result;
+        } finally {
+            pageFetcher.close();
+        }
+        return records;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object concatenate(Object records, Object moreRecords) {
+        if (records == null)
+            return moreRecords;
+        if (moreRecords == null)
+            return records;
+
+        if (records instanceof Collection) {
+            ((Collection<Object>) records).addAll((Collection<Object>) moreRecords);
+            return records;
+        } else if (records.getClass().isArray()) {
+            int length = Array.getLength(records);
+            int moreLength = Array.getLength(moreRecords);
+            Object allRecords = Array.newInstance(records.getClass().getComponentType(), length + moreLength);
+            System.arraycopy(records, 0, allRecords, 0, length);
+            System.arraycopy(moreRecords, 0, allRecords, length, moreLength);
+            return allRecords;
         } else {
-            return delegate.deserialize(jp, ctxt);
+            throw new IllegalStateException("Subquery records are neither a collection nor an array");
         }
     }
-}
 
+    private static SubqueryContinuation findContinuation(DeserializationContext ctxt) {
+        try {
+            Object continuation = ctxt.findInjectableValue(SubqueryContinuation.INJECTABLE_VALUE_ID, null, null);
+            return (SubqueryContinuation) continuation;
+        } catch (IllegalStateException e) {
+            return null; // No injectable values at all. We aren't deserializing as part of a query.
+        } catch (IllegalArgumentException e) {
+            return null; // No continuation among the injectable values.
+        }
+    }
 
+    private static final class Page {
+        private Object records;
+        private URI nextRecordsUrl;
+        private int totalSize = -1;
+    }
+}
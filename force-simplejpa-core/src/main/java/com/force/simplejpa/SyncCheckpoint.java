@@ -0,0 +1,69 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import org.apache.commons.lang.Validate;
+
+import java.util.Date;
+
+/**
+ * The position reached by an {@link IncrementalSynchronizer}: the SystemModstamp and Id of the last change which was
+ * delivered. Changes are delivered in SystemModstamp and Id order so everything up to and including this position has
+ * been seen.
+ * <p/>
+ * Instances are immutable.
+ */
+public final class SyncCheckpoint {
+    private final Date systemModstamp;
+    private final String id;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param systemModstamp the SystemModstamp of the last change delivered
+     * @param id             the Id of the last change delivered
+     */
+    public SyncCheckpoint(Date systemModstamp, String id) {
+        Validate.notNull(systemModstamp, "systemModstamp must not be null");
+        Validate.notEmpty(id, "id must not be empty");
+
+        this.systemModstamp = new Date(systemModstamp.getTime());
+        this.id = id;
+    }
+
+    public Date getSystemModstamp() {
+        return new Date(systemModstamp.getTime());
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        SyncCheckpoint that = (SyncCheckpoint) o;
+
+        if (!id.equals(that.id)) return false;
+        if (!systemModstamp.equals(that.systemModstamp)) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = systemModstamp.hashCode();
+        result = 31 * result + id.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SyncCheckpoint{systemModstamp=%tFT%<tT.%<tLZ, id=%s}", systemModstamp, id);
+    }
+}
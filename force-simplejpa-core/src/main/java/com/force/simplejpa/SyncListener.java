@@ -0,0 +1,33 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import java.util.List;
+
+/**
+ * A callback which receives the changes found by an {@link IncrementalSynchronizer}.
+ * <p/>
+ * Changes are delivered in batches in the order they were made. The checkpoint is saved once the listener returns from
+ * a batch, so a batch may be delivered again if the process stops before that happens. Handling must therefore be
+ * idempotent, which comes naturally for upserts and deletes keyed by Id.
+ *
+ * @param <T> type of entity being synchronized
+ */
+public interface SyncListener<T> {
+    /**
+     * Handles entities which were created or updated.
+     *
+     * @param entities the created or updated entities
+     */
+    void handleUpserts(List<T> entities);
+
+    /**
+     * Handles entities which were deleted. Deletes are only found when the synchronizer is configured to include them.
+     *
+     * @param ids the Salesforce IDs of the deleted entities
+     */
+    void handleDeletes(List<String> ids);
+}
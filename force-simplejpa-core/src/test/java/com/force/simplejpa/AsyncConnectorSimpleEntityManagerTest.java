@@ -0,0 +1,148 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import com.force.simplejpa.domain.SimpleBean;
+import com.force.simplejpa.domain.SimpleContainerBean;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+public class AsyncConnectorSimpleEntityManagerTest extends AbstractSimpleEntityManagerTest {
+    private AsyncRestConnector mockAsyncConnector;
+    private AsyncSimpleEntityManager asyncEm;
+
+    @Before
+    public void initializeAsyncConnectorEntityManager() {
+        mockConnector = mock(RestConnector.class, withSettings().extraInterfaces(AsyncRestConnector.class));
+        mockAsyncConnector = (AsyncRestConnector) mockConnector;
+        em = new RestSimpleEntityManager(mockConnector);
+
+        // Nothing should be handed to the executor of the asynchronous entity manager, so one which rejects all work proves it
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        asyncEm = new AsyncSimpleEntityManager(em, executor);
+    }
+
+    @Test
+    public void testPersistThroughAsyncConnector() throws Exception {
+        SettableFuture<InputStream> response = SettableFuture.create();
+        when(mockAsyncConnector.doCreateAsync(anyString(), anyString(), anyMapOf(String.class, String.class))).thenReturn(response);
+
+        SimpleBean bean = new SimpleBean();
+        bean.setName("Name 1");
+        ListenableFuture<SimpleBean> persisted = asyncEm.persistAsync(bean);
+        assertThat(persisted.isDone(), is(false));
+
+        response.set(getResourceStream("persistSuccessResponse.json"));
+
+        assertThat(persisted.get(5, TimeUnit.SECONDS).getId(), is(equalTo("a01i00000000001AAC")));
+        verify(mockConnector, never()).doCreate(anyString(), anyString(), anyMapOf(String.class, String.class));
+    }
+
+    @Test
+    public void testMergeAndRemoveThroughAsyncConnector() throws Exception {
+        when(mockAsyncConnector.doUpdateAsync(anyString(), anyString(), anyString(), anyMapOf(String.class, String.class))).thenReturn(Futures.<Void>immediateFuture(null));
+        when(mockAsyncConnector.doDeleteAsync(anyString(), anyString(), anyMapOf(String.class, String.class))).thenReturn(Futures.<Void>immediateFuture(null));
+
+        SimpleBean bean = new SimpleBean();
+        bean.setId("a01i00000000001");
+        bean.setName("Name 1");
+        asyncEm.mergeAsync(bean).get();
+        asyncEm.removeAsync(bean).get();
+
+        verify(mockAsyncConnector).doUpdateAsync(anyString(), anyString(), anyString(), anyMapOf(String.class, String.class));
+        verify(mockAsyncConnector).doDeleteAsync("SimpleBean", "a01i00000000001", null);
+    }
+
+    @Test
+    public void testFindThroughAsyncConnector() throws Exception {
+        when(mockAsyncConnector.doRetrieveAsync(anyString(), anyString(), anyString(), anyMapOf(String.class, String.class)))
+            .thenReturn(Futures.immediateFuture(getResourceStream("retrieveSuccessResponse.json")))
+            .thenReturn(Futures.<InputStream>immediateFuture(null));
+
+        assertThat(asyncEm.findAsync(SimpleBean.class, "a01i00000000001").get().getName(), is(equalTo("Name 1")));
+        assertThat(asyncEm.findAsync(SimpleBean.class, "a01i00000000002").get(), is(nullValue()));
+    }
+
+    @Test
+    public void testPagedQueryThroughAsyncConnector() throws Exception {
+        SettableFuture<InputStream> firstPage = SettableFuture.create();
+        when(mockAsyncConnector.doQueryAsync(anyString(), anyMapOf(String.class, String.class))).thenReturn(firstPage);
+        when(mockConnector.doGet(any(URI.class), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("pagedQueryResponse2.json"));
+
+        ListenableFuture<List<SimpleBean>> beans = asyncEm.getResultListAsync(asyncEm.createQuery("select * from SimpleBean", SimpleBean.class));
+        assertThat(beans.isDone(), is(false));
+
+        firstPage.set(getResourceStream("pagedQueryResponse1.json"));
+
+        assertThat(beans.get(5, TimeUnit.SECONDS).size(), is(equalTo(3)));
+        assertThat(beans.get().get(2).getId(), is(equalTo("a01i00000000003")));
+        verify(mockAsyncConnector).doQueryAsync("select Id,Name,Description from SimpleBean", null);
+        verify(mockConnector).doGet(URI.create("/services/data/v28.0/query/01gi0000000TEST-2"), null);
+    }
+
+    @Test
+    public void testPagedSubqueryThroughAsyncConnector() throws Exception {
+        when(mockAsyncConnector.doQueryAsync(anyString(), anyMapOf(String.class, String.class))).thenReturn(Futures.immediateFuture(getResourceStream("pagedSubqueryResponse.json")));
+        when(mockConnector.doGet(eq(URI.create("/services/data/v28.0/query/01gi0000000SUB1-1")), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("subqueryPageResponse1.json"));
+        when(mockConnector.doGet(eq(URI.create("/services/data/v28.0/query/01gi0000000SUB2-1")), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("subqueryPageResponse2.json"));
+        when(mockConnector.doGet(eq(URI.create("/services/data/v28.0/query/01gi0000000SUB2-2")), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("subqueryPageResponse3.json"));
+
+        List<SimpleContainerBean> containerBeans =
+            asyncEm.getResultListAsync(asyncEm.createQuery("select * from SimpleContainerBean", SimpleContainerBean.class)).get(5, TimeUnit.SECONDS);
+
+        assertThat(containerBeans.get(0).getRelatedBeans().size(), is(equalTo(2)));
+        assertThat(containerBeans.get(0).getMoreRelatedBeans().length, is(equalTo(3)));
+    }
+
+    @Test
+    public void testCountThroughAsyncConnector() throws Exception {
+        when(mockAsyncConnector.doQueryAsync(anyString(), anyMapOf(String.class, String.class))).thenReturn(Futures.immediateFuture(getResourceStream("countQueryResponse.json")));
+
+        long count = asyncEm.getResultCountAsync(asyncEm.createQuery("select * from SimpleBean", SimpleBean.class)).get();
+
+        assertThat(count, is(equalTo(42L)));
+    }
+
+    @Test
+    public void testConnectorFailureReportedThroughFuture() throws Exception {
+        when(mockAsyncConnector.doQueryAsync(anyString(), anyMapOf(String.class, String.class))).thenReturn(Futures.<InputStream>immediateFailedFuture(new EntityRequestException("Query failed")));
+
+        try {
+            asyncEm.getResultListAsync(asyncEm.createQuery("select * from SimpleBean", SimpleBean.class)).get();
+            fail("Expected an ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), is(instanceOf(EntityRequestException.class)));
+        }
+    }
+}
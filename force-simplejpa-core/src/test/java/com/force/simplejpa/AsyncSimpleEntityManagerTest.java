@@ -0,0 +1,94 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import com.force.simplejpa.domain.SimpleBean;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AsyncSimpleEntityManagerTest extends AbstractSimpleEntityManagerTest {
+    private ExecutorService executor;
+    private AsyncSimpleEntityManager asyncEm;
+
+    @Before
+    public void initializeAsyncEntityManager() {
+        executor = Executors.newFixedThreadPool(2);
+        asyncEm = new AsyncSimpleEntityManager(em, executor);
+    }
+
+    @After
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testPersistAsync() throws Exception {
+        when(mockConnector.doCreate(anyString(), anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("persistSuccessResponse.json"));
+
+        SimpleBean bean = new SimpleBean();
+        bean.setName("Name 1");
+        bean.setDescription("Description 1");
+        SimpleBean persistedBean = asyncEm.persistAsync(bean).get();
+
+        assertThat(persistedBean, is(sameInstance(bean)));
+        assertThat(persistedBean.getId(), is(equalTo("a01i00000000001AAC")));
+    }
+
+    @Test
+    public void testParallelReads() throws Exception {
+        when(mockConnector.doRetrieve(anyString(), anyString(), anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("retrieveSuccessResponse.json"));
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("simpleQueryResponse.json"));
+
+        ListenableFuture<SimpleBean> found = asyncEm.findAsync(SimpleBean.class, "a01i00000000001");
+        ListenableFuture<List<SimpleBean>> queried = asyncEm.getResultListAsync(asyncEm.createQuery("select * from SimpleBean", SimpleBean.class));
+        Futures.successfulAsList(Arrays.<ListenableFuture<?>>asList(found, queried)).get();
+
+        assertThat(found.get().getName(), is(equalTo("Name 1")));
+        assertThat(queried.get().size(), is(equalTo(2)));
+        verify(mockConnector).doQuery("select Id,Name,Description from SimpleBean", null);
+    }
+
+    @Test
+    public void testRemoveAsync() throws Exception {
+        SimpleBean bean = new SimpleBean();
+        bean.setId("a01i00000000001");
+
+        asyncEm.removeAsync(bean).get();
+
+        verify(mockConnector).doDelete("SimpleBean", "a01i00000000001", null);
+    }
+
+    @Test
+    public void testFailureReportedThroughFuture() throws Exception {
+        ListenableFuture<Void> future = asyncEm.removeAsync(new SimpleBean()); // No id
+        try {
+            future.get();
+            fail("Expected an ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), is(instanceOf(EntityRequestException.class)));
+        }
+    }
+}
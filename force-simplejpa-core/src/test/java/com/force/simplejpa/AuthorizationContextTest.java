@@ -0,0 +1,229 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import com.force.simplejpa.domain.SimpleBean;
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AuthorizationContextTest extends AbstractSimpleEntityManagerTest {
+    private static final String AUTHORIZATION = "Bearer 00Di0000000TEST";
+    private static final URI INSTANCE_URL = URI.create("https://na1.salesforce.com");
+
+    private AuthorizationConnector threadBoundAuthorizationConnector;
+
+    @Before
+    public void initializeThreadBoundAuthorization() {
+        threadBoundAuthorizationConnector = new ThreadBoundAuthorizationConnector(Thread.currentThread());
+        em = new RestSimpleEntityManager(mockConnector, threadBoundAuthorizationConnector);
+    }
+
+    @Test
+    public void testPrefetchCarriesAuthorization() throws Exception {
+        final AtomicReference<String> pageAuthorization = new AtomicReference<String>();
+        final AtomicReference<Thread> pageThread = new AtomicReference<Thread>();
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("pagedQueryResponse1.json"));
+        when(mockConnector.doGet(any(URI.class), anyMapOf(String.class, String.class))).thenAnswer(new Answer<InputStream>() {
+            @Override
+            public InputStream answer(InvocationOnMock invocation) throws Throwable {
+                pageThread.set(Thread.currentThread());
+                pageAuthorization.set(AuthorizationContext.getAuthorization(threadBoundAuthorizationConnector));
+                return getResourceStream("pagedQueryResponse2.json");
+            }
+        });
+
+        List<SimpleBean> beans =
+            Lists.newArrayList(em.createQuery("select * from SimpleBean", SimpleBean.class).setPrefetchDepth(1).iterate());
+
+        assertThat(beans.size(), is(equalTo(3)));
+        assertThat(pageThread.get(), is(not(sameInstance(Thread.currentThread()))));
+        assertThat(pageAuthorization.get(), is(equalTo(AUTHORIZATION)));
+    }
+
+    @Test
+    public void testFindAllChunksCarryAuthorization() throws Exception {
+        final List<String> chunkAuthorizations = Collections.synchronizedList(new ArrayList<String>());
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenAnswer(new Answer<InputStream>() {
+            @Override
+            public InputStream answer(InvocationOnMock invocation) throws Throwable {
+                chunkAuthorizations.add(AuthorizationContext.getAuthorization(threadBoundAuthorizationConnector));
+                return getResourceStream("simpleQueryResponse.json");
+            }
+        });
+
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 250; i++) {
+            ids.add(String.format("a01i0000000%04d", 1000 + i));
+        }
+        em.findAll(SimpleBean.class, ids);
+
+        assertThat(chunkAuthorizations, is(equalTo(Arrays.asList(AUTHORIZATION, AUTHORIZATION))));
+    }
+
+    @Test
+    public void testAsyncOperationCarriesAuthorization() throws Exception {
+        final AtomicReference<String> retrieveAuthorization = new AtomicReference<String>();
+        when(mockConnector.doRetrieve(anyString(), anyString(), anyString(), anyMapOf(String.class, String.class))).thenAnswer(new Answer<InputStream>() {
+            @Override
+            public InputStream answer(InvocationOnMock invocation) throws Throwable {
+                retrieveAuthorization.set(AuthorizationContext.getAuthorization(threadBoundAuthorizationConnector));
+                return getResourceStream("retrieveSuccessResponse.json");
+            }
+        });
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            SimpleBean bean = new AsyncSimpleEntityManager(em, executor).findAsync(SimpleBean.class, "a01i00000000001").get();
+
+            assertThat(bean.getName(), is(equalTo("Name 1")));
+            assertThat(retrieveAuthorization.get(), is(equalTo(AUTHORIZATION)));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testPublisherCarriesAuthorization() throws Exception {
+        final AtomicReference<String> queryAuthorization = new AtomicReference<String>();
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenAnswer(new Answer<InputStream>() {
+            @Override
+            public InputStream answer(InvocationOnMock invocation) throws Throwable {
+                queryAuthorization.set(AuthorizationContext.getAuthorization(threadBoundAuthorizationConnector));
+                return getResourceStream("simpleQueryResponse.json");
+            }
+        });
+
+        final CountDownLatch finished = new CountDownLatch(1);
+        final List<SimpleBean> beans = Collections.synchronizedList(new ArrayList<SimpleBean>());
+        em.createQuery("select * from SimpleBean", SimpleBean.class).getResultPublisher().subscribe(new ResultSubscriber<SimpleBean>() {
+            @Override
+            public void onSubscribe(ResultSubscription subscription) {
+                subscription.request(10);
+            }
+
+            @Override
+            public void onNext(SimpleBean result) {
+                beans.add(result);
+            }
+
+            @Override
+            public void onError(Throwable cause) {
+                finished.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                finished.countDown();
+            }
+        });
+
+        assertThat(finished.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(beans.size(), is(equalTo(2)));
+        assertThat(queryAuthorization.get(), is(equalTo(AUTHORIZATION)));
+    }
+
+    @Test
+    public void testWrappedTaskSeesCapturedValues() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            AuthorizationContext context = AuthorizationContext.capture(threadBoundAuthorizationConnector);
+            URI instanceUrl = executor.submit(context.wrap(new Callable<URI>() {
+                @Override
+                public URI call() {
+                    return AuthorizationContext.getInstanceUrl(threadBoundAuthorizationConnector);
+                }
+            })).get();
+
+            assertThat(instanceUrl, is(equalTo(INSTANCE_URL)));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testContextOnlyAppliesToItsConnector() throws Exception {
+        final AuthorizationConnector otherConnector = mock(AuthorizationConnector.class);
+        when(otherConnector.getAuthorization()).thenReturn("Bearer OTHER");
+
+        String authorization = AuthorizationContext.capture(threadBoundAuthorizationConnector).wrap(new Callable<String>() {
+            @Override
+            public String call() {
+                return AuthorizationContext.getAuthorization(otherConnector);
+            }
+        }).call();
+
+        assertThat(authorization, is(equalTo("Bearer OTHER")));
+    }
+
+    @Test
+    public void testCaptureReusesContextInEffect() throws Exception {
+        final AuthorizationContext context = AuthorizationContext.capture(threadBoundAuthorizationConnector);
+
+        AuthorizationContext nested = context.wrap(new Callable<AuthorizationContext>() {
+            @Override
+            public AuthorizationContext call() {
+                return AuthorizationContext.capture(threadBoundAuthorizationConnector);
+            }
+        }).call();
+
+        assertThat(nested, is(sameInstance(context)));
+    }
+
+    /**
+     * Answers only on one thread, like a connector which propagates the authorization of an inbound web request.
+     */
+    private static final class ThreadBoundAuthorizationConnector implements AuthorizationConnector {
+        private final Thread requestThread;
+
+        private ThreadBoundAuthorizationConnector(Thread requestThread) {
+            this.requestThread = requestThread;
+        }
+
+        @Override
+        public String getAuthorization() {
+            checkThread();
+            return AUTHORIZATION;
+        }
+
+        @Override
+        public URI getInstanceUrl() {
+            checkThread();
+            return INSTANCE_URL;
+        }
+
+        private void checkThread() {
+            if (Thread.currentThread() != requestThread)
+                throw new IllegalStateException("No request is being served on this thread");
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import com.force.simplejpa.domain.LazyRelationshipBean;
+import org.codehaus.jackson.JsonNode;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BulkQueryTest extends AbstractSimpleEntityManagerTest {
+    private BulkConnector mockBulkConnector;
+
+    @Before
+    public void initializeMockBulkConnector() {
+        mockBulkConnector = mock(BulkConnector.class);
+        em = new RestSimpleEntityManager(mockConnector, mockBulkConnector, Executors.newSingleThreadExecutor());
+    }
+
+    @Test
+    public void testBulkQuery() throws Exception {
+        when(mockBulkConnector.doCreateQueryJob(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("bulkQueryJobResponse.json"));
+        when(mockBulkConnector.doGetQueryJob(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("bulkQueryJobCompleteResponse.json"));
+        when(mockBulkConnector.doGetQueryResults("750i0000000TEST", null, null)).thenReturn(new BulkResultChunk(getResourceStream("bulkQueryResults1.csv"), "LOCATOR-2"));
+        when(mockBulkConnector.doGetQueryResults("750i0000000TEST", "LOCATOR-2", null)).thenReturn(new BulkResultChunk(getResourceStream("bulkQueryResults2.csv"), "null"));
+
+        List<LazyRelationshipBean> beans = em.createQuery("select * from LazyRelationshipBean", LazyRelationshipBean.class).setBulkMode(true).getResultList();
+
+        assertThat(beans.size(), is(equalTo(3)));
+        assertThat(beans.get(0).getId(), is(equalTo("a02i00000000001")));
+        assertThat(beans.get(0).getRelated().getId(), is(equalTo("a01i00000000001")));
+        assertThat(beans.get(0).getOwner().getName(), is(equalTo("User 1")));
+        assertThat(beans.get(1).getName(), is(equalTo("Name \"2\", with quotes")));
+        assertThat(beans.get(1).getRelated(), is(nullValue()));
+        assertThat(beans.get(1).getOwner(), is(nullValue()));
+        assertThat(beans.get(2).getName(), is(equalTo("Name 3\nover two lines")));
+
+        verify(mockBulkConnector).doCreateQueryJob(
+            "{\"operation\":\"query\",\"query\":\"select Id,Name,Related.Id,Owner.Id,Owner.Name from LazyRelationshipBean\"}", null);
+        verify(mockBulkConnector).doGetQueryJob("750i0000000TEST", null);
+    }
+
+    @Test
+    public void testBulkQueryAsJson() throws Exception {
+        when(mockBulkConnector.doCreateQueryJob(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("bulkQueryJobCompleteResponse.json"));
+        when(mockBulkConnector.doGetQueryResults("750i0000000TEST", null, null)).thenReturn(new BulkResultChunk(getResourceStream("bulkQueryResults1.csv"), null));
+
+        List<JsonNode> nodes = em.createQuery("select * from LazyRelationshipBean", LazyRelationshipBean.class).setBulkMode(true).getResultList(JsonNode.class);
+
+        assertThat(nodes.size(), is(equalTo(2)));
+        assertThat(nodes.get(0).path("Owner").path("Id").getTextValue(), is(equalTo("005i00000000001")));
+        assertThat(nodes.get(1).get("Owner").isNull(), is(true));
+    }
+
+    @Test(expected = EntityRequestException.class)
+    public void testBulkQueryJobFailed() throws Exception {
+        when(mockBulkConnector.doCreateQueryJob(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("bulkQueryJobResponse.json"));
+        when(mockBulkConnector.doGetQueryJob(eq("750i0000000TEST"), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("bulkQueryJobFailedResponse.json"));
+
+        em.createQuery("select * from LazyRelationshipBean", LazyRelationshipBean.class).setBulkMode(true).getResultList();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBulkQueryWithoutBulkConnector() throws Exception {
+        new RestSimpleEntityManager(mockConnector).createQuery("select * from LazyRelationshipBean", LazyRelationshipBean.class).setBulkMode(true).getResultList();
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class CsvReaderTest {
+
+    @Test
+    public void testSimpleRows() throws Exception {
+        CsvReader reader = new CsvReader(new StringReader("a,b,c\r\n1,,3\n"));
+
+        assertThat(reader.readRow(), contains("a", "b", "c"));
+        assertThat(reader.readRow(), contains("1", "", "3"));
+        assertThat(reader.readRow(), is(nullValue()));
+    }
+
+    @Test
+    public void testQuotedFields() throws Exception {
+        CsvReader reader = new CsvReader(new StringReader("\"a,1\",\"say \"\"hi\"\"\",\"\"\n\"two\nlines\",x"));
+
+        assertThat(reader.readRow(), contains("a,1", "say \"hi\"", ""));
+        assertThat(reader.readRow(), contains("two\nlines", "x"));
+        assertThat(reader.readRow(), is(nullValue()));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnterminatedQuote() throws Exception {
+        new CsvReader(new StringReader("\"abc,def\n")).readRow();
+    }
+}
@@ -131,6 +131,14 @@ public class EntityMappingContextTest {
         assertThat(descriptor.getRelatedEntities().get("recursiveBean"), is(sameInstance(descriptor)));
     }
 
+    @Test
+    public void testLazyRelationshipBean() {
+        EntityDescriptor descriptor = mappingContext.getEntityDescriptor(LazyRelationshipBean.class);
+        assertThat(descriptor.getRelatedEntities().size(), is(equalTo(2)));
+        assertThat(descriptor.isLazyRelationship("related"), is(true));
+        assertThat(descriptor.isLazyRelationship("owner"), is(false));
+    }
+
     @Test
     public void testDescriptorCaching() {
         EntityDescriptor descriptor1 = mappingContext.getEntityDescriptor(SimpleBean.class);
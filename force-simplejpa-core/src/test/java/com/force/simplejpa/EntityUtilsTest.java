@@ -152,4 +152,12 @@ public class EntityUtilsTest {
             // Exception expected because no id property exists.
         }
     }
+
+    @Test
+    public void testToCaseInsensitiveId() {
+        assertThat(EntityUtils.toCaseInsensitiveId("001A0000006Vm9r"), is(equalTo("001A0000006Vm9rIAC")));
+        assertThat(EntityUtils.toCaseInsensitiveId("a01i00000000001"), is(equalTo("a01i00000000001AAA")));
+        assertThat(EntityUtils.toCaseInsensitiveId("001A0000006Vm9rIAC"), is(equalTo("001A0000006Vm9rIAC")));
+        assertThat(EntityUtils.toCaseInsensitiveId(null), is(nullValue()));
+    }
 }
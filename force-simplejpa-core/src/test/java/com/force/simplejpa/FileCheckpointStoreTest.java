@@ -0,0 +1,43 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Date;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class FileCheckpointStoreTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File file = new File(temporaryFolder.getRoot(), "checkpoints.properties");
+        SyncCheckpoint checkpoint1 = new SyncCheckpoint(new Date(922954496000L), "a01i00000000001");
+        SyncCheckpoint checkpoint2 = new SyncCheckpoint(new Date(1364896800000L), "a01i00000000002");
+
+        FileCheckpointStore store = new FileCheckpointStore(file);
+        assertThat(store.load("SimpleBean"), is(nullValue()));
+
+        store.save("SimpleBean", checkpoint1);
+        store.save("OtherBean", checkpoint1);
+        store.save("SimpleBean", checkpoint2);
+
+        // A new instance sees what was saved by the old one
+        FileCheckpointStore reopenedStore = new FileCheckpointStore(file);
+        assertThat(reopenedStore.load("SimpleBean"), is(equalTo(checkpoint2)));
+        assertThat(reopenedStore.load("OtherBean"), is(equalTo(checkpoint1)));
+        assertThat(reopenedStore.load("MissingBean"), is(nullValue()));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import com.force.simplejpa.domain.SimpleBean;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class IncrementalSynchronizerTest extends AbstractSimpleEntityManagerTest {
+
+    @Test
+    public void testInitialSynchronization() throws Exception {
+        when(mockConnector.doQueryAll(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("syncQueryResponse.json"));
+
+        MemoryCheckpointStore checkpointStore = new MemoryCheckpointStore();
+        RecordingSyncListener listener = new RecordingSyncListener();
+        int count = new IncrementalSynchronizer<SimpleBean>(em, SimpleBean.class, checkpointStore)
+            .setIncludeDeleted(true)
+            .setBatchSize(2)
+            .setSafetyLag(0)
+            .synchronize(listener);
+
+        assertThat(count, is(equalTo(3)));
+        assertThat(listener.upsertIds, is(equalTo(Collections.singletonList(Arrays.asList("a01i00000000001", "a01i00000000002")))));
+        assertThat(listener.deleteIds, is(equalTo(Collections.singletonList(Arrays.asList("a01i00000000003")))));
+        assertThat(checkpointStore.saveCount, is(equalTo(2)));
+        assertThat(
+            checkpointStore.checkpoints.get("SimpleBean"),
+            is(equalTo(new SyncCheckpoint(new Date(1364896800000L), "a01i00000000003"))));
+        verify(mockConnector).doQueryAll("SELECT Id,Name,Description,SystemModstamp,IsDeleted FROM SimpleBean ORDER BY SystemModstamp,Id", null);
+    }
+
+    @Test
+    public void testIncrementalSynchronization() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("syncQueryResponse.json"));
+
+        MemoryCheckpointStore checkpointStore = new MemoryCheckpointStore();
+        checkpointStore.checkpoints.put("SimpleBean", new SyncCheckpoint(new Date(922954496000L), "a01i00000000009"));
+        int count = new IncrementalSynchronizer<SimpleBean>(em, SimpleBean.class, checkpointStore).setSafetyLag(0).synchronize(new RecordingSyncListener());
+
+        assertThat(count, is(equalTo(3)));
+        assertThat(checkpointStore.saveCount, is(equalTo(1)));
+        verify(mockConnector).doQuery("SELECT Id,Name,Description,SystemModstamp FROM SimpleBean WHERE SystemModstamp > 1999-04-01T08:14:56Z OR (SystemModstamp = 1999-04-01T08:14:56Z AND Id > 'a01i00000000009') ORDER BY SystemModstamp,Id", null);
+    }
+
+    @Test
+    public void testSafetyLag() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("syncQueryResponse.json"));
+
+        MemoryCheckpointStore checkpointStore = new MemoryCheckpointStore();
+        checkpointStore.checkpoints.put("SimpleBean", new SyncCheckpoint(new Date(922954496000L), "a01i00000000009"));
+        long before = System.currentTimeMillis();
+        new IncrementalSynchronizer<SimpleBean>(em, SimpleBean.class, checkpointStore).setSafetyLag(60000).synchronize(new RecordingSyncListener());
+        long after = System.currentTimeMillis();
+
+        ArgumentCaptor<String> soql = ArgumentCaptor.forClass(String.class);
+        verify(mockConnector).doQuery(soql.capture(), anyMapOf(String.class, String.class));
+        String prefix = "SELECT Id,Name,Description,SystemModstamp FROM SimpleBean WHERE (SystemModstamp > 1999-04-01T08:14:56Z OR (SystemModstamp = 1999-04-01T08:14:56Z AND Id > 'a01i00000000009')) AND SystemModstamp < ";
+        String suffix = " ORDER BY SystemModstamp,Id";
+        assertThat(soql.getValue().startsWith(prefix), is(true));
+        assertThat(soql.getValue().endsWith(suffix), is(true));
+
+        // Only changes at least a minute old are asked for (the literal is only precise to the second)
+        String settled = soql.getValue().substring(prefix.length(), soql.getValue().length() - suffix.length());
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        long settledMillis = format.parse(settled).getTime();
+        assertThat(settledMillis > before - 60000 - 1000 && settledMillis <= after - 60000, is(true));
+    }
+
+    private static final class MemoryCheckpointStore implements CheckpointStore {
+        private final Map<String, SyncCheckpoint> checkpoints = new HashMap<String, SyncCheckpoint>();
+        private int saveCount;
+
+        @Override
+        public SyncCheckpoint load(String key) {
+            return checkpoints.get(key);
+        }
+
+        @Override
+        public void save(String key, SyncCheckpoint checkpoint) {
+            checkpoints.put(key, checkpoint);
+            saveCount++;
+        }
+    }
+
+    private static final class RecordingSyncListener implements SyncListener<SimpleBean> {
+        private final List<List<String>> upsertIds = new ArrayList<List<String>>();
+        private final List<List<String>> deleteIds = new ArrayList<List<String>>();
+
+        @Override
+        public void handleUpserts(List<SimpleBean> entities) {
+            List<String> ids = new ArrayList<String>();
+            for (SimpleBean entity : entities) {
+                ids.add(entity.getId());
+            }
+            upsertIds.add(ids);
+        }
+
+        @Override
+        public void handleDeletes(List<String> ids) {
+            deleteIds.add(ids);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ParallelQueryPageFetcherTest {
+
+    @Test
+    public void testRemainingLocators() throws Exception {
+        URI nextRecordsUrl = URI.create("/services/data/v28.0/query/01gD0000002HU6KIAW-2000");
+
+        assertThat(
+            ParallelQueryPageFetcher.getRemainingLocators(nextRecordsUrl, 7500),
+            is(equalTo(Arrays.asList(
+                URI.create("/services/data/v28.0/query/01gD0000002HU6KIAW-2000"),
+                URI.create("/services/data/v28.0/query/01gD0000002HU6KIAW-4000"),
+                URI.create("/services/data/v28.0/query/01gD0000002HU6KIAW-6000")))));
+    }
+
+    @Test
+    public void testRemainingLocatorsExactMultiple() throws Exception {
+        URI nextRecordsUrl = URI.create("/services/data/v28.0/query/01gD0000002HU6KIAW-2000");
+
+        assertThat(
+            ParallelQueryPageFetcher.getRemainingLocators(nextRecordsUrl, 4000),
+            is(equalTo(Arrays.asList(URI.create("/services/data/v28.0/query/01gD0000002HU6KIAW-2000")))));
+    }
+
+    @Test
+    public void testRemainingLocatorsUnexpectedForm() throws Exception {
+        URI nextRecordsUrl = URI.create("/services/data/v28.0/query/01gD0000002HU6KIAW");
+
+        assertThat(
+            ParallelQueryPageFetcher.getRemainingLocators(nextRecordsUrl, 7500),
+            is(equalTo(Arrays.asList(nextRecordsUrl))));
+    }
+
+    @Test
+    public void testRemainingLocatorsUnknownTotalSize() throws Exception {
+        URI nextRecordsUrl = URI.create("/services/data/v28.0/query/01gD0000002HU6KIAW-2000");
+
+        assertThat(
+            ParallelQueryPageFetcher.getRemainingLocators(nextRecordsUrl, -1),
+            is(equalTo(Arrays.asList(nextRecordsUrl))));
+    }
+
+    @Test
+    public void testReadAheadIsBounded() throws Exception {
+        RestConnector mockConnector = mock(RestConnector.class);
+        when(mockConnector.doGet(any(URI.class), anyMapOf(String.class, String.class))).thenAnswer(new Answer<InputStream>() {
+            @Override
+            public InputStream answer(InvocationOnMock invocation) throws Throwable {
+                return new ByteArrayInputStream(invocation.getArguments()[0].toString().getBytes("UTF-8"));
+            }
+        });
+
+        // Page requests complete as soon as they are issued, so only the window holds them back
+        ParallelQueryPageFetcher fetcher =
+            new ParallelQueryPageFetcher(mockConnector, null, MoreExecutors.sameThreadExecutor(), 1);
+        fetcher.pageLocated(URI.create("/services/data/v28.0/query/01gD0000002HU6KIAW-2000"), 12000);
+
+        verify(mockConnector).doGet(URI.create("/services/data/v28.0/query/01gD0000002HU6KIAW-2000"), null);
+        verify(mockConnector).doGet(URI.create("/services/data/v28.0/query/01gD0000002HU6KIAW-4000"), null);
+        verify(mockConnector, never()).doGet(URI.create("/services/data/v28.0/query/01gD0000002HU6KIAW-6000"), null);
+
+        fetcher.fetchPage(URI.create("/services/data/v28.0/query/01gD0000002HU6KIAW-2000"));
+
+        verify(mockConnector).doGet(URI.create("/services/data/v28.0/query/01gD0000002HU6KIAW-6000"), null);
+        verify(mockConnector, never()).doGet(URI.create("/services/data/v28.0/query/01gD0000002HU6KIAW-8000"), null);
+        fetcher.close();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import com.force.simplejpa.domain.SimpleBean;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A simple benchmark which compares the allocation per row of the original tree-based decoding of query results with
+ * the streaming decoding done by {@link QueryResultIterator}.
+ * <p/>
+ * The payload is a single page of records in the same form as <code>simpleQueryResponse.json</code>. This is not run
+ * as part of the unit tests. Run it by hand with the test classpath:
+ * <pre>
+ * java -cp ... com.force.simplejpa.QueryDecodingBenchmark [rowsPerPage] [iterations]
+ * </pre>
+ * Allocation is measured with the HotSpot specific extension of {@link java.lang.management.ThreadMXBean}.
+ */
+public final class QueryDecodingBenchmark {
+    private static final EntityMappingContext mappingContext = new EntityMappingContext();
+
+    private QueryDecodingBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rowsPerPage = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        byte[] page = buildPage(rowsPerPage);
+
+        // Warm up both paths so that we measure steady state behavior.
+        for (int i = 0; i < iterations; i++) {
+            decodeWithTree(page);
+            decodeWithStream(page);
+        }
+
+        long treeBytes = measure(page, iterations, true);
+        long streamBytes = measure(page, iterations, false);
+        long rows = (long) rowsPerPage * iterations;
+
+        System.out.println(String.format("Rows per page:          %d", rowsPerPage));
+        System.out.println(String.format("Tree decoding:          %d bytes/row", treeBytes / rows));
+        System.out.println(String.format("Streaming decoding:     %d bytes/row", streamBytes / rows));
+        System.out.println(
+            String.format("Allocation reduction:   %.1f%%", 100.0 * (treeBytes - streamBytes) / treeBytes));
+    }
+
+    private static long measure(byte[] page, int iterations, boolean useTree) throws Exception {
+        com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        long start = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            if (useTree) {
+                decodeWithTree(page);
+            } else {
+                decodeWithStream(page);
+            }
+        }
+        return threadBean.getThreadAllocatedBytes(threadId) - start;
+    }
+
+    /**
+     * Decodes a page the way query results were originally decoded: the whole page is read into a tree and each record
+     * is then converted from the tree into a bean.
+     */
+    private static List<SimpleBean> decodeWithTree(byte[] page) throws Exception {
+        ObjectMapper objectMapper = mappingContext.getObjectMapper();
+        List<SimpleBean> results = new ArrayList<SimpleBean>();
+        JsonNode rootNode = objectMapper.readTree(new ByteArrayInputStream(page));
+        for (JsonNode node : rootNode.get("records")) {
+            results.add(objectMapper.readValue(node, SimpleBean.class));
+        }
+        return results;
+    }
+
+    private static List<SimpleBean> decodeWithStream(byte[] page) throws Exception {
+        List<SimpleBean> results = new ArrayList<SimpleBean>();
+        CloseableIterator<SimpleBean> iterator =
+            new QueryResultIterator<SimpleBean>(
+                new NoMorePagesFetcher(), mappingContext, SimpleBean.class, null, new ByteArrayInputStream(page));
+        try {
+            while (iterator.hasNext()) {
+                results.add(iterator.next());
+            }
+        } finally {
+            iterator.close();
+        }
+        return results;
+    }
+
+    private static byte[] buildPage(int rowsPerPage) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"done\":true,\"totalSize\":").append(rowsPerPage).append(",\"records\":[");
+        for (int i = 0; i < rowsPerPage; i++) {
+            if (i > 0)
+                sb.append(',');
+            String id = String.format("a01i%011d", i);
+            sb.append("{\"attributes\":{\"type\":\"SimpleBean\",\"url\":\"/services/data/v28.0/sobjects/SimpleBean/")
+                .append(id).append("\"},\"Id\":\"").append(id)
+                .append("\",\"Name\":\"Name ").append(i)
+                .append("\",\"Description\":\"Description ").append(i).append("\"}");
+        }
+        sb.append("]}");
+        return sb.toString().getBytes("UTF-8");
+    }
+
+    private static final class NoMorePagesFetcher implements QueryPageFetcher {
+        @Override
+        public void pageLocated(URI nextRecordsUrl, int totalSize) {
+        }
+
+        @Override
+        public InputStream fetchPage(URI nextRecordsUrl) {
+            throw new IllegalStateException("The benchmark payload has just one page");
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import com.force.simplejpa.domain.MetricBean;
+import com.force.simplejpa.domain.SimpleBean;
+import org.junit.Test;
+
+import java.net.URI;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ResultColumnsTest extends AbstractSimpleEntityManagerTest {
+
+    @Test
+    public void testResultColumns() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("metricQueryResponse1.json"));
+        when(mockConnector.doGet(any(URI.class), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("metricQueryResponse2.json"));
+
+        ResultColumns columns = em.createQuery("select * from MetricBean", MetricBean.class).getResultColumns();
+
+        assertThat(columns.getRowCount(), is(equalTo(3)));
+        assertThat(columns.getColumnNames(), contains("Id", "Stage", "Quantity", "Views", "Amount", "Active"));
+
+        assertThat(columns.getIntColumn("Quantity"), is(equalTo(new int[] {3, 7, 1})));
+        assertThat(columns.getLongColumn("Views"), is(equalTo(new long[] {5000000000L, 0, 42})));
+        assertThat(columns.getDoubleColumn("Amount"), is(equalTo(new double[] {12.5, 100, 0.25})));
+        assertThat(columns.getBooleanColumn("Active"), is(equalTo(new boolean[] {true, false, false})));
+
+        assertThat(columns.getColumnType("Stage"), is(equalTo((Object) String.class)));
+        assertThat(columns.getStringCodes("Stage"), is(equalTo(new int[] {0, 1, 0})));
+        assertThat(columns.getStringDictionary("Stage"), contains("Open", "Closed"));
+        assertThat(columns.getString("Id", 2), is(equalTo("a03i00000000003")));
+
+        assertThat(columns.isNull("Views", 0), is(false));
+        assertThat(columns.isNull("Views", 1), is(true));
+        assertThat(columns.isNull("Active", 2), is(true));
+
+        verify(mockConnector).doQuery("select Id,Stage,Quantity,Views,Amount,Active from MetricBean", null);
+    }
+
+    @Test
+    public void testEmptyResultColumns() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("countQueryResponse.json"));
+
+        ResultColumns columns = em.createQuery("select * from MetricBean", MetricBean.class).getResultColumns();
+
+        assertThat(columns.getRowCount(), is(equalTo(0)));
+        assertThat(columns.getIntColumn("Quantity").length, is(equalTo(0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongColumnType() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("metricQueryResponse2.json"));
+
+        em.createQuery("select * from MetricBean", MetricBean.class).getResultColumns().getIntColumn("Amount");
+    }
+
+    @Test
+    public void testIntColumnOverflow() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("metricOverflowQueryResponse.json"));
+
+        ResultColumns columns = em.createQuery("select * from MetricBean", MetricBean.class).getResultColumns();
+
+        assertThat(columns.getIntColumn("Quantity"), is(equalTo(new int[] {Integer.MAX_VALUE})));
+    }
+
+    @Test
+    public void testAggregateResultColumns() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("aggregateQueryResponse.json"));
+
+        ResultColumns columns =
+            em.createQuery("select count(Id),Name FROM SimpleBean GROUP BY Name", SimpleBean.class).getAggregateResultColumns();
+
+        assertThat(columns.getRowCount(), is(equalTo(2)));
+        assertThat(columns.getColumnNames(), contains("expr0", "Name"));
+        assertThat(columns.getLongColumn("expr0"), is(equalTo(new long[] {1, 1})));
+        assertThat(columns.getStringDictionary("Name"), contains("Name 1", "Name 2"));
+    }
+
+    @Test
+    public void testAggregateResultColumnTypes() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("aggregateSumQueryResponse.json"));
+
+        ResultColumns columns =
+            em.createQuery("select Stage,sum(Amount),max(Views) maxViews FROM MetricBean GROUP BY Stage", MetricBean.class).getAggregateResultColumns();
+
+        assertThat(columns.getColumnNames(), contains("Stage", "expr0", "maxViews"));
+        assertThat(columns.getDoubleColumn("expr0"), is(equalTo(new double[] {100, 12.5, 7})));
+        assertThat(columns.getLongColumn("maxViews"), is(equalTo(new long[] {0, 42, 9})));
+        assertThat(columns.isNull("maxViews", 0), is(true));
+        assertThat(columns.getString("Stage", 1), is(equalTo("Closed")));
+        assertThat(columns.isNull("Stage", 2), is(true));
+    }
+}
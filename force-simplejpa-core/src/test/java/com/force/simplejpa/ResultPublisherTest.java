@@ -0,0 +1,166 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import com.force.simplejpa.domain.SimpleBean;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ResultPublisherTest extends AbstractSimpleEntityManagerTest {
+    @Before
+    public void initializeSameThreadEntityManager() {
+        // Delivery happens right away on the requesting thread, which keeps the tests deterministic
+        em = new RestSimpleEntityManager(mockConnector, MoreExecutors.sameThreadExecutor());
+    }
+
+    @Test
+    public void testPagesFollowDemand() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("pagedQueryResponse1.json"));
+        when(mockConnector.doGet(any(URI.class), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("pagedQueryResponse2.json"));
+
+        RecordingSubscriber<SimpleBean> subscriber = new RecordingSubscriber<SimpleBean>();
+        em.createQuery("select * from SimpleBean", SimpleBean.class).getResultPublisher().subscribe(subscriber);
+        verify(mockConnector, never()).doQuery(anyString(), anyMapOf(String.class, String.class));
+
+        subscriber.subscription.request(2);
+        assertThat(subscriber.results.size(), is(equalTo(2)));
+        assertThat(subscriber.completed, is(false));
+        verify(mockConnector, never()).doGet(any(URI.class), anyMapOf(String.class, String.class));
+
+        subscriber.subscription.request(5);
+        assertThat(subscriber.results.size(), is(equalTo(3)));
+        assertThat(subscriber.results.get(2).getId(), is(equalTo("a01i00000000003")));
+        assertThat(subscriber.completed, is(true));
+        assertThat(subscriber.error, is(nullValue()));
+        verify(mockConnector).doGet(URI.create("/services/data/v28.0/query/01gi0000000TEST-2"), null);
+    }
+
+    @Test
+    public void testCancelStopsDelivery() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("pagedQueryResponse1.json"));
+
+        RecordingSubscriber<SimpleBean> subscriber = new RecordingSubscriber<SimpleBean>();
+        em.createQuery("select * from SimpleBean", SimpleBean.class).getResultPublisher().subscribe(subscriber);
+        subscriber.subscription.request(1);
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(10);
+
+        assertThat(subscriber.results.size(), is(equalTo(1)));
+        assertThat(subscriber.completed, is(false));
+        verify(mockConnector, never()).doGet(any(URI.class), anyMapOf(String.class, String.class));
+    }
+
+    @Test
+    public void testInvalidRequest() throws Exception {
+        RecordingSubscriber<SimpleBean> subscriber = new RecordingSubscriber<SimpleBean>();
+        em.createQuery("select * from SimpleBean", SimpleBean.class).getResultPublisher().subscribe(subscriber);
+        subscriber.subscription.request(0);
+
+        assertThat(subscriber.error, is(instanceOf(IllegalArgumentException.class)));
+        verify(mockConnector, never()).doQuery(anyString(), anyMapOf(String.class, String.class));
+    }
+
+    @Test
+    public void testFailureReportedToSubscriber() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenThrow(new EntityRequestException("Query failed"));
+
+        RecordingSubscriber<SimpleBean> subscriber = new RecordingSubscriber<SimpleBean>();
+        em.createQuery("select * from SimpleBean", SimpleBean.class).getResultPublisher().subscribe(subscriber);
+        subscriber.subscription.request(1);
+
+        assertThat(subscriber.error, is(instanceOf(EntityRequestException.class)));
+        assertThat(subscriber.results.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testQueryNotTouchedAfterPublisherCreated() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("simpleQueryResponse.json"));
+
+        SimpleTypedQuery<SimpleBean> query = em.createQuery("select * from SimpleBean", SimpleBean.class);
+        ResultPublisher<SimpleBean> publisher = query.getResultPublisher();
+        query.setMaxResults(1);
+
+        RecordingSubscriber<SimpleBean> subscriber = new RecordingSubscriber<SimpleBean>();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(10);
+
+        assertThat(subscriber.results.size(), is(equalTo(2)));
+        verify(mockConnector).doQuery("select Id,Name,Description from SimpleBean", null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testKeysetPaginationNotSupported() throws Exception {
+        em.createQuery("select * from SimpleBean", SimpleBean.class).setKeysetPagination("Name").getResultPublisher();
+    }
+
+    @Test
+    public void testSubscriberFailureNotReportedToSubscriber() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("simpleQueryResponse.json"));
+
+        RecordingSubscriber<SimpleBean> subscriber = new RecordingSubscriber<SimpleBean>() {
+            @Override
+            public void onComplete() {
+                super.onComplete();
+                throw new IllegalStateException("Subscriber failed");
+            }
+        };
+        em.createQuery("select * from SimpleBean", SimpleBean.class).getResultPublisher().subscribe(subscriber);
+        try {
+            subscriber.subscription.request(10);
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            // The same thread executor hands the failure back
+        }
+
+        assertThat(subscriber.completed, is(true));
+        assertThat(subscriber.error, is(nullValue()));
+    }
+
+    private static class RecordingSubscriber<T> implements ResultSubscriber<T> {
+        private final List<T> results = new ArrayList<T>();
+        private ResultSubscription subscription;
+        private boolean completed;
+        private Throwable error;
+
+        @Override
+        public void onSubscribe(ResultSubscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(T result) {
+            results.add(result);
+        }
+
+        @Override
+        public void onError(Throwable cause) {
+            error = cause;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}
@@ -7,30 +7,51 @@ package com.force.simplejpa;
 
 import com.force.simplejpa.domain.DateTimeBean;
 import com.force.simplejpa.domain.InsertableUpdatableBean;
+import com.force.simplejpa.domain.LazyRelationshipBean;
 import com.force.simplejpa.domain.SimpleBean;
+import com.force.simplejpa.domain.SimpleBeanSummary;
 import com.force.simplejpa.domain.SimpleContainerBean;
 import com.force.simplejpa.domain.StandardFieldBean;
 import com.force.simplejpa.domain.UserMoniker;
+import org.apache.commons.lang.StringUtils;
 import org.codehaus.jackson.JsonNode;
 import org.joda.time.DateMidnight;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.junit.Test;
 
+import javax.persistence.NonUniqueResultException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -197,7 +218,7 @@ public class SimpleEntityManagerTest extends AbstractSimpleEntityManagerTest {
 
     @Test
     public void testFindSuccess() throws Exception {
-        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("findSuccessResponse.json"));
+        when(mockConnector.doRetrieve(anyString(), anyString(), anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("retrieveSuccessResponse.json"));
 
         SimpleBean bean1 = em.find(SimpleBean.class, "a01i00000000001AAC");
 
@@ -208,6 +229,60 @@ public class SimpleEntityManagerTest extends AbstractSimpleEntityManagerTest {
         assertThat(bean1.getId(), is(equalTo("a01i00000000001")));
         assertThat(bean1.getName(), is(equalTo("Name 1")));
         assertThat(bean1.getDescription(), is(equalTo("Description 1")));
+
+        verify(mockConnector).doRetrieve("SimpleBean", "a01i00000000001AAC", "Id,Name,Description", null);
+    }
+
+    @Test
+    public void testFindNotFound() throws Exception {
+        when(mockConnector.doRetrieve(anyString(), anyString(), anyString(), anyMapOf(String.class, String.class))).thenReturn(null);
+
+        SimpleBean bean1 = em.find(SimpleBean.class, "a01i00000000001AAC");
+
+        assertThat(bean1, is(nullValue()));
+    }
+
+    @Test(expected = EntityRequestException.class)
+    public void testFindInvalidType() throws Exception {
+        when(mockConnector.doRetrieve(anyString(), anyString(), anyString(), anyMapOf(String.class, String.class))).thenThrow(new EntityRequestException("Retrieve failed: The requested resource does not exist"));
+
+        em.find(SimpleBean.class, "a01i00000000001AAC"); // A 404 for an unknown type isn't a missing entity
+    }
+
+    @Test
+    public void testFindWithRelationships() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("simpleSubqueryResponse.json"));
+
+        SimpleContainerBean bean1 = em.find(SimpleContainerBean.class, "a01i00000000003");
+
+        assertThat(bean1.getRelatedBeans().size(), is(equalTo(2)));
+        verify(mockConnector).doQuery("SELECT Id,(SELECT Id,Name,Description from RelatedBeans),(SELECT Id,Name,Description from MoreRelatedBeans) FROM SimpleContainerBean WHERE Id = 'a01i00000000003' LIMIT 1", null);
+    }
+
+    @Test
+    public void testQueryWithParameter() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("simpleQueryResponse.json"));
+
+        List<SimpleBean> beans =
+            em.createQuery("select * from SimpleBean where Name in :names", SimpleBean.class)
+                .setParameter("names", Arrays.asList("Name 1", "Name 2"))
+                .getResultList();
+
+        assertThat(beans.size(), is(equalTo(2)));
+        verify(mockConnector).doQuery("select Id,Name,Description from SimpleBean where Name in ('Name 1','Name 2')", null);
+    }
+
+    @Test
+    public void testProjectionQuery() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("simpleQueryResponse.json"));
+
+        List<SimpleBeanSummary> summaries =
+            em.createQuery("select * from SimpleBean", SimpleBean.class).getResultList(SimpleBeanSummary.class);
+
+        assertThat(summaries.size(), is(equalTo(2)));
+        assertThat(summaries.get(0).getId(), is(equalTo("a01i00000000001")));
+        assertThat(summaries.get(0).getName(), is(equalTo("Name 1")));
+        verify(mockConnector).doQuery("select Id,Name from SimpleBean", null);
     }
 
     @Test
@@ -233,6 +308,317 @@ public class SimpleEntityManagerTest extends AbstractSimpleEntityManagerTest {
         assertThat(bean2.getDescription(), is(equalTo("Description 2")));
     }
 
+    @Test
+    public void testPagedQuery() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("pagedQueryResponse1.json"));
+        when(mockConnector.doGet(any(URI.class), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("pagedQueryResponse2.json"));
+
+        List<SimpleBean> beans = em.createQuery("select * from SimpleBean", SimpleBean.class).getResultList();
+
+        assertThat(beans.size(), is(equalTo(3)));
+        assertThat(beans.get(0).getId(), is(equalTo("a01i00000000001")));
+        assertThat(beans.get(1).getId(), is(equalTo("a01i00000000002")));
+        assertThat(beans.get(2).getId(), is(equalTo("a01i00000000003")));
+
+        verify(mockConnector).doGet(URI.create("/services/data/v28.0/query/01gi0000000TEST-2"), null);
+    }
+
+    @Test
+    public void testQueryWithFetchSize() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("pagedQueryResponse1.json"));
+        when(mockConnector.doGet(any(URI.class), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("pagedQueryResponse2.json"));
+
+        List<SimpleBean> beans = em.createQuery("select * from SimpleBean", SimpleBean.class).setFetchSize(500).getResultList();
+
+        assertThat(beans.size(), is(equalTo(3)));
+        Map<String, String> expectedHeaders = Collections.singletonMap("Sforce-Query-Options", "batchSize=500");
+        verify(mockConnector).doQuery("select Id,Name,Description from SimpleBean", expectedHeaders);
+        verify(mockConnector).doGet(URI.create("/services/data/v28.0/query/01gi0000000TEST-2"), expectedHeaders);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testQueryWithFetchSizeTooSmall() throws Exception {
+        em.createQuery("select * from SimpleBean", SimpleBean.class).setFetchSize(100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testQueryWithFetchSizeTooLarge() throws Exception {
+        em.createQuery("select * from SimpleBean", SimpleBean.class).setFetchSize(2001);
+    }
+
+    @Test
+    public void testKeysetPagination() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class)))
+            .thenReturn(getResourceStream("simpleQueryResponse.json"), getResourceStream("simpleQueryResponse.json"));
+
+        SimpleTypedQuery<SimpleBean> query = em.createQuery("select * from SimpleBean", SimpleBean.class).setKeysetPagination("Id").setMaxResults(2);
+        assertThat(query.getResultList().size(), is(equalTo(2)));
+        assertThat(query.setFirstResult(2).getResultList().size(), is(equalTo(2)));
+
+        verify(mockConnector).doQuery("select Id,Name,Description from SimpleBean ORDER BY Id LIMIT 2", null);
+        verify(mockConnector).doQuery("select Id,Name,Description from SimpleBean WHERE Id > 'a01i00000000002' ORDER BY Id LIMIT 2", null);
+    }
+
+    @Test
+    public void testKeysetPaginationSkipAhead() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class)))
+            .thenReturn(getResourceStream("simpleQueryResponse.json"), getResourceStream("simpleQueryResponse.json"));
+
+        em.createQuery("select * from SimpleBean", SimpleBean.class).setKeysetPagination("Id").setFirstResult(2).setMaxResults(2).getResultList();
+
+        verify(mockConnector).doQuery("SELECT Id from SimpleBean ORDER BY Id LIMIT 2", null);
+        verify(mockConnector).doQuery("select Id,Name,Description from SimpleBean WHERE Id > 'a01i00000000002' ORDER BY Id LIMIT 2", null);
+    }
+
+    @Test
+    public void testKeysetPaginationWithDateKey() throws Exception {
+        try {
+            em.createQuery("select * from DateTimeBean", DateTimeBean.class).setKeysetPagination("JavaDateAndTime").getResultList();
+            fail("Didn't get expected exception");
+        } catch (IllegalArgumentException e) {
+            // Expected because a date key can't be bound without knowing whether it is a date or a dateTime
+        }
+        verify(mockConnector, never()).doQuery(anyString(), anyMapOf(String.class, String.class));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testKeysetPaginationWithUnmappedKey() throws Exception {
+        em.createQuery("select * from SimpleBean", SimpleBean.class).setKeysetPagination("CreatedDate").getResultList();
+    }
+
+    @Test
+    public void testKeysetPaginationWithResultClassLackingKey() throws Exception {
+        try {
+            em.createQuery("select * from SimpleBean", SimpleBean.class).setKeysetPagination("Description").getResultList(SimpleBeanSummary.class);
+            fail("Didn't get expected exception");
+        } catch (IllegalArgumentException e) {
+            // Expected because the keys couldn't be read from the rows
+        }
+        verify(mockConnector, never()).doQuery(anyString(), anyMapOf(String.class, String.class));
+    }
+
+    @Test
+    public void testKeysetPaginationAddsKeyToSelectList() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("simpleQueryResponse.json"));
+
+        em.createQuery("select Name from SimpleBean", SimpleBean.class).setKeysetPagination("Id").setMaxResults(2).getResultList();
+
+        verify(mockConnector).doQuery("select Id, Name from SimpleBean ORDER BY Id LIMIT 2", null);
+    }
+
+    @Test
+    public void testKeysetIteratorClosedWhenKeyIsMissing() throws Exception {
+        final AtomicBoolean closed = new AtomicBoolean();
+        InputStream responseStream = new FilterInputStream(getResourceStream("aggregateQueryResponse.json")) {
+            @Override
+            public void close() throws IOException {
+                closed.set(true);
+                super.close();
+            }
+        };
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(responseStream);
+
+        CloseableIterator<JsonNode> iterator = em.createQuery("select * from SimpleBean", SimpleBean.class).setKeysetPagination("Id").iterate(JsonNode.class);
+        iterator.next();
+        iterator.close(); // The row has no Id to record, which mustn't stop the response from being closed
+
+        assertThat(closed.get(), is(true));
+    }
+
+    @Test
+    public void testIterate() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("pagedQueryResponse1.json"));
+        when(mockConnector.doGet(any(URI.class), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("pagedQueryResponse2.json"));
+
+        CloseableIterator<SimpleBean> iterator = em.createQuery("select * from SimpleBean", SimpleBean.class).iterate();
+        try {
+            assertThat(iterator.next().getId(), is(equalTo("a01i00000000001")));
+            assertThat(iterator.next().getId(), is(equalTo("a01i00000000002")));
+            verify(mockConnector, never()).doGet(any(URI.class), anyMapOf(String.class, String.class));
+
+            assertThat(iterator.next().getId(), is(equalTo("a01i00000000003")));
+            assertThat(iterator.hasNext(), is(false));
+            verify(mockConnector).doGet(URI.create("/services/data/v28.0/query/01gi0000000TEST-2"), null);
+        } finally {
+            iterator.close();
+        }
+    }
+
+    @Test
+    public void testIterateClosedEarly() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("pagedQueryResponse1.json"));
+
+        CloseableIterator<SimpleBean> iterator = em.createQuery("select * from SimpleBean", SimpleBean.class).iterate();
+        assertThat(iterator.next().getId(), is(equalTo("a01i00000000001")));
+        iterator.close();
+
+        assertThat(iterator.hasNext(), is(false));
+        verify(mockConnector, never()).doGet(any(URI.class), anyMapOf(String.class, String.class));
+    }
+
+    @Test
+    public void testPagedResultList() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("pagedQueryResponse1.json"));
+        when(mockConnector.doGet(any(URI.class), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("pagedQueryResponse2.json"));
+
+        PagedResultList<SimpleBean> beans = em.createQuery("select * from SimpleBean", SimpleBean.class).getPagedResultList();
+        try {
+            assertThat(beans.getTotalSizeHint(), is(equalTo(3)));
+            assertThat(beans.get(1).getId(), is(equalTo("a01i00000000002")));
+            verify(mockConnector, never()).doGet(any(URI.class), anyMapOf(String.class, String.class));
+
+            assertThat(beans.get(2).getId(), is(equalTo("a01i00000000003")));
+            verify(mockConnector).doGet(URI.create("/services/data/v28.0/query/01gi0000000TEST-2"), null);
+        } finally {
+            beans.close();
+        }
+    }
+
+    @Test
+    public void testPagedResultListSizeReadsRemainingPages() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("pagedQueryResponse1.json"));
+        when(mockConnector.doGet(any(URI.class), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("pagedQueryResponse2.json"));
+
+        PagedResultList<SimpleBean> beans = em.createQuery("select * from SimpleBean", SimpleBean.class).getPagedResultList();
+        assertThat(beans.size(), is(equalTo(3)));
+        assertThat(beans.getLoadedSize(), is(equalTo(3)));
+        assertThat(beans.get(beans.size() - 1).getId(), is(equalTo("a01i00000000003")));
+        verify(mockConnector).doGet(URI.create("/services/data/v28.0/query/01gi0000000TEST-2"), null);
+    }
+
+    @Test
+    public void testPagedResultListClosedEarly() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("pagedQueryResponse1.json"));
+
+        PagedResultList<SimpleBean> beans = em.createQuery("select * from SimpleBean", SimpleBean.class).getPagedResultList();
+        for (SimpleBean bean : beans) {
+            if (bean.getId().equals("a01i00000000001"))
+                break;
+        }
+        beans.close();
+
+        assertThat(beans.getLoadedSize(), is(equalTo(1)));
+        assertThat(beans.size(), is(equalTo(1)));
+        verify(mockConnector, never()).doGet(any(URI.class), anyMapOf(String.class, String.class));
+    }
+
+    @Test
+    public void testIterateWithPrefetch() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("pagedQueryResponse1.json"));
+        when(mockConnector.doGet(any(URI.class), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("pagedQueryResponse2.json"));
+
+        CloseableIterator<SimpleBean> iterator =
+            em.createQuery("select * from SimpleBean", SimpleBean.class).setPrefetchDepth(1).iterate();
+        try {
+            // The second page is requested in the background before the first page has been consumed
+            verify(mockConnector, timeout(5000)).doGet(URI.create("/services/data/v28.0/query/01gi0000000TEST-2"), null);
+
+            assertThat(iterator.next().getId(), is(equalTo("a01i00000000001")));
+            assertThat(iterator.next().getId(), is(equalTo("a01i00000000002")));
+            assertThat(iterator.next().getId(), is(equalTo("a01i00000000003")));
+            assertThat(iterator.hasNext(), is(false));
+        } finally {
+            iterator.close();
+        }
+    }
+
+    @Test
+    public void testQueryWithFetchParallelism() throws Exception {
+        URI page2 = URI.create("/services/data/v28.0/query/01gi0000000TEST-2");
+        URI page3 = URI.create("/services/data/v28.0/query/01gi0000000TEST-4");
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("parallelQueryResponse1.json"));
+        when(mockConnector.doGet(eq(page2), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("parallelQueryResponse2.json"));
+        when(mockConnector.doGet(eq(page3), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("parallelQueryResponse3.json"));
+
+        CloseableIterator<SimpleBean> iterator =
+            em.createQuery("select * from SimpleBean", SimpleBean.class).setFetchParallelism(2).iterate();
+        try {
+            // All remaining pages are requested as soon as the first page is received. They may go in either order.
+            verify(mockConnector, timeout(5000).times(2)).doGet(any(URI.class), anyMapOf(String.class, String.class));
+
+            for (int i = 1; i <= 5; i++) {
+                assertThat(iterator.next().getId(), is(equalTo("a01i0000000000" + i)));
+            }
+            assertThat(iterator.hasNext(), is(false));
+            verify(mockConnector).doGet(page2, null);
+            verify(mockConnector).doGet(page3, null);
+        } finally {
+            iterator.close();
+        }
+    }
+
+    @Test
+    public void testForEachBatch() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("pagedQueryResponse1.json"));
+        when(mockConnector.doGet(any(URI.class), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("pagedQueryResponse2.json"));
+
+        final List<List<String>> batches = new ArrayList<List<String>>();
+        em.createQuery("select * from SimpleBean", SimpleBean.class).forEachBatch(2, new BatchHandler<SimpleBean>() {
+            @Override
+            public void handleBatch(List<SimpleBean> batch) {
+                List<String> ids = new ArrayList<String>();
+                for (SimpleBean bean : batch) {
+                    ids.add(bean.getId());
+                }
+                batches.add(ids);
+            }
+        });
+
+        assertThat(batches.size(), is(equalTo(2)));
+        assertThat(batches.get(0), is(equalTo(Arrays.asList("a01i00000000001", "a01i00000000002"))));
+        assertThat(batches.get(1), is(equalTo(Arrays.asList("a01i00000000003"))));
+    }
+
+    @Test
+    public void testSingleResult() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("findSuccessResponse.json"));
+
+        SimpleBean bean = em.createQuery("select * from SimpleBean where Name = 'Name 1'", SimpleBean.class).getSingleResult();
+
+        assertThat(bean.getId(), is(equalTo("a01i00000000001")));
+        verify(mockConnector).doQuery("select Id,Name,Description from SimpleBean where Name = 'Name 1' LIMIT 2", null);
+    }
+
+    @Test
+    public void testSingleResultWithTemplateLimitAndForView() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class)))
+            .thenReturn(getResourceStream("findSuccessResponse.json"), getResourceStream("findSuccessResponse.json"));
+
+        SimpleTypedQuery<SimpleBean> query = em.createQuery("select * from SimpleBean order by Name limit 1 for view", SimpleBean.class);
+        query.getSingleResult();
+
+        verify(mockConnector).doQuery("select Id,Name,Description from SimpleBean order by Name LIMIT 1 for view", null);
+
+        // The limit of the single result isn't left behind on the query
+        query.getResultList();
+        verify(mockConnector).doQuery("select Id,Name,Description from SimpleBean order by Name limit 1 for view", null);
+    }
+
+    @Test
+    public void testSingleResultNotUnique() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("pagedQueryResponse1.json"));
+
+        try {
+            em.createQuery("select * from SimpleBean", SimpleBean.class).getSingleResult();
+            fail("Didn't get expected exception");
+        } catch (NonUniqueResultException e) {
+            // Expected
+        }
+
+        verify(mockConnector).doQuery("select Id,Name,Description from SimpleBean LIMIT 2", null);
+        verify(mockConnector, never()).doGet(any(URI.class), anyMapOf(String.class, String.class));
+    }
+
+    @Test
+    public void testResultCount() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("countQueryResponse.json"));
+
+        long count = em.createQuery("select * from SimpleBean order by Name", SimpleBean.class).setMaxResults(10).getResultCount();
+
+        assertThat(count, is(equalTo(42L)));
+        verify(mockConnector).doQuery("SELECT COUNT() from SimpleBean", null);
+    }
+
     @Test
     public void testSubquery() throws Exception {
         when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("simpleSubqueryResponse.json"));
@@ -276,6 +662,136 @@ public class SimpleEntityManagerTest extends AbstractSimpleEntityManagerTest {
         assertThat(bean4.getDescription(), is(equalTo("Description 4")));
     }
 
+    @Test
+    public void testPagedSubquery() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("pagedSubqueryResponse.json"));
+        when(mockConnector.doGet(eq(URI.create("/services/data/v28.0/query/01gi0000000SUB1-1")), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("subqueryPageResponse1.json"));
+        when(mockConnector.doGet(eq(URI.create("/services/data/v28.0/query/01gi0000000SUB2-1")), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("subqueryPageResponse2.json"));
+        when(mockConnector.doGet(eq(URI.create("/services/data/v28.0/query/01gi0000000SUB2-2")), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("subqueryPageResponse3.json"));
+
+        List<SimpleContainerBean> containerBeans =
+            em.createQuery("select * from SimpleContainerBean", SimpleContainerBean.class).getResultList();
+
+        assertThat(containerBeans.size(), is(equalTo(1)));
+
+        SimpleContainerBean containerBean1 = containerBeans.get(0);
+        assertThat(containerBean1.getRelatedBeans().size(), is(equalTo(2)));
+        assertThat(containerBean1.getRelatedBeans().get(0).getId(), is(equalTo("a01i00000000001")));
+        assertThat(containerBean1.getRelatedBeans().get(1).getId(), is(equalTo("a01i00000000002")));
+
+        assertThat(containerBean1.getMoreRelatedBeans().length, is(equalTo(3)));
+        assertThat(containerBean1.getMoreRelatedBeans()[0].getId(), is(equalTo("a01i00000000003")));
+        assertThat(containerBean1.getMoreRelatedBeans()[1].getId(), is(equalTo("a01i00000000004")));
+        assertThat(containerBean1.getMoreRelatedBeans()[2].getId(), is(equalTo("a01i00000000005")));
+    }
+
+    @Test
+    public void testPagedSubqueryOnCallingThread() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("pagedSubqueryResponse.json"));
+        when(mockConnector.doGet(eq(URI.create("/services/data/v28.0/query/01gi0000000SUB1-1")), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("subqueryPageResponse1.json"));
+        when(mockConnector.doGet(eq(URI.create("/services/data/v28.0/query/01gi0000000SUB2-1")), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("subqueryPageResponse2.json"));
+        when(mockConnector.doGet(eq(URI.create("/services/data/v28.0/query/01gi0000000SUB2-2")), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("subqueryPageResponse3.json"));
+
+        // Without a fetch parallelism nothing should be handed to the executor, so one which rejects all work proves it
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        em = new RestSimpleEntityManager(mockConnector, executor);
+
+        List<SimpleContainerBean> containerBeans =
+            em.createQuery("select * from SimpleContainerBean", SimpleContainerBean.class).getResultList();
+
+        assertThat(containerBeans.get(0).getRelatedBeans().size(), is(equalTo(2)));
+        assertThat(containerBeans.get(0).getMoreRelatedBeans().length, is(equalTo(3)));
+    }
+
+    @Test
+    public void testSubqueryWithFetchDepth() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("simpleQueryResponse.json"));
+
+        em.createQuery("select * from SimpleContainerBean", SimpleContainerBean.class).setFetchDepth(0).getResultList();
+
+        verify(mockConnector).doQuery("select Id from SimpleContainerBean", null);
+    }
+
+    @Test
+    public void testFindAll() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("simpleQueryResponse.json"));
+
+        List<SimpleBean> beans = em.findAll(SimpleBean.class, Arrays.asList("a01i00000000002", "a01i00000000003", "a01i00000000001", "a01i00000000002"));
+
+        assertThat(beans.size(), is(equalTo(2)));
+        assertThat(beans.get(0).getId(), is(equalTo("a01i00000000002")));
+        assertThat(beans.get(1).getId(), is(equalTo("a01i00000000001")));
+        verify(mockConnector).doQuery("SELECT Id,Name,Description FROM SimpleBean WHERE Id IN ('a01i00000000002','a01i00000000003','a01i00000000001')", null);
+    }
+
+    @Test
+    public void testFindAllInChunks() throws Exception {
+        List<String> ids = new ArrayList<String>();
+        ids.add("a01i00000000002");
+        for (int i = 0; i < 250; i++) {
+            ids.add(String.format("a01i0000000%04d", 1000 + i));
+        }
+        ids.add("a01i00000000001");
+        String chunk1Soql = "SELECT Id,Name,Description FROM SimpleBean WHERE Id IN ('" + StringUtils.join(ids.subList(0, 200), "','") + "')";
+        String chunk2Soql = "SELECT Id,Name,Description FROM SimpleBean WHERE Id IN ('" + StringUtils.join(ids.subList(200, 252), "','") + "')";
+        when(mockConnector.doQuery(eq(chunk1Soql), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("findAllChunkResponse1.json"));
+        when(mockConnector.doQuery(eq(chunk2Soql), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("findAllChunkResponse2.json"));
+
+        List<SimpleBean> beans = em.findAll(SimpleBean.class, ids);
+
+        // The results of both chunks come back in the order of the ids, not the order of the responses
+        assertThat(beans.size(), is(equalTo(4)));
+        assertThat(beans.get(0).getId(), is(equalTo("a01i00000000002")));
+        assertThat(beans.get(1).getId(), is(equalTo("a01i00000001100")));
+        assertThat(beans.get(2).getId(), is(equalTo("a01i00000001200")));
+        assertThat(beans.get(3).getId(), is(equalTo("a01i00000000001")));
+        verify(mockConnector).doQuery(chunk1Soql, null);
+        verify(mockConnector).doQuery(chunk2Soql, null);
+        verify(mockConnector, times(2)).doQuery(anyString(), anyMapOf(String.class, String.class));
+    }
+
+    @Test
+    public void testFindAllWithCaseSensitiveIds() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("caseInsensitiveIdQueryResponse.json"));
+
+        List<SimpleBean> beans = em.findAll(SimpleBean.class, Arrays.asList("a01i00000000002", "a01i00000000001AAA", "a01i00000000001"));
+
+        assertThat(beans.size(), is(equalTo(2)));
+        assertThat(beans.get(0).getId(), is(equalTo("a01i00000000002AAA")));
+        assertThat(beans.get(1).getId(), is(equalTo("a01i00000000001AAA")));
+        verify(mockConnector).doQuery("SELECT Id,Name,Description FROM SimpleBean WHERE Id IN ('a01i00000000002','a01i00000000001AAA')", null);
+    }
+
+    @Test
+    public void testLoadLazyRelationships() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("simpleQueryResponse.json"));
+
+        List<LazyRelationshipBean> beans = Arrays.asList(
+            newLazyRelationshipBean("a01i00000000001"),
+            newLazyRelationshipBean("a01i00000000002"),
+            newLazyRelationshipBean("a01i00000000001"),
+            newLazyRelationshipBean(null));
+
+        em.loadLazyRelationships(beans);
+
+        verify(mockConnector).doQuery("SELECT Id,Name,Description FROM SimpleBean WHERE Id IN ('a01i00000000001','a01i00000000002')", null);
+        assertThat(beans.get(0).getRelated().getName(), is(equalTo("Name 1")));
+        assertThat(beans.get(1).getRelated().getName(), is(equalTo("Name 2")));
+        assertThat(beans.get(2).getRelated(), is(sameInstance(beans.get(0).getRelated())));
+        assertThat(beans.get(3).getRelated(), is(nullValue()));
+    }
+
+    private static LazyRelationshipBean newLazyRelationshipBean(String relatedId) {
+        LazyRelationshipBean bean = new LazyRelationshipBean();
+        if (relatedId != null) {
+            SimpleBean related = new SimpleBean();
+            related.setId(relatedId);
+            bean.setRelated(related);
+        }
+        return bean;
+    }
+
     @Test
     public void testAggregateQuery() throws Exception {
         when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("aggregateQueryResponse.json"));
@@ -296,6 +812,23 @@ public class SimpleEntityManagerTest extends AbstractSimpleEntityManagerTest {
 
     @Test
     public void testDateTime() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("findDateTimeResponse.json"));
+
+        DateTimeBean bean = em.createQuery("select * from DateTimeBean where Id = 'a01i00000000001AAC'", DateTimeBean.class).getSingleResult();
+
+        assertDateTimes(bean);
+    }
+
+    @Test
+    public void testDateTimeRetrieve() throws Exception {
+        when(mockConnector.doRetrieve(anyString(), anyString(), anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("retrieveDateTimeResponse.json"));
+
+        DateTimeBean bean = em.find(DateTimeBean.class, "a01i00000000001AAC");
+
+        assertDateTimes(bean);
+    }
+
+    private static void assertDateTimes(DateTimeBean bean) throws Exception {
         TimeZone gmtTimeZone = TimeZone.getTimeZone("GMT");
         SimpleDateFormat iso8601Format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
         iso8601Format.setTimeZone(gmtTimeZone);
@@ -307,10 +840,6 @@ public class SimpleEntityManagerTest extends AbstractSimpleEntityManagerTest {
         DateTime jodaDateAndTime = new DateTime(javaDateAndTime.getTime(), DateTimeZone.UTC);
         DateMidnight jodaDateOnly = new DateMidnight(javaDateOnly.getTime(), DateTimeZone.UTC);
 
-        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("findDateTimeResponse.json"));
-
-        DateTimeBean bean = em.find(DateTimeBean.class, "a01i00000000001AAC");
-
         assertThat(bean, is(not(nullValue())));
 
         assertThat(bean.getJavaDateAndTime(), is(equalTo(javaDateAndTime)));
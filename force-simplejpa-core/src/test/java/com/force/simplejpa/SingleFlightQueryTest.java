@@ -0,0 +1,131 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa;
+
+import com.force.simplejpa.domain.SimpleBean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SingleFlightQueryTest extends AbstractSimpleEntityManagerTest {
+    private AuthorizationConnector mockAuthorizationConnector;
+    private ExecutorService callers;
+
+    @Before
+    public void initializeSingleFlight() {
+        mockAuthorizationConnector = mock(AuthorizationConnector.class);
+        when(mockAuthorizationConnector.getInstanceUrl()).thenReturn(URI.create("https://na1.salesforce.com"));
+        when(mockAuthorizationConnector.getAuthorization()).thenReturn("Bearer 00Di0000000TEST");
+        em = new RestSimpleEntityManager(mockConnector, mockAuthorizationConnector);
+        callers = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void shutdownCallers() {
+        callers.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentQueriesShareRequest() throws Exception {
+        final CountDownLatch requestStarted = new CountDownLatch(1);
+        final CountDownLatch releaseResponse = new CountDownLatch(1);
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenAnswer(new Answer<InputStream>() {
+            @Override
+            public InputStream answer(InvocationOnMock invocation) throws Throwable {
+                requestStarted.countDown();
+                releaseResponse.await(5, TimeUnit.SECONDS);
+                return getResourceStream("simpleQueryResponse.json");
+            }
+        });
+
+        Future<List<SimpleBean>> first = callers.submit(newQueryTask());
+        assertThat(requestStarted.await(5, TimeUnit.SECONDS), is(true));
+        final AtomicReference<Thread> secondThread = new AtomicReference<Thread>();
+        Future<List<SimpleBean>> second = callers.submit(new Callable<List<SimpleBean>>() {
+            @Override
+            public List<SimpleBean> call() throws Exception {
+                secondThread.set(Thread.currentThread());
+                return newQueryTask().call();
+            }
+        });
+        awaitJoin(secondThread);
+        releaseResponse.countDown();
+
+        assertThat(first.get().size(), is(equalTo(2)));
+        assertThat(second.get(), is(sameInstance(first.get())));
+        verify(mockConnector, times(1)).doQuery("select Id,Name,Description from SimpleBean", null);
+    }
+
+    @Test
+    public void testSequentialQueriesAreNotCached() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class)))
+            .thenReturn(getResourceStream("simpleQueryResponse.json"), getResourceStream("simpleQueryResponse.json"));
+
+        newQueryTask().call();
+        newQueryTask().call();
+
+        verify(mockConnector, times(2)).doQuery("select Id,Name,Description from SimpleBean", null);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSharedResultIsUnmodifiable() throws Exception {
+        when(mockConnector.doQuery(anyString(), anyMapOf(String.class, String.class))).thenReturn(getResourceStream("simpleQueryResponse.json"));
+
+        newQueryTask().call().clear();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSingleFlightWithoutAuthorizationConnector() throws Exception {
+        new RestSimpleEntityManager(mockConnector).createQuery("select * from SimpleBean", SimpleBean.class).setSingleFlight(true).getResultList();
+    }
+
+    /**
+     * Waits until a caller is blocked without a timeout, which is how it waits for an execution in flight. A caller
+     * which made its own request would be held by the blocking connector instead, which waits with a timeout.
+     */
+    private static void awaitJoin(AtomicReference<Thread> caller) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (caller.get() == null || caller.get().getState() != Thread.State.WAITING) {
+            if (System.currentTimeMillis() > deadline)
+                fail("The second caller didn't join the query in flight");
+            Thread.sleep(1);
+        }
+    }
+
+    private Callable<List<SimpleBean>> newQueryTask() {
+        return new Callable<List<SimpleBean>>() {
+            @Override
+            public List<SimpleBean> call() {
+                return em.createQuery("select * from SimpleBean", SimpleBean.class).setSingleFlight(true).getResultList();
+            }
+        };
+    }
+}
@@ -5,10 +5,19 @@
  */
 package com.force.simplejpa;
 
+import com.force.simplejpa.domain.LazyRelationshipBean;
 import com.force.simplejpa.domain.RecursiveBean;
 import com.force.simplejpa.domain.SimpleBean;
+import com.force.simplejpa.domain.SimpleBeanSummary;
+import com.force.simplejpa.domain.SimpleContainerBean;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
@@ -71,6 +80,15 @@ public class SoqlBuilderTest {
         assertThat(soql, is(equalTo(expectedSoql)));
     }
 
+    @Test
+    public void testWildcardWithResultDescriptor() throws Exception {
+        String soqlTemplate = "select * from SimpleBean where Id = '012345678901234'";
+        String expectedSoql = "select Id,Name from SimpleBean where Id = '012345678901234'";
+
+        String soql = new SoqlBuilder(mappingContext.getEntityDescriptor(SimpleBean.class)).soqlTemplate(soqlTemplate).resultDescriptor(mappingContext.getEntityDescriptor(SimpleBeanSummary.class)).build();
+        assertThat(soql, is(equalTo(expectedSoql)));
+    }
+
     @Test
     public void testRelationshipSubquery() throws Exception {
         String soqlTemplate = "select (select RelatedBean.* from SimpleBean.RelatedBeans) from SimpleBean where Id = '012345678901234'";
@@ -80,6 +98,28 @@ public class SoqlBuilderTest {
         assertThat(soql, is(equalTo(expectedSoql)));
     }
 
+    @Test
+    public void testDepth() throws Exception {
+        String soqlTemplate = "select * from SimpleContainerBean";
+        String expectedShallowSoql = "select Id from SimpleContainerBean";
+        String expectedDeepSoql = "select Id,(SELECT Id,Name,Description from RelatedBeans),(SELECT Id,Name,Description from MoreRelatedBeans) from SimpleContainerBean";
+
+        // Same descriptor and template at different depths must not share a wildcard substitution
+        String shallowSoql = new SoqlBuilder(mappingContext.getEntityDescriptor(SimpleContainerBean.class)).soqlTemplate(soqlTemplate).depth(0).build();
+        String deepSoql = new SoqlBuilder(mappingContext.getEntityDescriptor(SimpleContainerBean.class)).soqlTemplate(soqlTemplate).depth(1).build();
+        assertThat(shallowSoql, is(equalTo(expectedShallowSoql)));
+        assertThat(deepSoql, is(equalTo(expectedDeepSoql)));
+    }
+
+    @Test
+    public void testLazyRelationship() throws Exception {
+        String soqlTemplate = "select * from LazyRelationshipBean";
+        String expectedSoql = "select Id,Name,Related.Id,Owner.Id,Owner.Name from LazyRelationshipBean";
+
+        String soql = new SoqlBuilder(mappingContext.getEntityDescriptor(LazyRelationshipBean.class)).soqlTemplate(soqlTemplate).build();
+        assertThat(soql, is(equalTo(expectedSoql)));
+    }
+
     @Test
     public void testRecursiveTypeReferences() throws Exception {
         String soqlTemplate = "select * from RecursiveBean where Id = '012345678901234'";
@@ -88,4 +128,182 @@ public class SoqlBuilderTest {
         String soql = new SoqlBuilder(mappingContext.getEntityDescriptor(RecursiveBean.class)).soqlTemplate(soqlTemplate).build();
         assertThat(soql, is(equalTo(expectedSoql)));
     }
+
+    @Test
+    public void testCount() throws Exception {
+        String soqlTemplate = "select * from SimpleBean where Name = 'Name 1'";
+        String expectedSoql = "SELECT COUNT() from SimpleBean where Name = 'Name 1'";
+
+        String soql = new SoqlBuilder(mappingContext.getEntityDescriptor(SimpleBean.class)).soqlTemplate(soqlTemplate).limit(10).buildCount();
+        assertThat(soql, is(equalTo(expectedSoql)));
+    }
+
+    @Test
+    public void testCountWithSubqueryAndLiteral() throws Exception {
+        String soqlTemplate = "select (select Id from SimpleBean.RelatedBeans), Name FROM SimpleBean where Name = 'select x from y'";
+        String expectedSoql = "SELECT COUNT() FROM SimpleBean where Name = 'select x from y'";
+
+        String soql = new SoqlBuilder(mappingContext.getEntityDescriptor(SimpleBean.class)).soqlTemplate(soqlTemplate).buildCount();
+        assertThat(soql, is(equalTo(expectedSoql)));
+    }
+
+    @Test
+    public void testCountWithOrderBy() throws Exception {
+        String soqlTemplate = "select * from SimpleBean where Name != null order  by Name desc limit 100";
+        String expectedSoql = "SELECT COUNT() from SimpleBean where Name != null limit 100";
+
+        String soql = new SoqlBuilder(mappingContext.getEntityDescriptor(SimpleBean.class)).soqlTemplate(soqlTemplate).buildCount();
+        assertThat(soql, is(equalTo(expectedSoql)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCountWithoutFrom() throws Exception {
+        new SoqlBuilder(mappingContext.getEntityDescriptor(SimpleBean.class)).soqlTemplate("select * fromage").buildCount();
+    }
+
+    @Test
+    public void testLimitMergedWithTemplateLimit() throws Exception {
+        String soqlTemplate = "select * from SimpleBean where Name != null order by Name limit 1";
+        String expectedSoql = "select Id,Name,Description from SimpleBean where Name != null order by Name LIMIT 1";
+
+        String soql = new SoqlBuilder(mappingContext.getEntityDescriptor(SimpleBean.class)).soqlTemplate(soqlTemplate).limit(2).build();
+        assertThat(soql, is(equalTo(expectedSoql)));
+    }
+
+    @Test
+    public void testPaginationMergedWithTemplateLimitAndOffset() throws Exception {
+        String soqlTemplate = "select * from SimpleBean limit 100 offset 10";
+        String expectedSoql = "select Id,Name,Description from SimpleBean LIMIT 10 OFFSET 100";
+
+        String soql = new SoqlBuilder(mappingContext.getEntityDescriptor(SimpleBean.class)).soqlTemplate(soqlTemplate).offset(90).limit(50).build();
+        assertThat(soql, is(equalTo(expectedSoql)));
+    }
+
+    @Test
+    public void testLimitMergedWithParameterizedTemplateLimit() throws Exception {
+        String soqlTemplate = "select * from SimpleBean where Name = :limit limit :max";
+        String expectedSoql = "select Id,Name,Description from SimpleBean where Name = 'x' LIMIT 3 OFFSET 2";
+
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("limit", "x");
+        parameters.put("max", 5);
+        String soql = new SoqlBuilder(mappingContext.getEntityDescriptor(SimpleBean.class)).soqlTemplate(soqlTemplate).parameters(parameters).offset(2).limit(10).build();
+        assertThat(soql, is(equalTo(expectedSoql)));
+    }
+
+    @Test
+    public void testLimitBeforeForClause() throws Exception {
+        String soqlTemplate = "select * from SimpleBean where Name = 'for update' for update";
+        String expectedSoql = "select Id,Name,Description from SimpleBean where Name = 'for update' LIMIT 2 for update";
+
+        String soql = new SoqlBuilder(mappingContext.getEntityDescriptor(SimpleBean.class)).soqlTemplate(soqlTemplate).limit(2).build();
+        assertThat(soql, is(equalTo(expectedSoql)));
+    }
+
+    @Test
+    public void testLimitMergedBeforeForView() throws Exception {
+        String soqlTemplate = "select * from SimpleBean limit 5 for view";
+        String expectedSoql = "select Id,Name,Description from SimpleBean LIMIT 2 OFFSET 1 for view";
+
+        String soql = new SoqlBuilder(mappingContext.getEntityDescriptor(SimpleBean.class)).soqlTemplate(soqlTemplate).offset(1).limit(2).build();
+        assertThat(soql, is(equalTo(expectedSoql)));
+    }
+
+    @Test
+    public void testKeysetFirstPage() throws Exception {
+        String soqlTemplate = "select * from SimpleBean where Name != null";
+        String expectedSoql = "select Id,Name,Description from SimpleBean where Name != null ORDER BY Id LIMIT 10";
+
+        String soql = new SoqlBuilder(mappingContext.getEntityDescriptor(SimpleBean.class)).soqlTemplate(soqlTemplate).keyset("Id", null).offset(20).limit(10).build();
+        assertThat(soql, is(equalTo(expectedSoql)));
+    }
+
+    @Test
+    public void testKeysetNextPage() throws Exception {
+        String soqlTemplate = "select * from SimpleBean where Name = :name or Name = null";
+        String expectedSoql = "select Id,Name,Description from SimpleBean where (Name = 'Name 1' or Name = null) AND Id > 'a01i00000000002' ORDER BY Id LIMIT 10";
+
+        String soql = new SoqlBuilder(mappingContext.getEntityDescriptor(SimpleBean.class)).soqlTemplate(soqlTemplate).parameters(Collections.singletonMap("name", "Name 1"))
+            .keyset("Id", "a01i00000000002").limit(10).build();
+        assertThat(soql, is(equalTo(expectedSoql)));
+    }
+
+    @Test
+    public void testKeysetWithoutWhere() throws Exception {
+        String soqlTemplate = "select Name from SimpleBean for view";
+        String expectedSoql = "SELECT Id from SimpleBean WHERE Id > 'a01i00000000002' ORDER BY Id for view";
+
+        String soql = new SoqlBuilder(mappingContext.getEntityDescriptor(SimpleBean.class)).soqlTemplate(soqlTemplate).selectList("Id").keyset("Id", "a01i00000000002").build();
+        assertThat(soql, is(equalTo(expectedSoql)));
+    }
+
+    @Test
+    public void testKeysetAddsKeyToSelectList() throws Exception {
+        String soqlTemplate = "select Name, (select Id from Children__r) from SimpleBean";
+        String expectedSoql = "select Id, Name, (select Id from Children__r) from SimpleBean ORDER BY Id LIMIT 10";
+
+        String soql = new SoqlBuilder(mappingContext.getEntityDescriptor(SimpleBean.class)).soqlTemplate(soqlTemplate).keyset("Id", null).limit(10).build();
+        assertThat(soql, is(equalTo(expectedSoql)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testKeysetWithOrderBy() throws Exception {
+        new SoqlBuilder(mappingContext.getEntityDescriptor(SimpleBean.class)).soqlTemplate("select * from SimpleBean order by Name").keyset("Id", null).build();
+    }
+
+    @Test
+    public void testKeysetWithTemplateLimit() throws Exception {
+        String soqlTemplate = "select * from SimpleBean limit 5 for view";
+        String expectedSoql = "select Id,Name,Description from SimpleBean WHERE Id > 'a01i00000000002' ORDER BY Id LIMIT 1 for view";
+
+        String soql = new SoqlBuilder(mappingContext.getEntityDescriptor(SimpleBean.class)).soqlTemplate(soqlTemplate).keyset("Id", "a01i00000000002").offset(4).limit(2).build();
+        assertThat(soql, is(equalTo(expectedSoql)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testKeysetWithOffset() throws Exception {
+        new SoqlBuilder(mappingContext.getEntityDescriptor(SimpleBean.class)).soqlTemplate("select * from SimpleBean offset 10").keyset("Id", null).build();
+    }
+
+    @Test
+    public void testParameters() throws Exception {
+        String soqlTemplate = "select * from SimpleBean where Name = :name and Description in :descriptions and Id != 'not:param'";
+        String expectedSoql = "select Id,Name,Description from SimpleBean where Name = 'It\\'s \\\\ \\\"quoted\\\"' and Description in ('A','B') and Id != 'not:param' LIMIT 5";
+
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("name", "It's \\ \"quoted\"");
+        parameters.put("descriptions", Arrays.asList("A", "B"));
+
+        String soql = new SoqlBuilder(mappingContext.getEntityDescriptor(SimpleBean.class)).soqlTemplate(soqlTemplate).parameters(parameters).limit(5).build();
+        assertThat(soql, is(equalTo(expectedSoql)));
+    }
+
+    @Test
+    public void testNonStringParameters() throws Exception {
+        String soqlTemplate = "select Id from SimpleBean where CreatedDate > :since and Amount__c > :amount and Active__c = :active and CreatedDate = LAST_N_DAYS:30";
+        String expectedSoql = "select Id from SimpleBean where CreatedDate > 1999-04-01T08:14:56Z and Amount__c > 12.5 and Active__c = true and CreatedDate = LAST_N_DAYS:30";
+
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("since", new Date(922954496000L));
+        parameters.put("amount", 12.5);
+        parameters.put("active", true);
+
+        String soql = new SoqlBuilder(mappingContext.getEntityDescriptor(SimpleBean.class)).soqlTemplate(soqlTemplate).parameters(parameters).build();
+        assertThat(soql, is(equalTo(expectedSoql)));
+    }
+
+    @Test
+    public void testParametersWithCachedTemplate() throws Exception {
+        String soqlTemplate = "select * from SimpleBean where Id = :id";
+
+        String soql1 = new SoqlBuilder(mappingContext.getEntityDescriptor(SimpleBean.class)).soqlTemplate(soqlTemplate).parameters(Collections.singletonMap("id", "1")).build();
+        String soql2 = new SoqlBuilder(mappingContext.getEntityDescriptor(SimpleBean.class)).soqlTemplate(soqlTemplate).parameters(Collections.singletonMap("id", "2")).build();
+        assertThat(soql1, is(equalTo("select Id,Name,Description from SimpleBean where Id = '1'")));
+        assertThat(soql2, is(equalTo("select Id,Name,Description from SimpleBean where Id = '2'")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingParameter() throws Exception {
+        new SoqlBuilder(mappingContext.getEntityDescriptor(SimpleBean.class)).soqlTemplate("select * from SimpleBean where Id = :id").build();
+    }
 }
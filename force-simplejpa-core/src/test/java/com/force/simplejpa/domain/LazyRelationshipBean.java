@@ -0,0 +1,62 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa.domain;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+
+@Entity
+public class LazyRelationshipBean {
+    @Id
+    @Column(name = "Id")
+    private String id;
+
+    @Column(name = "Name")
+    private String name;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @Column(name = "Related")
+    private SimpleBean related;
+
+    @ManyToOne
+    @Column(name = "Owner")
+    private UserMoniker owner;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public SimpleBean getRelated() {
+        return related;
+    }
+
+    public void setRelated(SimpleBean related) {
+        this.related = related;
+    }
+
+    public UserMoniker getOwner() {
+        return owner;
+    }
+
+    public void setOwner(UserMoniker owner) {
+        this.owner = owner;
+    }
+}
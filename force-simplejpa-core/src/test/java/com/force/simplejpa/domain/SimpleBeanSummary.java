@@ -0,0 +1,34 @@
+/*
+ * Copyright, 2013, SALESFORCE.com
+ * All Rights Reserved
+ * Company Confidential
+ */
+package com.force.simplejpa.domain;
+
+import javax.persistence.Column;
+import javax.persistence.Id;
+
+public class SimpleBeanSummary {
+    @Id
+    @Column(name = "Id")
+    private String id;
+
+    @Column(name = "Name")
+    private String name;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+}
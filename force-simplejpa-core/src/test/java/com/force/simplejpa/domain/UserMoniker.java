@@ -16,6 +16,9 @@ public class UserMoniker {
     @Column(name = "Name")
     private String name;
 
+    public UserMoniker() {
+    }
+
     public UserMoniker(String id) {
         this.id = id;
     }
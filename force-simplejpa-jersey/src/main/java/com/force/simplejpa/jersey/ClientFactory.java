@@ -6,6 +6,7 @@
 package com.force.simplejpa.jersey;
 
 import com.force.simplejpa.AuthorizationConnector;
+import com.force.simplejpa.AuthorizationContext;
 import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.ClientRequest;
 import com.sun.jersey.api.client.ClientResponse;
@@ -27,6 +28,10 @@ import javax.ws.rs.core.HttpHeaders;
  * factory or something derived from it.
  * <p/>
  * By default, the returned instances use a {@link ThreadSafeClientConnManager} in order to support multi-threaded use.
+ * <p/>
+ * The authorization is looked up through {@link AuthorizationContext} so that requests made by background work see
+ * the authorization of the thread which started the operation. Requests which already carry an Authorization header
+ * (such as the asynchronous requests of {@link JerseyRestConnector}) are sent as they are.
  *
  * @author dbuccola
  */
@@ -60,7 +65,11 @@ public final class ClientFactory {
         client.addFilter(new ClientFilter() {
             @Override
             public ClientResponse handle(ClientRequest clientRequest) {
-                clientRequest.getHeaders().add(HttpHeaders.AUTHORIZATION, authorizationConnector.getAuthorization());
+                // Asynchronous requests come with the header already, obtained on the thread which issued them
+                if (!clientRequest.getHeaders().containsKey(HttpHeaders.AUTHORIZATION)) {
+                    clientRequest.getHeaders().add(
+                        HttpHeaders.AUTHORIZATION, AuthorizationContext.getAuthorization(authorizationConnector));
+                }
                 return getNext().handle(clientRequest);
             }
         });
@@ -5,37 +5,60 @@
  */
 package com.force.simplejpa.jersey;
 
+import com.force.simplejpa.AsyncRestConnector;
 import com.force.simplejpa.AuthorizationConnector;
+import com.force.simplejpa.AuthorizationContext;
+import com.force.simplejpa.BulkConnector;
+import com.force.simplejpa.BulkResultChunk;
 import com.force.simplejpa.EntityRequestException;
 import com.force.simplejpa.RestConnector;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.sun.jersey.api.client.AsyncWebResource;
 import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.UniformInterfaceException;
 import com.sun.jersey.api.client.WebResource;
+import com.sun.jersey.api.client.async.TypeListener;
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A {@link RestConnector} implementation that uses Sun's Jersey 1.x client to connect to Salesforce persistence using
- * the REST API.
+ * the REST API. It is also a {@link BulkConnector} for running Bulk API 2.0 query jobs, which live under the same
+ * versioned path.
+ * <p/>
+ * It is an {@link AsyncRestConnector} as well, issuing requests through Jersey's asynchronous client API and completing
+ * the returned futures from Jersey's completion callbacks. Jersey 1.x performs each asynchronous request as an
+ * ordinary blocking request on the executor of the {@link Client} (see {@link Client#setExecutorService}), so a
+ * thread of that executor is tied up for every request in flight and the executor limits how many there can be. The
+ * responses are buffered before the futures complete. The Authorization header of an asynchronous request is
+ * obtained on the calling thread, since the client's filters run on the executor.
  *
  * @author davidbuccola
  */
-public final class JerseyRestConnector implements RestConnector {
+public final class JerseyRestConnector implements RestConnector, BulkConnector, AsyncRestConnector {
     private static final Logger log = LoggerFactory.getLogger(JerseyRestConnector.class);
+    private static final String LOCATOR_HEADER_NAME = "Sforce-Locator";
+    private static final MediaType CSV_TYPE = new MediaType("text", "csv");
+
     private static final Cache<URI, String> versionedPathCache = CacheBuilder.newBuilder().expireAfterWrite(1, TimeUnit.HOURS).build();
 
     private final AuthorizationConnector authorizationConnector;
@@ -67,7 +90,8 @@ public final class JerseyRestConnector implements RestConnector {
     private WebResource getDataResource() {
         WebResource dataResource = dataResourceHolder.get();
         if (dataResource == null) {
-            WebResource instanceResource = client.resource(authorizationConnector.getInstanceUrl());
+            WebResource instanceResource =
+                client.resource(AuthorizationContext.getInstanceUrl(authorizationConnector));
             dataResource = instanceResource.path(getVersionedPath(instanceResource, apiVersion));
             dataResourceHolder.compareAndSet(null, dataResource);
         }
@@ -104,6 +128,38 @@ public final class JerseyRestConnector implements RestConnector {
         }
     }
 
+    @Override
+    public InputStream doQueryAll(String soql, Map<String, String> headers) {
+        try {
+            WebResource.Builder resource =
+                buildResource(getDataResource().path("queryAll").queryParam("q", soql), headers);
+            return resource.get(InputStream.class);
+        } catch (UniformInterfaceException e) {
+            throw new EntityRequestException(String.format("Query failed: %s", extractMessage(e)), e);
+        }
+    }
+
+    @Override
+    public InputStream doRetrieve(String entityType, String id, String fields, Map<String, String> headers) {
+        try {
+            WebResource.Builder resource =
+                buildResource(
+                    getDataResource().path("sobjects").path(entityType).path(id).queryParam("fields", fields), headers);
+            ClientResponse response = resource.get(ClientResponse.class);
+
+            if (isNotFound(response)) {
+                response.close();
+                return null;
+            }
+            if (response.getStatus() >= 300) {
+                throw new UniformInterfaceException(response, true);
+            }
+            return response.getEntityInputStream();
+        } catch (UniformInterfaceException e) {
+            throw new EntityRequestException(String.format("Retrieve failed: %s", extractMessage(e)), e);
+        }
+    }
+
     @Override
     public void doUpdate(String entityType, String id, String jsonBody, Map<String, String> headers) {
         try {
@@ -132,9 +188,137 @@ public final class JerseyRestConnector implements RestConnector {
         }
     }
 
+    @Override
+    public InputStream doCreateQueryJob(String jsonBody, Map<String, String> headers) {
+        try {
+            WebResource.Builder resource = buildResource(getDataResource().path("jobs").path("query"), headers);
+            return resource.post(InputStream.class, jsonBody);
+        } catch (UniformInterfaceException e) {
+            throw new EntityRequestException(String.format("Bulk query job creation failed: %s", extractMessage(e)), e);
+        }
+    }
+
+    @Override
+    public InputStream doGetQueryJob(String jobId, Map<String, String> headers) {
+        try {
+            WebResource.Builder resource =
+                buildResource(getDataResource().path("jobs").path("query").path(jobId), headers);
+            return resource.get(InputStream.class);
+        } catch (UniformInterfaceException e) {
+            throw new EntityRequestException(String.format("Bulk query job status failed: %s", extractMessage(e)), e);
+        }
+    }
+
+    @Override
+    public BulkResultChunk doGetQueryResults(String jobId, String locator, Map<String, String> headers) {
+        try {
+            WebResource resultsResource = getDataResource().path("jobs").path("query").path(jobId).path("results");
+            if (locator != null)
+                resultsResource = resultsResource.queryParam("locator", locator);
+            WebResource.Builder resource = buildResource(resultsResource, CSV_TYPE, headers);
+            ClientResponse response = resource.get(ClientResponse.class);
+
+            if (response.getStatus() >= 300) {
+                throw new UniformInterfaceException(response, true);
+            }
+            return new BulkResultChunk(
+                response.getEntityInputStream(), response.getHeaders().getFirst(LOCATOR_HEADER_NAME));
+        } catch (UniformInterfaceException e) {
+            throw new EntityRequestException(String.format("Bulk query results failed: %s", extractMessage(e)), e);
+        }
+    }
+
+    @Override
+    public ListenableFuture<InputStream> doCreateAsync(
+        String entityType, String jsonBody, Map<String, String> headers) {
+
+        SettableFuture<InputStream> future = SettableFuture.create();
+        buildAsyncResource(getAsyncDataResource().path("sobjects").path(entityType), headers)
+            .post(new BodyListener(future, "Create failed", false), jsonBody);
+        return future;
+    }
+
+    @Override
+    public ListenableFuture<InputStream> doGetAsync(URI uri, Map<String, String> headers) {
+        SettableFuture<InputStream> future = SettableFuture.create();
+        buildAsyncResource(getAsyncDataResource().uri(uri), headers)
+            .get(new BodyListener(future, "Get failed", false));
+        return future;
+    }
+
+    @Override
+    public ListenableFuture<InputStream> doQueryAsync(String soql, Map<String, String> headers) {
+        SettableFuture<InputStream> future = SettableFuture.create();
+        buildAsyncResource(getAsyncDataResource().path("query").queryParam("q", soql), headers)
+            .get(new BodyListener(future, "Query failed", false));
+        return future;
+    }
+
+    @Override
+    public ListenableFuture<InputStream> doQueryAllAsync(String soql, Map<String, String> headers) {
+        SettableFuture<InputStream> future = SettableFuture.create();
+        buildAsyncResource(getAsyncDataResource().path("queryAll").queryParam("q", soql), headers)
+            .get(new BodyListener(future, "Query failed", false));
+        return future;
+    }
+
+    @Override
+    public ListenableFuture<InputStream> doRetrieveAsync(
+        String entityType, String id, String fields, Map<String, String> headers) {
+
+        SettableFuture<InputStream> future = SettableFuture.create();
+        buildAsyncResource(
+            getAsyncDataResource().path("sobjects").path(entityType).path(id).queryParam("fields", fields), headers)
+            .get(new BodyListener(future, "Retrieve failed", true));
+        return future;
+    }
+
+    @Override
+    public ListenableFuture<Void> doUpdateAsync(
+        String entityType, String id, String jsonBody, Map<String, String> headers) {
+
+        SettableFuture<Void> future = SettableFuture.create();
+        buildAsyncResource(getAsyncDataResource().path("sobjects").path(entityType).path(id), headers)
+            .method("PATCH", new NoBodyListener(future, "Updated failed"), jsonBody);
+        return future;
+    }
+
+    @Override
+    public ListenableFuture<Void> doDeleteAsync(String entityType, String id, Map<String, String> headers) {
+        SettableFuture<Void> future = SettableFuture.create();
+        buildAsyncResource(getAsyncDataResource().path("sobjects").path(entityType).path(id), headers)
+            .delete(new NoBodyListener(future, "Delete failed"));
+        return future;
+    }
+
+    /**
+     * Obtain an asynchronous version of the data resource. Obtaining the data resource the first time may involve
+     * server I/O to find the highest API version if no version was specified.
+     */
+    private AsyncWebResource getAsyncDataResource() {
+        return client.asyncResource(getDataResource().getURI());
+    }
+
+    private AsyncWebResource.Builder buildAsyncResource(AsyncWebResource resource, Map<String, String> headers) {
+        AsyncWebResource.Builder builder = resource
+            .accept(MediaType.APPLICATION_JSON_TYPE)
+            .type(MediaType.APPLICATION_JSON_TYPE)
+            .header(HttpHeaders.AUTHORIZATION, AuthorizationContext.getAuthorization(authorizationConnector));
+        if (headers != null) {
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                builder = builder.header(entry.getKey(), entry.getValue());
+            }
+        }
+        return builder;
+    }
+
     private WebResource.Builder buildResource(WebResource resource, Map<String, String> headers) {
+        return buildResource(resource, MediaType.APPLICATION_JSON_TYPE, headers);
+    }
+
+    private WebResource.Builder buildResource(WebResource resource, MediaType acceptType, Map<String, String> headers) {
         WebResource.Builder builder = resource
-            .accept(MediaType.APPLICATION_JSON_TYPE)
+            .accept(acceptType)
             .type(MediaType.APPLICATION_JSON_TYPE);
         if (headers != null) {
             for (Map.Entry<String, String> entry : headers.entrySet()) {
@@ -144,6 +328,30 @@ public final class JerseyRestConnector implements RestConnector {
         return builder;
     }
 
+    /**
+     * Tells whether a response says that the requested object doesn't exist. Salesforce also answers 404 for an
+     * unknown object type (INVALID_TYPE) or a malformed path, which are mistakes rather than missing objects, so only
+     * a 404 with the NOT_FOUND error code counts. The body stays readable for the error message otherwise.
+     */
+    private static boolean isNotFound(ClientResponse response) {
+        if (response.getStatus() != ClientResponse.Status.NOT_FOUND.getStatusCode())
+            return false;
+
+        response.bufferEntity();
+        try {
+            JSONArray jsonResponse = new JSONArray(response.getEntity(String.class));
+            return "NOT_FOUND".equals(jsonResponse.getJSONObject(0).optString("errorCode"));
+        } catch (Exception e) {
+            return false; // Not a Salesforce error, so it isn't the object which is missing
+        } finally {
+            try {
+                response.getEntityInputStream().reset();
+            } catch (IOException e) {
+                // Can't happen because a buffered entity is held in memory
+            }
+        }
+    }
+
     private String extractMessage(UniformInterfaceException e) {
         try {
             JSONArray jsonResponse = e.getResponse().getEntity(JSONArray.class);
@@ -155,6 +363,82 @@ public final class JerseyRestConnector implements RestConnector {
         }
     }
 
+    /**
+     * Completes a future with what is read from the response to an asynchronous request, or with an
+     * {@link EntityRequestException} if Salesforce rejected the request.
+     */
+    private abstract class ResponseListener<T> extends TypeListener<ClientResponse> {
+        private final SettableFuture<T> future;
+        private final String failureMessage;
+
+        private ResponseListener(SettableFuture<T> future, String failureMessage) {
+            super(ClientResponse.class);
+            this.future = future;
+            this.failureMessage = failureMessage;
+        }
+
+        @Override
+        public void onComplete(Future<ClientResponse> responseFuture) throws InterruptedException {
+            try {
+                future.set(read(responseFuture.get()));
+            } catch (ExecutionException e) {
+                future.setException(
+                    new EntityRequestException(
+                        String.format("%s: %s", failureMessage, e.getCause().getMessage()), e.getCause()));
+            } catch (UniformInterfaceException e) {
+                future.setException(
+                    new EntityRequestException(String.format("%s: %s", failureMessage, extractMessage(e)), e));
+            } catch (RuntimeException e) {
+                future.setException(e);
+            }
+        }
+
+        protected abstract T read(ClientResponse response);
+    }
+
+    /**
+     * Hands over the buffered body of a successful response.
+     */
+    private final class BodyListener extends ResponseListener<InputStream> {
+        private final boolean notFoundIsNull;
+
+        private BodyListener(SettableFuture<InputStream> future, String failureMessage, boolean notFoundIsNull) {
+            super(future, failureMessage);
+            this.notFoundIsNull = notFoundIsNull;
+        }
+
+        @Override
+        protected InputStream read(ClientResponse response) {
+            if (notFoundIsNull && isNotFound(response)) {
+                response.close();
+                return null;
+            }
+            if (response.getStatus() >= 300) {
+                throw new UniformInterfaceException(response, true);
+            }
+            response.bufferEntity();
+            return response.getEntityInputStream();
+        }
+    }
+
+    /**
+     * Checks the status of a response which has no body of interest.
+     */
+    private final class NoBodyListener extends ResponseListener<Void> {
+        private NoBodyListener(SettableFuture<Void> future, String failureMessage) {
+            super(future, failureMessage);
+        }
+
+        @Override
+        protected Void read(ClientResponse response) {
+            if (response.getStatus() >= 300) {
+                throw new UniformInterfaceException(response, true);
+            }
+            response.close();
+            return null;
+        }
+    }
+
     private static String getVersionedPath(final WebResource instanceResource, String apiVersion) {
         if (apiVersion != null) {
             return "/services/data/" + apiVersion;
@@ -66,7 +66,8 @@ public class SimpleEntityManagerFactory {
         Validate.notNull(authorizationConnector, "authorizationConnector must not be null");
         Validate.notNull(client, "client must not be null");
 
-        return new RestSimpleEntityManager(new JerseyRestConnector(authorizationConnector, client, apiVersion));
+        return new RestSimpleEntityManager(
+            new JerseyRestConnector(authorizationConnector, client, apiVersion), authorizationConnector);
     }
 
     private AuthorizationConnector getDefaultAuthorizationConnector() {